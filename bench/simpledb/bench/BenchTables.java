@@ -0,0 +1,51 @@
+package simpledb.bench;
+
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds the tables the benchmarks read.  Tables are filled with random
+ * ints from a fixed seed, so every run reads the same data.
+ */
+final class BenchTables {
+
+    private BenchTables() {
+    }
+
+    /**
+     * Write a table of int columns to a temporary file and add it to the
+     * Catalog of the current Database.
+     *
+     * @param rows the number of tuples
+     * @param cols the number of int columns
+     * @return the table
+     */
+    static HeapFile create(int rows, int cols) throws IOException {
+        Random random = new Random(rows * 31L + cols);
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            List<Integer> tuple = new ArrayList<>(cols);
+            for (int j = 0; j < cols; j++)
+                tuple.add(random.nextInt(1 << 16));
+            tuples.add(tuple);
+        }
+        File file = File.createTempFile("bench", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), cols);
+        return Utility.openHeapFile(cols, file);
+    }
+
+    /** @return the number of tuples of cols int columns that fill pages pages */
+    static int rowsFor(int pages, int cols) {
+        int perPage = BufferPool.getPageSize() * 8 / (cols * 4 * 8 + 1);
+        return pages * perPage;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * BufferPool.getPage with shared locks, for pages that are cached (hit)
+ * and for a table larger than the pool (miss).  Each thread is a
+ * transaction of its own; run with -t to vary the thread count.
+ */
+public class BufferPoolBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Pool {
+        /** Frames in the BufferPool. */
+        @Param({"50", "500"})
+        public int poolPages;
+
+        HeapFile hot;
+        HeapFile cold;
+
+        @Setup
+        public void setup() throws IOException {
+            Database.reset();
+            Database.resetBufferPool(poolPages);
+            // half the pool, so every page stays cached
+            hot = BenchTables.create(BenchTables.rowsFor(Math.max(1, poolPages / 2), 2), 2);
+            // four times the pool, so most reads evict a page
+            cold = BenchTables.create(BenchTables.rowsFor(poolPages * 4, 2), 2);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Txn {
+        TransactionId tid;
+
+        @Setup(Level.Iteration)
+        public void begin() {
+            tid = new TransactionId();
+        }
+
+        @TearDown(Level.Iteration)
+        public void end() {
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+    }
+
+    private static Page get(Txn txn, HeapFile hf) throws TransactionAbortedException, DbException {
+        int pgNo = ThreadLocalRandom.current().nextInt(hf.numPages());
+        return Database.getBufferPool().getPage(txn.tid, new HeapPageId(hf.getId(), pgNo),
+                Permissions.READ_ONLY);
+    }
+
+    @Benchmark
+    public Page hit(Pool pool, Txn txn) throws TransactionAbortedException, DbException {
+        return get(txn, pool.hot);
+    }
+
+    @Benchmark
+    public Page miss(Pool pool, Txn txn) throws TransactionAbortedException, DbException {
+        return get(txn, pool.cold);
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * HeapFile.readPage of random pages, bypassing the BufferPool: the cost of
+ * one page read from the file (mostly from the OS page cache) and decoded.
+ */
+@State(Scope.Benchmark)
+public class HeapFileBenchmark {
+
+    /** Pages in the table. */
+    @Param({"16", "1024"})
+    public int tablePages;
+
+    private HeapFile hf;
+
+    @Setup
+    public void setup() throws IOException {
+        Database.reset();
+        hf = BenchTables.create(BenchTables.rowsFor(tablePages, 2), 2);
+    }
+
+    @Benchmark
+    public Page readPage() {
+        int pgNo = ThreadLocalRandom.current().nextInt(tablePages);
+        return hf.readPage(new HeapPageId(hf.getId(), pgNo));
+    }
+}
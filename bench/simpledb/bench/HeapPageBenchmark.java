@@ -0,0 +1,58 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Decoding a full HeapPage from its bytes, encoding it back, and iterating
+ * its tuples, for tuples of a few widths.
+ */
+@State(Scope.Thread)
+public class HeapPageBenchmark {
+
+    /** Int columns per tuple. */
+    @Param({"1", "4", "16"})
+    public int cols;
+
+    private HeapPageId pid;
+    private byte[] data;
+    private HeapPage page;
+
+    @Setup
+    public void setup() throws IOException {
+        Database.reset();
+        HeapFile hf = BenchTables.create(BenchTables.rowsFor(1, cols), cols);
+        pid = new HeapPageId(hf.getId(), 0);
+        page = (HeapPage) hf.readPage(pid);
+        data = page.getPageData();
+    }
+
+    @Benchmark
+    public HeapPage decode() throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return page.getPageData();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) {
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            bh.consume(it.next());
+    }
+}
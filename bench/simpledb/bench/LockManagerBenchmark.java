@@ -0,0 +1,61 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import simpledb.common.LockManager;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * LockManager.acquire followed by release, shared and exclusive.  With one
+ * lock every thread contends for it; with many, threads rarely meet.  Run
+ * with -t to vary the thread count.
+ */
+public class LockManagerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Locks {
+        /** Number of locks the threads pick from. */
+        @Param({"1", "1024"})
+        public int locks;
+
+        LockManager lm;
+
+        @Setup
+        public void setup() {
+            lm = new LockManager(locks);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Txn {
+        final TransactionId tid = new TransactionId();
+    }
+
+    private static boolean acquireRelease(Locks locks, Txn txn, Permissions perm) {
+        int idx = ThreadLocalRandom.current().nextInt(locks.locks);
+        try {
+            locks.lm.acquire(txn.tid, idx, perm);
+        } catch (InterruptedException e) {
+            // timed out as a presumed deadlock; the locks are released
+            return false;
+        }
+        return locks.lm.release(txn.tid, idx);
+    }
+
+    @Benchmark
+    public boolean shared(Locks locks, Txn txn) {
+        return acquireRelease(locks, txn, Permissions.READ_ONLY);
+    }
+
+    @Benchmark
+    public boolean exclusive(Locks locks, Txn txn) {
+        return acquireRelease(locks, txn, Permissions.READ_WRITE);
+    }
+}
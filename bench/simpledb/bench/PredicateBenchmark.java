@@ -0,0 +1,48 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+
+import java.util.Random;
+
+/**
+ * Predicate.filter over a batch of tuples, per tuple.
+ */
+@State(Scope.Thread)
+public class PredicateBenchmark {
+
+    private static final int BATCH = 1024;
+
+    @Param({"EQUALS", "LESS_THAN", "NOT_EQUALS"})
+    public Predicate.Op op;
+
+    private Predicate predicate;
+    private final Tuple[] tuples = new Tuple[BATCH];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BATCH);
+        for (int i = 0; i < BATCH; i++)
+            tuples[i] = Utility.getHeapTuple(new int[] {random.nextInt(100), i});
+        predicate = new Predicate(0, op, new IntField(50));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int filter() {
+        int n = 0;
+        for (Tuple t : tuples)
+            if (predicate.filter(t))
+                n++;
+        return n;
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simpledb.common.Database;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * A full SeqScan of a table, under page locks and as a snapshot.  The
+ * score is per scan; divide by rows for the cost per tuple.
+ */
+@State(Scope.Benchmark)
+public class SeqScanBenchmark {
+
+    /** Tuples in the table. */
+    @Param({"10000", "100000"})
+    public int rows;
+
+    /** Frames in the BufferPool. */
+    @Param({"50", "500"})
+    public int poolPages;
+
+    private HeapFile hf;
+
+    @Setup
+    public void setup() throws Exception {
+        Database.reset();
+        Database.resetBufferPool(poolPages);
+        hf = BenchTables.create(rows, 2);
+    }
+
+    private void scan(boolean snapshot, Blackhole bh) throws Exception {
+        Transaction t = new Transaction(snapshot);
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.open();
+        while (scan.hasNext())
+            bh.consume(scan.next());
+        scan.close();
+        t.commit();
+    }
+
+    @Benchmark
+    public void locked(Blackhole bh) throws Exception {
+        scan(false, bh);
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole bh) throws Exception {
+        scan(true, bh);
+    }
+}
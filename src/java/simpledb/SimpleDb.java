@@ -94,6 +94,20 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "server":
+                try {
+                    simpledb.server.QueryServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
+            case "loadgen":
+                try {
+                    simpledb.server.LoadGenerator.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
@@ -1,23 +1,40 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndexFile;
+import simpledb.index.IndexFile;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * Tables are either added by a user program, or kept in a
+ * {@link SystemCatalog} on disk, opened with {@link #openSystemCatalog} and
+ * read on first access.
  * 
  * @Threadsafe
  */
@@ -32,6 +49,8 @@ public class Catalog {
 		public DbFile file;
 		public String name;
 		public String pkeyField;
+		/** Statistics of the table; null until collected or loaded. */
+		public volatile TableStats stats;
 		
 		/**
 		 * Construct a table.
@@ -53,6 +72,21 @@ public class Catalog {
 	 * Use the table's id as the key in the hashMap.
 	 */
 	private ConcurrentHashMap<Integer, Table> catalog;
+	/**
+	 * Secondary indexes, keyed by the id of the index file.
+	 */
+	private ConcurrentHashMap<Integer, IndexFile> indexes;
+	/** The system catalog, or null if the tables are added by hand. */
+	private SystemCatalog system;
+	/** Whether the system catalog's tables have been read. */
+	private volatile boolean loaded = true;
+	private boolean loading;
+	/** Set by beginRecovery: the system catalog may be torn or out of date. */
+	private volatile boolean recovering;
+	/** Ids of the tables loadForRecovery read, dropped again by endRecovery. */
+	private List<Integer> recoveryTables = Collections.emptyList();
+	/** Changes whenever a table or its statistics do, see getVersion. */
+	private final AtomicLong version = new AtomicLong();
 	
     /**
      * Constructor.
@@ -61,6 +95,7 @@ public class Catalog {
     public Catalog() {
         // some code goes here -Done
     	this.catalog = new ConcurrentHashMap<>();
+    	this.indexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -71,9 +106,12 @@ public class Catalog {
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
+     * @throws IllegalArgumentException if an index, or a table stored in
+     *     another file, has the same id
      */
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here -Done
+    	checkId(file);
     	Enumeration<Integer> keys = this.catalog.keys();
     	
     	// If the current catalog contains the same name, we judge if this entity
@@ -88,6 +126,228 @@ public class Catalog {
     		}
     	}
     	this.catalog.put(file.getId(), new Table(file, name, pkeyField));
+    	this.version.incrementAndGet();
+    }
+
+    /**
+     * Add a table whose name and id are known to be unique, as the system
+     * catalog's are, without looking for others of the same name.
+     * @throws IllegalArgumentException if a table or index has the same id
+     */
+    void putTable(DbFile file, String name, String pkeyField) {
+    	if (this.catalog.containsKey(file.getId()) || this.indexes.containsKey(file.getId())) {
+    		throw new IllegalArgumentException("id " + file.getId() + " of table " + name + " is taken");
+    	}
+    	this.catalog.put(file.getId(), new Table(file, name, pkeyField));
+    	this.version.incrementAndGet();
+    }
+
+    /**
+     * Check that file may be added as a table: no index has its id, and a
+     * table that has is stored in the same file, so file only reopens it.
+     * Tables that don't say where they are stored may replace each other.
+     */
+    private void checkId(DbFile file) {
+    	if (this.indexes.containsKey(file.getId())) {
+    		throw new IllegalArgumentException("id " + file.getId() + " is taken by an index");
+    	}
+    	Table table = this.catalog.get(file.getId());
+    	if (table != null && table.file != file) {
+    		File old = fileOf(table.file), f = fileOf(file);
+    		if (old != null || f != null) {
+    			if (old == null || f == null || !old.getAbsoluteFile().equals(f.getAbsoluteFile())) {
+    				throw new IllegalArgumentException("id " + file.getId() + " is taken by table " + table.name);
+    			}
+    		}
+    	}
+    }
+
+    /** @return the file a DbFile of this package's kinds is stored in, else null */
+    private static File fileOf(DbFile file) {
+    	if (file instanceof HeapFile) {
+    		return ((HeapFile) file).getFile();
+    	} else if (file instanceof ColumnFile) {
+    		return ((ColumnFile) file).getFile();
+    	} else if (file instanceof BTreeFile) {
+    		return ((BTreeFile) file).getFile();
+    	} else if (file instanceof HashIndexFile) {
+    		return ((HashIndexFile) file).getFile();
+    	}
+    	return null;
+    }
+
+    /**
+     * Allocate the id of a new table, index or column file stored in f. With
+     * a system catalog open the id is one no table has had, as createTable's
+     * are, and is recorded there in a transaction of its own; otherwise it
+     * is hashed from f's name, as HeapFile's are.
+     */
+    public synchronized int allocateId(File f) throws IOException {
+    	if (this.system == null) {
+    		return f.getAbsoluteFile().hashCode();
+    	}
+    	ensureLoaded();
+    	return this.system.allocateId(f);
+    }
+
+    /**
+     * @return a number that changes whenever a table is added, replaced or
+     *     removed, or statistics a table already had are replaced. Anything
+     *     derived from the catalog, such as a cached plan, is out of date
+     *     once the version differs from the one it was derived at.
+     */
+    public long getVersion() {
+    	return this.version.get();
+    }
+
+    /**
+     * Open the system catalog in a directory, creating it if there is none.
+     * Its tables are read on the first access to the catalog.
+     * @param dir the database directory
+     */
+    public synchronized void openSystemCatalog(File dir) throws IOException {
+    	this.system = new SystemCatalog(dir);
+    	addTable(system.tables, "__tables", "id");
+    	addTable(system.columns, "__columns", "");
+    	this.loaded = false;
+    }
+
+    /**
+     * Read the tables of the system catalog and their saved statistics if
+     * that has not been done. A lookup made while they are read, by the
+     * reading itself, finds the tables read so far.
+     */
+    private void ensureLoaded() {
+    	if (this.loaded || this.recovering) {
+    		return;
+    	}
+    	synchronized (this) {
+    		if (this.loaded || this.loading || this.recovering) {
+    			return;
+    		}
+    		this.loading = true;
+    		try {
+    			this.system.load(this);
+    			File statsFile = this.system.statsFile();
+    			if (statsFile.exists()) {
+    				try {
+    					readStatistics(statsFile.getPath());
+    				} catch (IOException e) {
+    					// statistics are estimates, collected again when missing
+    				}
+    			}
+    			this.loaded = true;
+    		} finally {
+    			this.loading = false;
+    		}
+    	}
+    }
+
+    /**
+     * Stop lookups from reading the system catalog until endRecovery: its
+     * pages may be torn, or lack changes that recovery has yet to redo.
+     * Until then only the system tables and the tables added by hand are
+     * found.
+     */
+    public synchronized void beginRecovery() {
+    	this.recovering = true;
+    }
+
+    /**
+     * Read the tables of the system catalog during recovery, once the
+     * system tables' torn pages are restored and their changes redone, so
+     * that recovery can find the other tables.
+     * @param redone pages of the system tables newer than their files
+     */
+    public synchronized void loadForRecovery(Map<PageId, Page> redone) {
+    	if (this.system != null && !this.loaded) {
+    		this.recoveryTables = this.system.load(this, redone);
+    	}
+    }
+
+    /**
+     * End recovery. The tables read by loadForRecovery are dropped, since
+     * undo may have removed some of them, and the system catalog is read
+     * again from its recovered files on the next access.
+     */
+    public synchronized void endRecovery() {
+    	for (int id : this.recoveryTables) {
+    		this.catalog.remove(id);
+    	}
+    	this.recoveryTables = Collections.emptyList();
+    	this.recovering = false;
+    	this.version.incrementAndGet();
+    }
+
+    /**
+     * @return whether a table or index with the id is in the catalog; unlike
+     *     the other lookups, does not read the system catalog
+     */
+    public boolean contains(int id) {
+    	return this.catalog.containsKey(id) || this.indexes.containsKey(id);
+    }
+
+    /**
+     * Create an empty table, with an id no other table has, and record it
+     * in the system catalog.
+     * @param name the name of the table; must not be empty or in use
+     * @param td the schema of the table
+     * @param pkeyField the name of the primary key field
+     * @return the new table
+     * @throws IllegalStateException if no system catalog is open
+     */
+    public synchronized HeapFile createTable(String name, TupleDesc td, String pkeyField)
+    		throws IOException, DbException, TransactionAbortedException {
+    	if (this.system == null) {
+    		throw new IllegalStateException("no system catalog is open");
+    	}
+    	if (name.isEmpty()) {
+    		throw new IllegalArgumentException("a table needs a name");
+    	}
+    	ensureLoaded();
+    	for (Table table : this.catalog.values()) {
+    		if (table.name.equals(name)) {
+    			throw new IllegalArgumentException("table " + name + " exists already");
+    		}
+    	}
+    	HeapFile hf = this.system.createTable(name, td, pkeyField);
+    	putTable(hf, name, pkeyField);
+    	return hf;
+    }
+
+    /**
+     * Add a secondary index to the catalog. The index's pages can then be
+     * read through {@link #getDatabaseFile}, and the BufferPool keeps the
+     * index up to date on every insert into and delete from its table.
+     * @param index the index to add; index.getId() identifies its pages
+     * @throws IllegalArgumentException if a table or another index has the
+     *     same id
+     */
+    public synchronized void addIndex(IndexFile index) {
+    	if (this.catalog.containsKey(index.getId())) {
+    		throw new IllegalArgumentException("id " + index.getId() + " is taken by table "
+    				+ this.catalog.get(index.getId()).name);
+    	}
+    	IndexFile old = this.indexes.putIfAbsent(index.getId(), index);
+    	if (old != null && old != index) {
+    		throw new IllegalArgumentException("id " + index.getId() + " is taken by another index");
+    	}
+    	this.version.incrementAndGet();
+    }
+
+    /**
+     * Return the indexes built on the specified table.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     * @return the indexes of the table; empty if the table has none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+    	List<IndexFile> result = new ArrayList<>();
+    	for (IndexFile index : this.indexes.values()) {
+    		if (index.getIndexedTableId() == tableid) {
+    			result.add(index);
+    		}
+    	}
+    	return result;
     }
 
     public void addTable(DbFile file, String name) {
@@ -110,6 +370,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
+    	ensureLoaded();
         // some code goes here -Done
     	// Table id is specified by the DbFile.getId(). Referent the 'getTupleDesc'
     	// function.
@@ -134,6 +395,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
+    	ensureLoaded();
         // some code goes here -Done
     	if(this.catalog.containsKey(tableid)) {
     		return this.catalog.get(tableid).file.getTupleDesc();
@@ -148,14 +410,21 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
+    	ensureLoaded();
         // some code goes here -Done
     	if(this.catalog.containsKey(tableid)) {
     		return this.catalog.get(tableid).file;
     	}
+    	// Index files are not tables, but their pages live in the buffer pool too.
+    	IndexFile index = this.indexes.get(tableid);
+    	if (index != null) {
+    		return index;
+    	}
         throw new NoSuchElementException();
     }
 
     public String getPrimaryKey(int tableid) {
+    	ensureLoaded();
         // some code goes here -Done
     	if(this.catalog.containsKey(tableid)) {
     		return this.catalog.get(tableid).pkeyField;
@@ -164,11 +433,13 @@ public class Catalog {
     }
 
     public Iterator<Integer> tableIdIterator() {
+    	ensureLoaded();
         // some code goes here -Done
     	return this.catalog.keySet().iterator();
     }
 
     public String getTableName(int id) {
+    	ensureLoaded();
         // some code goes here -Done
     	if(this.catalog.containsKey(id)) {
     		return this.catalog.get(id).name;
@@ -176,10 +447,121 @@ public class Catalog {
         throw new NoSuchElementException();
     }
     
+    /**
+     * @return the statistics of the table, or null if none were collected
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public TableStats getTableStats(int tableid) {
+    	ensureLoaded();
+    	if(this.catalog.containsKey(tableid)) {
+    		return this.catalog.get(tableid).stats;
+    	}
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Set the statistics of a table.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setTableStats(int tableid, TableStats stats) {
+    	ensureLoaded();
+    	if(this.catalog.containsKey(tableid)) {
+    		Table table = this.catalog.get(tableid);
+    		// first statistics are what any plan so far was made with
+    		if (table.stats != null) {
+    			this.version.incrementAndGet();
+    		}
+    		table.stats = stats;
+    		return;
+    	}
+        throw new NoSuchElementException();
+    }
+
+    /**
+     * Collect the statistics of every table, one pass over each.
+     */
+    public void computeStatistics() {
+    	ensureLoaded();
+    	for (Table table : this.catalog.values()) {
+    		table.stats = new TableStats(table.file.getId(), TableStats.IOCOSTPERPAGE);
+    	}
+    	this.version.incrementAndGet();
+    }
+
+    /**
+     * Save the statistics of the tables that have them, by table name.
+     * @param statsFile the file to write; loadSchema reads the statistics
+     *     back from the schema file's name followed by ".stats"
+     */
+    public void writeStatistics(String statsFile) throws IOException {
+    	ensureLoaded();
+    	DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+    			new FileOutputStream(statsFile)));
+    	try {
+    		for (Table table : this.catalog.values()) {
+    			if (table.stats != null) {
+    				dos.writeUTF(table.name);
+    				table.stats.write(dos);
+    			}
+    		}
+    	} finally {
+    		dos.close();
+    	}
+    }
+
+    /**
+     * Save the statistics of the tables that have them with the system
+     * catalog, replacing those saved before; they are read back when the
+     * system catalog is.
+     * @throws IllegalStateException if no system catalog is open
+     */
+    public void writeStatistics() throws IOException {
+    	if (this.system == null) {
+    		throw new IllegalStateException("no system catalog is open");
+    	}
+    	File statsFile = this.system.statsFile();
+    	File tmp = new File(statsFile.getPath() + ".tmp");
+    	writeStatistics(tmp.getPath());
+    	Files.move(tmp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+    			StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load statistics saved by writeStatistics for the tables of this
+     * catalog; statistics of other tables are skipped.
+     */
+    public void readStatistics(String statsFile) throws IOException {
+    	DataInputStream dis = new DataInputStream(new BufferedInputStream(
+    			new FileInputStream(statsFile)));
+    	try {
+    		while (dis.available() > 0) {
+    			String name = dis.readUTF();
+    			int tableid;
+    			try {
+    				tableid = getTableId(name);
+    			} catch (NoSuchElementException e) {
+    				tableid = -1;
+    			}
+    			// the schema of a missing table is not known, so read its
+    			// statistics with one that has the right number of columns
+    			TableStats stats = TableStats.read(dis, tableid == -1 ? null : getTupleDesc(tableid));
+    			if (tableid != -1) {
+    				setTableStats(tableid, stats);
+    			}
+    		}
+    	} finally {
+    		dis.close();
+    	}
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here -Done
+    	this.system = null;
+    	this.loaded = true;
     	this.catalog.clear();
+    	this.indexes.clear();
+    	this.version.incrementAndGet();
     }
     
     /**
@@ -228,6 +610,11 @@ public class Catalog {
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            br.close();
+            File statsFile = new File(catalogFile + ".stats");
+            if (statsFile.exists()) {
+                readStatistics(statsFile.getPath());
+            }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
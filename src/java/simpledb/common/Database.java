@@ -1,7 +1,10 @@
 package simpledb.common;
 
+import simpledb.execution.ResultCache;
+import simpledb.optimizer.PlanCache;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.transaction.VersionStore;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -23,6 +26,9 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final VersionStore _versions;
+    private final PlanCache _plans;
+    private final ResultCache _results;
 
     private Database() {
         _catalog = new Catalog();
@@ -35,6 +41,9 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        _versions = new VersionStore();
+        _plans = new PlanCache();
+        _results = new ResultCache();
         // startControllerThread();
     }
 
@@ -48,6 +57,21 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the version store of the static Database instance */
+    public static VersionStore getVersionStore() {
+        return _instance.get()._versions;
+    }
+
+    /** Return the plan cache of the static Database instance */
+    public static PlanCache getPlanCache() {
+        return _instance.get()._plans;
+    }
+
+    /** Return the result cache of the static Database instance */
+    public static ResultCache getResultCache() {
+        return _instance.get()._results;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -0,0 +1,116 @@
+package simpledb.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, in the manner of HdrHistogram:
+ * every power of two is split into SUB_BUCKETS linear buckets, so any
+ * value is kept to within 1/SUB_BUCKETS of its size while the whole range
+ * of a long fits in under a thousand counters.  Recording is lock-free and
+ * allocates nothing.
+ * <p>
+ * Percentiles are read without stopping writers, so a value recorded
+ * meanwhile may or may not be counted.
+ *
+ * @Threadsafe
+ * @see Metrics#histogram
+ */
+public class LatencyHistogram {
+
+    /** log2 of the number of buckets each power of two is split into. */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** Values below this get a bucket of their own. */
+    private static final int LINEAR = 2 * SUB_BUCKETS;
+    private static final int NUM_BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** @return the bucket holding value, which must not be negative */
+    private static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** @return the largest value that goes into bucket index */
+    private static long highestIn(int index) {
+        if (index < LINEAR)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record one latency.
+     * @param nanos the latency; negative values count as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /** @return the number of latencies recorded */
+    public long count() {
+        return count.sum();
+    }
+
+    /** @return the mean latency, or 0 if none was recorded */
+    public long mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /** @return the largest latency recorded */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return a latency that at least that percentage of the recorded
+     *         latencies do not exceed, or 0 if none was recorded
+     */
+    public long percentile(double percentile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(highestIn(i), max());
+        }
+        return max();
+    }
+
+    /** Forget everything recorded so far. */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count() + " mean=" + mean() + " p50=" + percentile(50)
+                + " p99=" + percentile(99) + " max=" + max();
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
+import java.util.concurrent.atomic.LongAdder;
 
 import simpledb.transaction.TransactionId;
 
@@ -30,6 +31,12 @@ public class LockManager {
 	private final Random rand = new Random();
 	private final int MIN_TIME = 100, MAX_TIME = 1000;
 	
+	/** Metrics shared by every LockManager, see Metrics. */
+	private static final LongAdder ACQUIRES = Metrics.counter("lock.acquires");
+	/** Time spent blocked by another transaction; its count is the number of waits. */
+	private static final LatencyHistogram WAITS = Metrics.histogram("lock.wait_nanos");
+	private static final LongAdder DEADLOCK_ABORTS = Metrics.counter("lock.deadlock_aborts");
+	
 	public LockManager(int numPages) {
 		// Construct the object.
 		mutexes = new Object[numPages];
@@ -92,8 +99,12 @@ public class LockManager {
 						thread.interrupt();
 					}
 				}, MIN_TIME+rand.nextInt(MAX_TIME-MIN_TIME));
-				while (0 != writers[idx]) {
-					mutexes[idx].wait();
+				if (0 != writers[idx]) {
+					long start = System.nanoTime();
+					do {
+						mutexes[idx].wait();
+					} while (0 != writers[idx]);
+					WAITS.record(System.nanoTime() - start);
 				}
 				readLockHolders.get(idx).add(tid);
 				timer.cancel();
@@ -142,8 +153,12 @@ public class LockManager {
 						thread.interrupt();
 					}
 				}, MIN_TIME+rand.nextInt(MAX_TIME-MIN_TIME));
-				while (hasOtherReader(tid, idx) || null != writeLockHolders.get(idx)) {
-					mutexes[idx].wait();
+				if (hasOtherReader(tid, idx) || null != writeLockHolders.get(idx)) {
+					long start = System.nanoTime();
+					do {
+						mutexes[idx].wait();
+					} while (hasOtherReader(tid, idx) || null != writeLockHolders.get(idx));
+					WAITS.record(System.nanoTime() - start);
 				}
 				readLockHolders.get(idx).remove(tid);
 				writeLockHolders.set(idx, tid);
@@ -169,6 +184,7 @@ public class LockManager {
 	
 	public void acquire(TransactionId tid, int idx, Permissions perm) 
 			throws InterruptedException {
+		ACQUIRES.increment();
 		try {
 			if (perm.equals(Permissions.READ_ONLY)) {
 				acquireReadLock(tid, idx);
@@ -185,6 +201,7 @@ public class LockManager {
 					writers[idx]--;
 				}
 			}
+			DEADLOCK_ABORTS.increment();
 			throw new InterruptedException("DEADLOCK DETECTED");
 		}
 	}
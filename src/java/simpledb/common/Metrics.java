@@ -0,0 +1,230 @@
+package simpledb.common;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics is the registry of the counters, gauges and latency histograms
+ * the storage layer keeps about itself: buffer pool hits and evictions,
+ * lock waits, log forces and so on.
+ * <p>
+ * Like Debug it is a static utility, so the numbers are for the whole
+ * process and survive Database.reset().  Instrumented classes look their
+ * metrics up once, into static fields; recording is then a LongAdder
+ * increment or a LatencyHistogram record, which never block.
+ * <p>
+ * The metrics can be read with get and dump, over JMX as the attributes
+ * of the MBean simpledb:type=Metrics, or printed periodically.  Set the
+ * system property simpledb.metrics.jmx to register the MBean at startup,
+ * and simpledb.metrics.dump to a number of seconds to print a dump to
+ * standard error that often.
+ *
+ * @Threadsafe
+ */
+public final class Metrics {
+
+    /** The name the MBean is registered under. */
+    public static final String MBEAN_NAME = "simpledb:type=Metrics";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService dumper; // protected by Metrics.class
+
+    static {
+        if (System.getProperty("simpledb.metrics.jmx") != null)
+            registerMBean();
+        String dump = System.getProperty("simpledb.metrics.dump");
+        if (dump != null)
+            startDump(System.err, Long.parseLong(dump), TimeUnit.SECONDS);
+    }
+
+    private Metrics() {
+    }
+
+    /** @return the counter with the given name, created at zero if need be */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** @return the histogram with the given name, created empty if need be */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge, a value computed whenever it is read.  Replaces any
+     * gauge of the same name.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * @return the value of the named counter or gauge, or the number of
+     *         latencies recorded by the named histogram
+     * @throws IllegalArgumentException if there is no such metric
+     */
+    public static long get(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter != null)
+            return counter.sum();
+        LongSupplier gauge = gauges.get(name);
+        if (gauge != null)
+            return gauge.getAsLong();
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null)
+            return histogram.count();
+        throw new IllegalArgumentException("no metric named " + name);
+    }
+
+    /** Zero every counter and empty every histogram; for tests. */
+    public static void reset() {
+        for (LongAdder counter : counters.values())
+            counter.reset();
+        for (LatencyHistogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    /** @return every metric, one per line, in name order */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, String> lines = new ConcurrentSkipListMap<>();
+        counters.forEach((name, counter) -> lines.put(name, Long.toString(counter.sum())));
+        gauges.forEach((name, gauge) -> lines.put(name, Long.toString(gauge.getAsLong())));
+        histograms.forEach((name, histogram) -> lines.put(name, histogram.toString()));
+        lines.forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Print a dump to out every period, from a daemon thread, until
+     * stopDump is called.  Replaces any dump already running.
+     */
+    public static synchronized void startDump(PrintStream out, long period, TimeUnit unit) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "simpledb-metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(dump()), period, period, unit);
+    }
+
+    /** Stop the periodic dump, if one is running. */
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBean server as MBEAN_NAME.
+     * Does nothing if they already are.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Exposes every metric as a read-only attribute: counters and gauges
+     * under their own names, histograms as name.count, name.mean,
+     * name.p50, name.p99 and name.max.  Metrics registered later show up
+     * the next time the attributes are listed.
+     */
+    private static class MetricsMBean implements DynamicMBean {
+
+        private static final String[] HISTOGRAM_STATS = {"count", "mean", "p50", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (counters.containsKey(attribute) || gauges.containsKey(attribute))
+                return get(attribute);
+            int dot = attribute.lastIndexOf('.');
+            LatencyHistogram h = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (h != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return h.count();
+                    case "mean": return h.mean();
+                    case "p50": return h.percentile(50);
+                    case "p99": return h.percentile(99);
+                    case "max": return h.max();
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // left out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String name : counters.keySet())
+                attrs.add(attribute(name, "counter"));
+            for (String name : gauges.keySet())
+                attrs.add(attribute(name, "gauge"));
+            for (String name : histograms.keySet())
+                for (String stat : HISTOGRAM_STATS)
+                    attrs.add(attribute(name + "." + stat, "latency histogram, nanoseconds"));
+            return new MBeanInfo(Metrics.class.getName(), "SimpleDB metrics",
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String description) {
+            return new MBeanAttributeInfo(name, "long", description, true, false, false);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb.common;
+
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SystemCatalog stores the schema of the database in two tables of its own,
+ * kept in heap files in the database directory: a table of tables (id,
+ * name, primary key, file) and a table of columns (table id, position,
+ * type, name).  Table ids are allocated here, one more than the greatest
+ * so far, so two tables never share an id, and a table keeps its id across
+ * restarts.  Index and column files take their ids from the same sequence;
+ * each is recorded in the table of tables by a row with no name, which
+ * only keeps its id from being allocated again.  The statistics of the
+ * tables are saved in a file of their own beside the system tables, replaced
+ * whole by Catalog.writeStatistics; being estimates, they are not logged.
+ * <p>
+ * The Catalog opens the system catalog without reading it, and reads both
+ * tables in one pass on first access.  Changes are made in transactions
+ * through the BufferPool like any other, and are on disk once they commit;
+ * loading reads the heap files directly, so it takes no locks.
+ */
+public class SystemCatalog {
+
+    /** Ids of the system tables; user tables are numbered after them. */
+    public static final int TABLES_ID = 0, COLUMNS_ID = 1;
+    static final int FIRST_TABLE_ID = 2;
+
+    static final String TABLES_FILE = "tables.dat";
+    static final String COLUMNS_FILE = "columns.dat";
+    static final String STATS_FILE = "stats.dat";
+
+    static final TupleDesc TABLES_TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+            new String[] {"id", "name", "pkey", "file"});
+    static final TupleDesc COLUMNS_TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+            new String[] {"tableid", "position", "type", "name"});
+
+    private final File dir;
+    final HeapFile tables;
+    final HeapFile columns;
+    private int nextId = FIRST_TABLE_ID;
+
+    /**
+     * Open the system catalog in dir, creating it if dir holds none.
+     */
+    SystemCatalog(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+        this.dir = dir;
+        this.tables = new HeapFile(create(new File(dir, TABLES_FILE)), TABLES_TD, TABLES_ID);
+        this.columns = new HeapFile(create(new File(dir, COLUMNS_FILE)), COLUMNS_TD, COLUMNS_ID);
+    }
+
+    /** @return the file the statistics of the tables are saved in; it may not exist */
+    File statsFile() {
+        return new File(dir, STATS_FILE);
+    }
+
+    private static File create(File f) throws IOException {
+        f.createNewFile();
+        return f;
+    }
+
+    /**
+     * @return every tuple of a system table, read from its file, or from
+     *         newer where it holds the page
+     */
+    private static List<Tuple> readAll(HeapFile hf, Map<PageId, Page> newer) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            PageId pid = new HeapPageId(hf.getId(), i);
+            HeapPage page = (HeapPage) (newer.containsKey(pid) ? newer.get(pid) : hf.readPage(pid));
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    private static String string(Tuple t, int i) {
+        return ((StringField) t.getField(i)).getValue();
+    }
+
+    private static int integer(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    /**
+     * Read the tables of the database and add them to catalog.
+     */
+    void load(Catalog catalog) {
+        load(catalog, Collections.emptyMap());
+    }
+
+    /**
+     * Read the tables of the database and add them to catalog, taking the
+     * pages of the system tables in newer over those in their files.  Pages
+     * past the end of a file are not looked for, since a table only grows
+     * by pages that are written as soon as they are allocated.
+     *
+     * @return the ids of the tables added
+     */
+    List<Integer> load(Catalog catalog, Map<PageId, Page> newer) {
+        Map<Integer, Type[]> types = new HashMap<>();
+        Map<Integer, String[]> names = new HashMap<>();
+        List<Integer> ids = new ArrayList<>();
+        List<Tuple> cols = readAll(columns, newer);
+        Map<Integer, Integer> widths = new HashMap<>();
+        for (Tuple c : cols)
+            widths.merge(integer(c, 0), integer(c, 1) + 1, Math::max);
+        for (Tuple c : cols) {
+            int id = integer(c, 0);
+            int pos = integer(c, 1);
+            types.computeIfAbsent(id, k -> new Type[widths.get(id)])[pos] = Type.values()[integer(c, 2)];
+            names.computeIfAbsent(id, k -> new String[widths.get(id)])[pos] = string(c, 3);
+        }
+        for (Tuple t : readAll(tables, newer)) {
+            int id = integer(t, 0);
+            nextId = Math.max(nextId, id + 1);
+            if (string(t, 1).isEmpty())
+                continue;
+            TupleDesc td = new TupleDesc(types.get(id), names.get(id));
+            HeapFile hf = new HeapFile(new File(dir, string(t, 3)), td, id);
+            catalog.putTable(hf, string(t, 1), string(t, 2));
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /** @return an id no table or other file has had */
+    private int allocateId() {
+        return nextId++;
+    }
+
+    private static Tuple tablesRow(int id, String name, String pkeyField, String fileName) {
+        Tuple row = new Tuple(TABLES_TD);
+        row.setField(0, new IntField(id));
+        row.setField(1, new StringField(name, Type.STRING_LEN));
+        row.setField(2, new StringField(pkeyField, Type.STRING_LEN));
+        row.setField(3, new StringField(fileName, Type.STRING_LEN));
+        return row;
+    }
+
+    /**
+     * Allocate the id of an index or column file, and record it in a
+     * transaction of its own, so that no table takes it after a restart.
+     *
+     * @param f the file, whose name is recorded with the id
+     */
+    int allocateId(File f) throws IOException {
+        int id = allocateId();
+        Transaction t = new Transaction();
+        t.start();
+        boolean committed = false;
+        try {
+            Database.getBufferPool().insertTuple(t.getId(), TABLES_ID, tablesRow(id, "", "", f.getName()));
+            t.commit();
+            committed = true;
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("cannot record id " + id + " of " + f, e);
+        } finally {
+            if (!committed)
+                t.abort();
+        }
+        return id;
+    }
+
+    /**
+     * Create an empty table, and record it in the system catalog in a
+     * transaction of its own.
+     *
+     * @return the table, with a newly allocated id
+     */
+    HeapFile createTable(String name, TupleDesc td, String pkeyField)
+            throws IOException, DbException, TransactionAbortedException {
+        int id = allocateId();
+        String fileName = "table" + id + ".dat";
+        File f = new File(dir, fileName);
+        if (!f.createNewFile())
+            throw new DbException("file " + f + " exists already");
+        HeapFile hf = new HeapFile(f, td, id);
+
+        Transaction t = new Transaction();
+        t.start();
+        boolean committed = false;
+        try {
+            Database.getBufferPool().insertTuple(t.getId(), TABLES_ID, tablesRow(id, name, pkeyField, fileName));
+            for (int i = 0; i < td.numFields(); i++) {
+                Tuple col = new Tuple(COLUMNS_TD);
+                col.setField(0, new IntField(id));
+                col.setField(1, new IntField(i));
+                col.setField(2, new IntField(td.getFieldType(i).ordinal()));
+                String fieldName = td.getFieldName(i);
+                col.setField(3, new StringField(fieldName == null ? "" : fieldName, Type.STRING_LEN));
+                Database.getBufferPool().insertTuple(t.getId(), COLUMNS_ID, col);
+            }
+            t.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                t.abort();
+                f.delete();
+            }
+        }
+        return hf;
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
+ * min). Note that we only support aggregates over a single column, grouped by a
+ * single column.
+ * <p>
+ * The child is drained into a {@link HashAggregator} when the operator is
+ * opened; the groups are then streamed back from it. Memory use is bounded by
+ * the number of groups the aggregator may keep in memory, see
+ * {@link HashAggregator#DEFAULT_MAX_GROUPS}.
+ */
+public class Aggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final int maxGroups;
+
+    private Aggregator aggregator;
+    private OpIterator results;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The OpIterator that is feeding us tuples.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or -1 if
+     *               there is no grouping
+     * @param aop    The aggregation operator to use
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param maxGroups the number of groups to keep in memory before spilling
+     *                  the remaining groups to disk
+     * @see #Aggregate(OpIterator, int, int, Aggregator.Op)
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the groupby
+     *         field index in the <b>INPUT</b> tuples. If not, return
+     *         {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a group by, return the name
+     *         of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     *         null;
+     */
+    public String groupFieldName() {
+        if (gfield == Aggregator.NO_GROUPING)
+            return null;
+        return child.getTupleDesc().getFieldName(gfield);
+    }
+
+    /**
+     * @return the aggregate field
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     *         tuples
+     */
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(afield);
+    }
+
+    /**
+     * @return return the aggregate operator
+     */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public static String nameOfAggregatorOp(Aggregator.Op aop) {
+        return aop.toString();
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        TupleDesc childTd = child.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+        aggregator = new HashAggregator(gfield, gtype, afield,
+                childTd.getFieldType(afield), aop, getTupleDesc(), maxGroups);
+
+        child.open();
+        try {
+            while (child.hasNext())
+                aggregator.mergeTupleIntoGroup(child.next());
+        } finally {
+            child.close();
+        }
+
+        results = aggregator.iterator();
+        results.open();
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple. If there is a group by field, then the first
+     * field is the field by which we are grouping, and the second field is the
+     * result of computing the aggregate. If there is no group by field, then
+     * the result tuple should contain one field representing the result of the
+     * aggregate. Should return null if there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (results.hasNext())
+            return results.next();
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        results.rewind();
+    }
+
+    /**
+     * Returns the TupleDesc of this Aggregate. If there is no group by field,
+     * this will have one field - the aggregate column. If there is a group by
+     * field, the first field will be the group by field, and the second will be
+     * the aggregate value column.
+     * <p>
+     * The name of an aggregate column should be informative. For example:
+     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
+     * given in the constructor, and child_td is the TupleDesc of the child
+     * iterator.
+     */
+    public TupleDesc getTupleDesc() {
+        String aggName = nameOfAggregatorOp(aop) + " (" + aggregateFieldName() + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{aggName});
+        TupleDesc childTd = child.getTupleDesc();
+        return new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                new String[]{groupFieldName(), aggName});
+    }
+
+    public void close() {
+        super.close();
+        if (results != null)
+            results.close();
+        if (aggregator != null)
+            aggregator.clear();
+        results = null;
+        aggregator = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * The common interface for any class that can compute an aggregate over a
+ * list of Tuples.
+ */
+public interface Aggregator extends Serializable {
+    int NO_GROUPING = -1;
+
+    /** The aggregate functions supported by SimpleDB. */
+    enum Op implements Serializable {
+        MIN, MAX, SUM, AVG, COUNT;
+
+        /**
+         * Interface to access operations by a string containing an integer
+         * index for command-line convenience.
+         *
+         * @param s
+         *            a string containing a valid integer Op index
+         */
+        public static Op getOp(String s) {
+            return getOp(Integer.parseInt(s));
+        }
+
+        /**
+         * Interface to access operations by integer value for command-line
+         * convenience.
+         *
+         * @param i
+         *            a valid integer Op index
+         */
+        public static Op getOp(int i) {
+            return values()[i];
+        }
+
+        public String toString() {
+            if (this == MIN)
+                return "min";
+            if (this == MAX)
+                return "max";
+            if (this == SUM)
+                return "sum";
+            if (this == AVG)
+                return "avg";
+            if (this == COUNT)
+                return "count";
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate for a distinct group value;
+     * creates a new group aggregate result if the group value has not yet
+     * been encountered.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     * @see TupleIterator for a possible helper
+     */
+    OpIterator iterator() throws DbException, TransactionAbortedException;
+
+    /**
+     * Drop every group and release any resources (such as spill files) held
+     * by this aggregator.
+     */
+    void clear();
+}
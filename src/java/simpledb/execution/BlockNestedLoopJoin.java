@@ -0,0 +1,191 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BlockNestedLoopJoin joins two children on an arbitrary JoinPredicate,
+ * including predicates with no equality that a hash or sort-merge join can't
+ * handle.
+ * <p>
+ * Instead of rescanning the inner child once per outer tuple, the outer child
+ * is read in blocks of as many tuples as fit on <code>blockPages</code> heap
+ * pages, and the inner child is scanned once per block. The number of inner
+ * scans, and hence inner-side I/O, drops by the number of tuples per block.
+ * The default block uses half of {@link BufferPool#DEFAULT_PAGES}, leaving the
+ * rest of the buffer pool to the inner scan.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages worth of outer tuples held per block. */
+    public static final int DEFAULT_BLOCK_PAGES = Math.max(1, BufferPool.DEFAULT_PAGES / 2);
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final int blockPages;
+
+    private transient TupleDesc td;
+    private transient Tuple[] block;
+    private transient int blockLen;
+    private transient int blockPos;
+    private transient Tuple inner;
+    /** True while the inner child is positioned at its first tuple. */
+    private transient boolean innerFresh;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on, using a block of {@link #DEFAULT_BLOCK_PAGES} pages.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * @param blockPages the budget for one block of outer tuples, in pages
+     * @see #BlockNestedLoopJoin(JoinPredicate, OpIterator, OpIterator)
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                               int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("blockPages must be positive");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the number of outer tuples that fit in one block, using the
+     *         HeapPage slot layout of the outer schema
+     */
+    public int getBlockSize() {
+        int tupleBits = child1.getTupleDesc().getSize() * 8 + 1;
+        int perPage = Math.max(1, BufferPool.getPageSize() * 8 / tupleBits);
+        return blockPages * perPage;
+    }
+
+    /**
+     * @return the merged schema of the outer and inner children
+     * @see TupleDesc#merge(TupleDesc, TupleDesc)
+     */
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        block = new Tuple[getBlockSize()];
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        block = null;
+        inner = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        blockLen = 0;
+        blockPos = 0;
+        inner = null;
+        innerFresh = true;
+    }
+
+    /**
+     * Fill the block with the next outer tuples.
+     *
+     * @return false if the outer child is exhausted
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        blockLen = 0;
+        while (blockLen < block.length && child1.hasNext())
+            block[blockLen++] = child1.next();
+        for (int i = blockLen; i < block.length && block[i] != null; i++)
+            block[i] = null;
+        return blockLen > 0;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For every block of outer tuples the inner child is scanned
+     * once, and each inner tuple is compared with the whole block.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (blockPos < blockLen) {
+                    Tuple outer = block[blockPos++];
+                    if (p.filter(outer, inner))
+                        return mergeTuples(outer, inner);
+                }
+                inner = null;
+            }
+
+            if (blockLen > 0 && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
+            }
+
+            // the current block is done with the inner child; load the next
+            if (!loadBlock())
+                return null;
+            if (!innerFresh)
+                child2.rewind();
+            innerFresh = false;
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,120 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnScan reads some of the columns of a {@link ColumnFile} table,
+ * returning only the rows that satisfy its filters. Unlike {@link SeqScan}
+ * followed by a Filter and a projection, it only reads the pages of the
+ * columns it returns or filters on, and builds a tuple only for the rows
+ * that satisfy every filter.
+ */
+public class ColumnScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final int[] columns;
+    private final Predicate[] filters;
+
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan over some columns of the specified table as a part of
+     * the specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableId    the table to scan, which must be a ColumnFile
+     * @param tableAlias the alias of the table; the returned tupleDesc has
+     *                   fields named tableAlias.fieldName
+     * @param columns    the indexes of the fields to return, in the table's
+     *                   TupleDesc
+     * @param filters    predicates the returned rows satisfy, whose fields
+     *                   are indexes in the table's TupleDesc
+     * @throws IllegalArgumentException if tableId is not a ColumnFile
+     */
+    public ColumnScan(TransactionId tid, int tableId, String tableAlias, int[] columns,
+                      Predicate... filters) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof ColumnFile))
+            throw new IllegalArgumentException("table " + tableId + " is not a column file");
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        this.filters = filters.clone();
+    }
+
+    private ColumnFile getFile() {
+        return (ColumnFile) Database.getCatalog().getDatabaseFile(tableId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the predicates this scan evaluates on the table's columns */
+    public Predicate[] getFilters() {
+        return filters.clone();
+    }
+
+    /**
+     * @return the TupleDesc of the returned columns, with field names
+     *         prefixed with the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = getFile().getTupleDesc(columns);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it = getFile().iterator(tid, columns, filters);
+        it.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Filter is an operator that implements a relational select: it passes on
+ * the tuples of its child that satisfy a predicate.
+ * <p>
+ * The predicate is either a {@link Predicate}, comparing a field with a
+ * constant, or a {@link JoinPredicate} over two fields of the same tuple.
+ * The optimizer uses the latter for the join predicates left over when
+ * several of them connect a table to the tables joined before it.
+ */
+public class Filter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private Predicate p;
+    private final JoinPredicate jp;
+    private OpIterator child;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * tuples to filter from.
+     *
+     * @param p     The predicate to filter tuples with
+     * @param child The child operator
+     */
+    public Filter(Predicate p, OpIterator child) {
+        this.p = p;
+        this.jp = null;
+        this.child = child;
+    }
+
+    /**
+     * @param jp compares two fields of each tuple of child; its field1 and
+     *           field2 are both indexes into the child's schema
+     * @param child The child operator
+     */
+    public Filter(JoinPredicate jp, OpIterator child) {
+        this.p = null;
+        this.jp = jp;
+        this.child = child;
+    }
+
+    /** @return the predicate, or null if this filter compares two fields */
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    /**
+     * Replace the predicate of a filter that compares a field with a
+     * constant, e.g. to run a cached plan with another constant.  Only
+     * while the filter is closed.
+     */
+    public void setPredicate(Predicate p) {
+        if (this.p == null)
+            throw new IllegalStateException("this filter compares two fields");
+        this.p = p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Iterates over tuples from the child operator, applying the predicate to
+     * them and returning those that pass.
+     *
+     * @return The next tuple that passes the filter, or null if there are no
+     *         more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (p != null ? p.filter(t) : jp.filter(t, t))
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
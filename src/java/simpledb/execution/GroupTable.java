@@ -0,0 +1,243 @@
+package simpledb.execution;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable is the open-addressing hash table behind {@link HashAggregator}.
+ * Keys are either primitive ints or Strings, and the running aggregates of
+ * each group live in parallel primitive arrays indexed by slot, so merging a
+ * tuple into an existing group allocates nothing.
+ * <p>
+ * The table never holds more than <code>maxGroups</code> groups. Once it is
+ * full, {@link #findOrInsert} returns -1 for keys it has not seen, and it is
+ * up to the caller to deal with those tuples elsewhere.
+ */
+final class GroupTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean stringKeys;
+    private final int maxGroups;
+    private final int seed;
+
+    private int capacity;
+    private int mask;
+    private int size;
+
+    private boolean[] used;
+    private int[] intKeys;
+    private String[] strKeys;
+    private int[] hashes;
+
+    private long[] counts;
+    private long[] sums;
+    private int[] mins;
+    private int[] maxs;
+
+    /**
+     * @param stringKeys true if group keys are Strings, false for ints
+     * @param maxGroups the maximum number of groups this table may hold
+     * @param seed mixed into every hash, so that tables at different spill
+     *            levels partition keys independently
+     */
+    GroupTable(boolean stringKeys, int maxGroups, int seed) {
+        this.stringKeys = stringKeys;
+        this.maxGroups = maxGroups;
+        this.seed = seed;
+        allocate(MIN_CAPACITY);
+    }
+
+    /** @return the number of groups in the table */
+    int size() {
+        return size;
+    }
+
+    /** @return the number of slots; valid slot numbers are [0, capacity) */
+    int capacity() {
+        return capacity;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    int intKey(int slot) {
+        return intKeys[slot];
+    }
+
+    String stringKey(int slot) {
+        return strKeys[slot];
+    }
+
+    long count(int slot) {
+        return counts[slot];
+    }
+
+    long sum(int slot) {
+        return sums[slot];
+    }
+
+    int min(int slot) {
+        return mins[slot];
+    }
+
+    int max(int slot) {
+        return maxs[slot];
+    }
+
+    /** Finalizer step of a 32 bit murmur hash; spreads int keys over the table. */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    int hash(int key) {
+        return mix(key ^ seed);
+    }
+
+    int hash(String key) {
+        return mix(key.hashCode() ^ seed);
+    }
+
+    /**
+     * Locate the slot of an int key, inserting a new group if the key is
+     * absent and the table still has room.
+     *
+     * @return the slot of the group, or -1 if the key is absent and the
+     *         table is full
+     */
+    int findOrInsert(int key) {
+        int h = hash(key);
+        int slot = h & mask;
+        while (used[slot]) {
+            if (intKeys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (size >= maxGroups)
+            return -1;
+        if (needsGrow()) {
+            grow();
+            return findOrInsert(key);
+        }
+        used[slot] = true;
+        intKeys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    /**
+     * Locate the slot of a String key, inserting a new group if the key is
+     * absent and the table still has room.
+     *
+     * @return the slot of the group, or -1 if the key is absent and the
+     *         table is full
+     */
+    int findOrInsert(String key) {
+        int h = hash(key);
+        int slot = h & mask;
+        while (used[slot]) {
+            if (hashes[slot] == h && strKeys[slot].equals(key))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        if (size >= maxGroups)
+            return -1;
+        if (needsGrow()) {
+            grow();
+            return findOrInsert(key);
+        }
+        used[slot] = true;
+        strKeys[slot] = key;
+        hashes[slot] = h;
+        size++;
+        return slot;
+    }
+
+    /** Count a tuple whose aggregate field is not an int. */
+    void accumulate(int slot) {
+        counts[slot]++;
+    }
+
+    /** Fold an int aggregate value into the group at slot. */
+    void accumulate(int slot, int value) {
+        if (counts[slot] == 0) {
+            mins[slot] = value;
+            maxs[slot] = value;
+        } else {
+            if (value < mins[slot])
+                mins[slot] = value;
+            if (value > maxs[slot])
+                maxs[slot] = value;
+        }
+        counts[slot]++;
+        sums[slot] += value;
+    }
+
+    /** Drop all groups, keeping the current allocation. */
+    void clear() {
+        Arrays.fill(used, false);
+        if (strKeys != null)
+            Arrays.fill(strKeys, null);
+        Arrays.fill(counts, 0);
+        Arrays.fill(sums, 0);
+        size = 0;
+    }
+
+    private boolean needsGrow() {
+        // keep the load factor at or below one half
+        return (size + 1) * 2 > capacity;
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        used = new boolean[newCapacity];
+        if (stringKeys) {
+            strKeys = new String[newCapacity];
+            hashes = new int[newCapacity];
+        } else {
+            intKeys = new int[newCapacity];
+        }
+        counts = new long[newCapacity];
+        sums = new long[newCapacity];
+        mins = new int[newCapacity];
+        maxs = new int[newCapacity];
+    }
+
+    private void grow() {
+        boolean[] oldUsed = used;
+        int[] oldIntKeys = intKeys;
+        String[] oldStrKeys = strKeys;
+        int[] oldHashes = hashes;
+        long[] oldCounts = counts;
+        long[] oldSums = sums;
+        int[] oldMins = mins;
+        int[] oldMaxs = maxs;
+
+        allocate(capacity * 2);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (!oldUsed[i])
+                continue;
+            int h = stringKeys ? oldHashes[i] : hash(oldIntKeys[i]);
+            int slot = h & mask;
+            while (used[slot])
+                slot = (slot + 1) & mask;
+            used[slot] = true;
+            if (stringKeys) {
+                strKeys[slot] = oldStrKeys[i];
+                hashes[slot] = h;
+            } else {
+                intKeys[slot] = oldIntKeys[i];
+            }
+            counts[slot] = oldCounts[i];
+            sums[slot] = oldSums[i];
+            mins[slot] = oldMins[i];
+            maxs[slot] = oldMaxs[i];
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Computes COUNT, SUM, MIN, MAX or AVG over groups of tuples keyed by an
+ * IntField or a StringField.
+ * <p>
+ * Groups are kept in a {@link GroupTable}, so aggregating a tuple into a group
+ * that already exists does not allocate. The table is bounded by
+ * <code>maxGroups</code>: once it is full, tuples of groups that are not
+ * already in memory are projected to (group, aggregate value) and written to
+ * one of {@link #NUM_PARTITIONS} spill files chosen by the hash of their group.
+ * When the results are iterated, the in-memory groups are returned first and
+ * then each spill partition is aggregated on its own by a nested
+ * HashAggregator with a different hash seed. Since every group lives either
+ * in memory or in exactly one partition, no merging is needed.
+ * <p>
+ * Only COUNT is supported when the aggregate field is not an IntField. AVG is
+ * computed with integer division, like the other int aggregates.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default bound on the number of groups held in memory at once. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 16;
+
+    /** Fan-out of one spill level. */
+    static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Beyond this depth the group table is allowed to grow past maxGroups;
+     * re-partitioning would not help because the hash can't split the keys
+     * any further.
+     */
+    private static final int MAX_SPILL_LEVEL = 6;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Type afieldtype;
+    private final Op what;
+    private final TupleDesc resultTd;
+    private final int maxGroups;
+    private final int level;
+
+    private transient GroupTable groups;
+    private transient TupleSpillFile[] partitions;
+    private transient Tuple spillTuple;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field
+     * @param what
+     *            the aggregation operator
+     * @param resultTd
+     *            the schema of the result tuples: (group value, aggregate
+     *            value), or just (aggregate value) without grouping
+     * @param maxGroups
+     *            the maximum number of groups to hold in memory before
+     *            spilling to disk
+     * @throws IllegalArgumentException
+     *            if the aggregate field is not an int and what != COUNT
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype,
+                          Op what, TupleDesc resultTd, int maxGroups) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, resultTd, maxGroups, 0);
+    }
+
+    private HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype,
+                           Op what, TupleDesc resultTd, int maxGroups, int level) {
+        if (afieldtype != Type.INT_TYPE && what != Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported on " + afieldtype);
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive");
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.resultTd = resultTd;
+        this.maxGroups = maxGroups;
+        this.level = level;
+        this.groups = new GroupTable(gbfieldtype == Type.STRING_TYPE,
+                level >= MAX_SPILL_LEVEL ? Integer.MAX_VALUE : maxGroups,
+                level * 0x9E3779B9);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        int slot;
+        int h;
+        if (gbfield == NO_GROUPING) {
+            slot = groups.findOrInsert(0);
+            h = 0;
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            int key = ((IntField) tup.getField(gbfield)).getValue();
+            slot = groups.findOrInsert(key);
+            h = slot < 0 ? groups.hash(key) : 0;
+        } else {
+            String key = ((StringField) tup.getField(gbfield)).getValue();
+            slot = groups.findOrInsert(key);
+            h = slot < 0 ? groups.hash(key) : 0;
+        }
+
+        if (slot < 0) {
+            spill(tup, h);
+        } else if (afieldtype == Type.INT_TYPE) {
+            groups.accumulate(slot, ((IntField) tup.getField(afield)).getValue());
+        } else {
+            groups.accumulate(slot);
+        }
+    }
+
+    /** Send a tuple whose group did not fit in memory to its partition. */
+    private void spill(Tuple tup, int h) throws DbException {
+        if (partitions == null) {
+            partitions = new TupleSpillFile[NUM_PARTITIONS];
+            spillTuple = new Tuple(new TupleDesc(new Type[]{gbfieldtype, afieldtype}));
+        }
+        // use the high bits; the low bits already chose the slot in memory
+        int p = (h >>> 28) & (NUM_PARTITIONS - 1);
+        if (partitions[p] == null)
+            partitions[p] = new TupleSpillFile(spillTuple.getTupleDesc());
+        spillTuple.setField(0, tup.getField(gbfield));
+        spillTuple.setField(1, tup.getField(afield));
+        partitions[p].add(spillTuple);
+    }
+
+    /** @return true if some groups were spilled to disk */
+    public boolean hasSpilled() {
+        return partitions != null;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        return new ResultIterator();
+    }
+
+    public void clear() {
+        groups.clear();
+        if (partitions != null) {
+            for (TupleSpillFile f : partitions) {
+                if (f != null)
+                    f.delete();
+            }
+            partitions = null;
+        }
+    }
+
+    private Tuple resultTuple(int slot) {
+        int value;
+        switch (what) {
+            case COUNT:
+                value = (int) groups.count(slot);
+                break;
+            case SUM:
+                value = (int) groups.sum(slot);
+                break;
+            case AVG:
+                value = (int) (groups.sum(slot) / groups.count(slot));
+                break;
+            case MIN:
+                value = groups.min(slot);
+                break;
+            case MAX:
+                value = groups.max(slot);
+                break;
+            default:
+                throw new IllegalStateException("unknown aggregate " + what);
+        }
+
+        Tuple t = new Tuple(resultTd);
+        if (gbfield == NO_GROUPING) {
+            t.setField(0, new IntField(value));
+        } else {
+            Field key = gbfieldtype == Type.INT_TYPE
+                    ? new IntField(groups.intKey(slot))
+                    : new StringField(groups.stringKey(slot), Type.STRING_LEN);
+            t.setField(0, key);
+            t.setField(1, new IntField(value));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the in-memory groups, then the groups of every spill partition
+     * in turn.
+     */
+    private class ResultIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean open = false;
+        private int slot;
+        private int partition;
+        private HashAggregator nested;
+        private OpIterator nestedIt;
+
+        public void open() {
+            open = true;
+            slot = 0;
+            partition = 0;
+            closeNested();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("iterator not open");
+
+            while (slot < groups.capacity() && !groups.isUsed(slot))
+                slot++;
+            if (slot < groups.capacity())
+                return true;
+
+            while (true) {
+                if (nestedIt != null && nestedIt.hasNext())
+                    return true;
+                closeNested();
+                if (partitions == null || partition >= partitions.length)
+                    return false;
+                TupleSpillFile f = partitions[partition++];
+                if (f != null)
+                    openNested(f);
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (slot < groups.capacity())
+                return resultTuple(slot++);
+            return nestedIt.next();
+        }
+
+        private void openNested(TupleSpillFile f) throws DbException, TransactionAbortedException {
+            nested = new HashAggregator(0, gbfieldtype, 1, afieldtype, what,
+                    resultTd, maxGroups, level + 1);
+            try (TupleSpillFile.Reader r = f.reader()) {
+                Tuple t;
+                while ((t = r.readNext()) != null)
+                    nested.mergeTupleIntoGroup(t);
+            }
+            nestedIt = nested.iterator();
+            nestedIt.open();
+        }
+
+        private void closeNested() {
+            if (nestedIt != null)
+                nestedIt.close();
+            if (nested != null)
+                nested.clear();
+            nestedIt = null;
+            nested = null;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return resultTd;
+        }
+
+        public void close() {
+            closeNested();
+            open = false;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.IndexFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan reads the tuples of a table through one of its secondary indexes,
+ * returning only the tuples whose indexed field satisfies an
+ * {@link IndexPredicate}. Unlike {@link SeqScan} followed by a filter, it only
+ * reads the index pages on the path to the matching keys and the heap pages
+ * holding the matching tuples.
+ */
+public class IndexScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int indexId;
+    private final String tableAlias;
+    private final IndexPredicate ipred;
+
+    private transient DbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified index as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param indexId    the id of the index to scan, as registered with
+     *                   {@link simpledb.common.Catalog#addIndex}
+     * @param tableAlias the alias of the indexed table; the returned tupleDesc
+     *                   has fields named tableAlias.fieldName
+     * @param ipred      the predicate on the indexed field, or null to return
+     *                   every tuple in key order
+     * @throws IllegalArgumentException if indexId is not an index
+     */
+    public IndexScan(TransactionId tid, int indexId, String tableAlias, IndexPredicate ipred) {
+        DbFile f = Database.getCatalog().getDatabaseFile(indexId);
+        if (!(f instanceof IndexFile))
+            throw new IllegalArgumentException("file " + indexId + " is not an index");
+        this.tid = tid;
+        this.indexId = indexId;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    private IndexFile getIndex() {
+        return (IndexFile) Database.getCatalog().getDatabaseFile(indexId);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the predicate this scan evaluates through the index */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the TupleDesc of the indexed table, with field names prefixed
+     *         with the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = getIndex().getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it = getIndex().indexIterator(tid, ipred);
+        it.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null)
+            it.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
@@ -46,6 +46,10 @@ public class Predicate implements Serializable {
         }
 
     }
+
+    private final int field;
+    private final Op op;
+    private final Field operand;
     
     /**
      * Constructor.
@@ -58,7 +62,10 @@ public class Predicate implements Serializable {
      *            field value to compare passed in tuples to
      */
     public Predicate(int field, Op op, Field operand) {
-        // some code goes here
+        // some code goes here -Done
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
     }
 
     /**
@@ -66,8 +73,8 @@ public class Predicate implements Serializable {
      */
     public int getField()
     {
-        // some code goes here
-        return -1;
+        // some code goes here -Done
+        return field;
     }
 
     /**
@@ -75,8 +82,8 @@ public class Predicate implements Serializable {
      */
     public Op getOp()
     {
-        // some code goes here
-        return null;
+        // some code goes here -Done
+        return op;
     }
     
     /**
@@ -84,8 +91,8 @@ public class Predicate implements Serializable {
      */
     public Field getOperand()
     {
-        // some code goes here
-        return null;
+        // some code goes here -Done
+        return operand;
     }
     
     /**
@@ -99,8 +106,8 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        // some code goes here
-        return false;
+        // some code goes here -Done
+        return t.getField(field).compare(op, operand);
     }
 
     /**
@@ -108,7 +115,7 @@ public class Predicate implements Serializable {
      * operand_string"
      */
     public String toString() {
-        // some code goes here
-        return "";
+        // some code goes here -Done
+        return "f = " + field + " op = " + op + " operand = " + operand;
     }
 }
@@ -0,0 +1,241 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ProfiledOperator wraps an OpIterator to measure it: the tuples it
+ * returns, the time spent in its open, hasNext and next, and the pages it
+ * fetches from the BufferPool itself, as opposed to through its children.
+ * <p>
+ * Use {@link #profile} to wrap every operator of a plan.  When the root is
+ * closed it prints the plan annotated with the measurements, like EXPLAIN
+ * ANALYZE:
+ * <pre>
+ * Filter  (rows=120 time=1.840ms self=0.310ms open=0.020ms pages=0)
+ *   SeqScan t  (rows=1200 time=1.530ms self=1.530ms open=0.080ms pages=3)
+ * </pre>
+ * time includes the children, self does not.  Times are wall-clock, so a
+ * blocked lock wait counts against the operator that waited.
+ * <p>
+ * Plans that are not wrapped pay nothing but one read of an atomic counter
+ * in BufferPool.getPage, see {@link #pageFetched}.
+ */
+public class ProfiledOperator implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of profiled plans open, in any thread. */
+    private static final AtomicInteger profiling = new AtomicInteger();
+    /** The innermost wrapper the current thread is running in. */
+    private static final ThreadLocal<ProfiledOperator> current = new ThreadLocal<>();
+
+    private final OpIterator child;
+    private final List<ProfiledOperator> children = new ArrayList<>();
+    /** Whether this wraps the root of the plan. */
+    private final boolean root;
+    /** Where the root prints the plan when closed, or null. */
+    private final transient PrintStream out;
+    private boolean open = false;
+
+    private long rows;
+    private long pages;
+    private long openNanos;
+    private long hasNextNanos;
+    private long nextNanos;
+
+    private ProfiledOperator(OpIterator child, boolean root, PrintStream out) {
+        this.child = child;
+        this.root = root;
+        this.out = out;
+    }
+
+    /**
+     * Wrap every operator of a plan in a ProfiledOperator.  The children
+     * of each Operator are replaced with their wrappers; iterators that are
+     * not Operators, such as scans, are the leaves.
+     *
+     * @param root the plan
+     * @param out where to print the annotated plan when the root is closed,
+     *            or null to only keep it for {@link #report}
+     * @return the wrapper of root, to run in its place
+     */
+    public static ProfiledOperator profile(OpIterator root, PrintStream out) {
+        return wrap(root, true, out);
+    }
+
+    private static ProfiledOperator wrap(OpIterator it, boolean root, PrintStream out) {
+        ProfiledOperator wrapper = new ProfiledOperator(it, root, out);
+        if (it instanceof Operator) {
+            Operator op = (Operator) it;
+            OpIterator[] kids = op.getChildren();
+            OpIterator[] wrapped = new OpIterator[kids.length];
+            for (int i = 0; i < kids.length; i++) {
+                if (kids[i] == null)
+                    continue;
+                ProfiledOperator kid = wrap(kids[i], false, null);
+                wrapper.children.add(kid);
+                wrapped[i] = kid;
+            }
+            op.setChildren(wrapped);
+        }
+        return wrapper;
+    }
+
+    /**
+     * Count a page fetched from the BufferPool against the operator the
+     * current thread is running in, if it is profiled.
+     */
+    public static void pageFetched() {
+        if (profiling.get() == 0)
+            return;
+        ProfiledOperator op = current.get();
+        if (op != null)
+            op.pages++;
+    }
+
+    /** Make this the operator pages are counted against; @return the previous one */
+    private ProfiledOperator enter() {
+        ProfiledOperator outer = current.get();
+        current.set(this);
+        return outer;
+    }
+
+    private static void exit(ProfiledOperator outer) {
+        current.set(outer);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (root && !open)
+            profiling.incrementAndGet();
+        open = true;
+        ProfiledOperator outer = enter();
+        long start = System.nanoTime();
+        try {
+            child.open();
+        } finally {
+            openNanos += System.nanoTime() - start;
+            exit(outer);
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        ProfiledOperator outer = enter();
+        long start = System.nanoTime();
+        try {
+            return child.hasNext();
+        } finally {
+            hasNextNanos += System.nanoTime() - start;
+            exit(outer);
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        ProfiledOperator outer = enter();
+        long start = System.nanoTime();
+        try {
+            Tuple t = child.next();
+            rows++;
+            return t;
+        } finally {
+            nextNanos += System.nanoTime() - start;
+            exit(outer);
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        ProfiledOperator outer = enter();
+        long start = System.nanoTime();
+        try {
+            child.rewind();
+        } finally {
+            openNanos += System.nanoTime() - start;
+            exit(outer);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        if (root && open) {
+            profiling.decrementAndGet();
+            if (out != null)
+                out.print(report());
+        }
+        open = false;
+    }
+
+    /** @return the wrapped operator */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    /** @return the tuples the operator returned */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the pages the operator fetched itself, not through its children */
+    public long getPages() {
+        return pages;
+    }
+
+    /** @return the time spent in the operator and its children, in nanoseconds */
+    public long getNanos() {
+        return openNanos + hasNextNanos + nextNanos;
+    }
+
+    /** @return the time spent in the operator but not its children, in nanoseconds */
+    public long getSelfNanos() {
+        long self = getNanos();
+        for (ProfiledOperator kid : children)
+            self -= kid.getNanos();
+        return Math.max(0, self);
+    }
+
+    /** @return the wrappers of the operator's children */
+    public List<ProfiledOperator> getChildren() {
+        return children;
+    }
+
+    /** @return the plan below this operator, annotated, one operator per line */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        report(sb, 0);
+        return sb.toString();
+    }
+
+    private void report(StringBuilder sb, int depth) {
+        for (int i = 0; i < depth; i++)
+            sb.append("  ");
+        sb.append(describe(child));
+        sb.append(String.format("  (rows=%d time=%.3fms self=%.3fms open=%.3fms pages=%d)%n",
+                rows, millis(getNanos()), millis(getSelfNanos()), millis(openNanos), pages));
+        for (ProfiledOperator kid : children)
+            kid.report(sb, depth + 1);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String describe(OpIterator it) {
+        String name = it.getClass().getSimpleName();
+        if (it instanceof SeqScan)
+            return name + " " + ((SeqScan) it).getAlias();
+        if (it instanceof IndexScan)
+            return name + " " + ((IndexScan) it).getAlias();
+        return name;
+    }
+}
@@ -0,0 +1,266 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Metrics;
+import simpledb.storage.TableVersions;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ResultCache keeps the results of recently run queries, so that a query
+ * run again while its tables have not changed is answered from memory.
+ * <p>
+ * A result is stamped with the versions of the tables it read, as kept
+ * by the BufferPool's {@link TableVersions}, and with the Catalog's
+ * version; it is used only while they are all unchanged.  Only snapshot
+ * transactions use the cache, and only those that see the latest
+ * committed state of the tables: a cached result is that state, and a
+ * transaction that takes locks must read through them.
+ * <p>
+ * A miss runs the query's plan, recording its tuples as they are read,
+ * and stores the result once the plan is read to the end.  Results are
+ * dropped in least recently used order to keep the estimated size of
+ * the cache within its capacity; a result larger than a quarter of it is
+ * not kept.
+ *
+ * @Threadsafe
+ */
+public class ResultCache {
+
+    /** Default capacity, in bytes. */
+    public static final long DEFAULT_CAPACITY = 16L << 20;
+    /** Estimated size of a tuple beyond its fields. */
+    static final int TUPLE_OVERHEAD = 48;
+
+    private static final LongAdder HITS = Metrics.counter("resultcache.hits");
+    private static final LongAdder MISSES = Metrics.counter("resultcache.misses");
+    private static final LongAdder EVICTIONS = Metrics.counter("resultcache.evictions");
+
+    /** Makes the plan of a query the cache has no result for. */
+    public interface Producer {
+        OpIterator plan() throws DbException, TransactionAbortedException;
+    }
+
+    /** The versions of a query's tables and of the Catalog at some moment. */
+    private static class Stamp {
+        final int[] tables;
+        final long[] versions;
+        final long catalog;
+
+        Stamp(int[] tables) {
+            TableVersions tv = Database.getBufferPool().getTableVersions();
+            this.tables = tables;
+            this.versions = new long[tables.length];
+            for (int i = 0; i < tables.length; i++)
+                versions[i] = tv.version(tables[i]);
+            this.catalog = Database.getCatalog().getVersion();
+        }
+
+        /** @return whether nothing has changed since */
+        boolean unchanged() {
+            if (catalog != Database.getCatalog().getVersion())
+                return false;
+            TableVersions tv = Database.getBufferPool().getTableVersions();
+            for (int i = 0; i < tables.length; i++) {
+                if (tv.version(tables[i]) != versions[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /** @return whether snapshot sees the latest committed state of the tables */
+        boolean visibleTo(TransactionId snapshot) {
+            TableVersions tv = Database.getBufferPool().getTableVersions();
+            for (int table : tables) {
+                if (!tv.currentFor(table, snapshot.getBeginTimestamp()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class Entry {
+        final Stamp stamp;
+        final TupleDesc td;
+        final List<Tuple> tuples;
+        final long bytes;
+
+        Entry(Stamp stamp, TupleDesc td, List<Tuple> tuples, long bytes) {
+            this.stamp = stamp;
+            this.td = td;
+            this.tuples = tuples;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long capacity;
+    private final Map<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // protected by this
+    private long bytes = 0; // protected by this
+
+    public ResultCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the most bytes of results kept, estimated
+     */
+    public ResultCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the result of a query, from the cache if it is there and current.
+     * @param tid the transaction the query runs in
+     * @param key the query with its constants; equal keys must mean the
+     *        same query
+     * @param tables the ids of the tables the query reads
+     * @param producer makes the query's plan, if the result is not cached
+     * @return a TupleIterator over the cached result, or the plan
+     */
+    public OpIterator get(TransactionId tid, Object key, int[] tables, Producer producer)
+            throws DbException, TransactionAbortedException {
+        if (!tid.isSnapshot())
+            return producer.plan();
+        Stamp stamp = new Stamp(tables.clone());
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && Arrays.equals(e.stamp.tables, stamp.tables) && e.stamp.unchanged()) {
+                if (e.stamp.visibleTo(tid)) {
+                    HITS.increment();
+                    return new TupleIterator(e.td, e.tuples);
+                }
+                // current for newer snapshots; leave it be
+            } else if (e != null) {
+                remove(key);
+            }
+        }
+        MISSES.increment();
+        return new Recorder(producer.plan(), tid, key, stamp);
+    }
+
+    private synchronized void put(Object key, Entry e) {
+        remove(key);
+        entries.put(key, e);
+        bytes += e.bytes;
+        for (Iterator<Entry> it = entries.values().iterator(); bytes > capacity && it.hasNext(); ) {
+            bytes -= it.next().bytes;
+            it.remove();
+            EVICTIONS.increment();
+        }
+    }
+
+    private void remove(Object key) {
+        Entry old = entries.remove(key);
+        if (old != null)
+            bytes -= old.bytes;
+    }
+
+    /** Drop every result. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** @return the number of results kept */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the estimated size of the results kept, in bytes */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Passes the tuples of a plan through, keeping them, and caches them
+     * when the plan is read to the end.
+     */
+    private class Recorder extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private OpIterator child;
+        private final TransactionId tid;
+        private final Object key;
+        private final Stamp stamp;
+        private List<Tuple> tuples;
+        private long size;
+
+        Recorder(OpIterator child, TransactionId tid, Object key, Stamp stamp) {
+            this.child = child;
+            this.tid = tid;
+            this.key = key;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+            tuples = new ArrayList<>();
+            size = 0;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            tuples = new ArrayList<>();
+            size = 0;
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                if (tuples != null) {
+                    tuples.add(t);
+                    size += TUPLE_OVERHEAD + t.getTupleDesc().getSize();
+                    if (size > capacity / 4)
+                        tuples = null;
+                }
+                return t;
+            }
+            if (tuples != null) {
+                // the tables must not have changed while the plan ran
+                if (stamp.unchanged() && stamp.visibleTo(tid))
+                    put(key, new Entry(stamp, getTupleDesc(), tuples, size));
+                tuples = null;
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            child.close();
+            tuples = null;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
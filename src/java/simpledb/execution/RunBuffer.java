@@ -0,0 +1,84 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+
+/**
+ * RunBuffer holds a run of tuples that an operator needs to read more than
+ * once, such as the inner tuples sharing one join key in a sort-merge join.
+ * It is a mark/rewind buffer over a single run: tuples are appended, then the
+ * run can be replayed from the start any number of times until it is cleared.
+ * <p>
+ * At most <code>maxInMemory</code> tuples are kept on the heap; the rest of
+ * an oversized run goes to a {@link TupleSpillFile}, so memory use does not
+ * depend on how skewed the input is.
+ */
+class RunBuffer {
+
+    private final TupleDesc td;
+    private final int maxInMemory;
+    private final ArrayList<Tuple> memory = new ArrayList<>();
+    private TupleSpillFile overflow;
+
+    private int memPos;
+    private TupleSpillFile.Reader overflowReader;
+
+    RunBuffer(TupleDesc td, int maxInMemory) {
+        this.td = td;
+        this.maxInMemory = maxInMemory;
+    }
+
+    /** @return true if no tuples have been added since the last clear */
+    boolean isEmpty() {
+        return memory.isEmpty();
+    }
+
+    /** Append a tuple to the current run. */
+    void add(Tuple t) throws DbException {
+        if (memory.size() < maxInMemory) {
+            memory.add(t);
+            return;
+        }
+        if (overflow == null)
+            overflow = new TupleSpillFile(td);
+        overflow.add(t);
+    }
+
+    /** Position the buffer at the first tuple of the run. */
+    void rewind() throws DbException {
+        memPos = 0;
+        closeReader();
+    }
+
+    /** @return the next tuple of the run, or null at the end of the run */
+    Tuple next() throws DbException {
+        if (memPos < memory.size())
+            return memory.get(memPos++);
+        if (overflow == null)
+            return null;
+        if (overflowReader == null)
+            overflowReader = overflow.reader();
+        return overflowReader.readNext();
+    }
+
+    /** Forget the current run, releasing any spilled tuples. */
+    void clear() {
+        memory.clear();
+        memPos = 0;
+        closeReader();
+        if (overflow != null) {
+            overflow.delete();
+            overflow = null;
+        }
+    }
+
+    private void closeReader() {
+        if (overflowReader != null) {
+            overflowReader.close();
+            overflowReader = null;
+        }
+    }
+}
@@ -93,6 +93,16 @@ public class SeqScan implements OpIterator {
     	this.tableAlias = tableAlias;
     }
 
+    /**
+     * Run the scan as part of another transaction, e.g. when a cached plan
+     * is reused.  Only while the scan is closed.
+     * @param tid the transaction the scan runs as a part of from now on
+     */
+    public void reset(TransactionId tid) {
+    	this.tid = tid;
+    	this.tupleIterator = Database.getCatalog().getDatabaseFile(this.tableid).iterator(tid);
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -0,0 +1,204 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin is an equi-join over two children that are already sorted in
+ * ascending order on their join fields, e.g. clustered tables or the output of
+ * a sort. Both inputs are read exactly once.
+ * <p>
+ * Duplicate keys are handled with a {@link RunBuffer}: the inner tuples that
+ * share the current key are collected once and replayed for every outer tuple
+ * with that key, instead of rewinding the whole inner child. The buffer keeps
+ * at most <code>maxBufferedTuples</code> tuples in memory and spills the rest
+ * of a long run to disk, so memory use stays constant regardless of input
+ * size.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of inner tuples of one key to keep in memory. */
+    public static final int DEFAULT_MAX_BUFFERED_TUPLES = 4096;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final int maxBufferedTuples;
+
+    private transient TupleDesc td;
+    private transient RunBuffer run;
+    /** Join key shared by the tuples in the run, or null if no run is loaded. */
+    private transient Field runKey;
+    /** First inner tuple after the run, or null if child2 is exhausted. */
+    private transient Tuple lookahead;
+    private transient Tuple outer;
+    private transient boolean matching;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on. The predicate must be an equality, and both children must be sorted
+     * in ascending order on their join field.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not EQUALS
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MAX_BUFFERED_TUPLES);
+    }
+
+    /**
+     * @param maxBufferedTuples the number of inner tuples of one key to hold
+     *                          in memory before spilling the run to disk
+     * @see #SortMergeJoin(JoinPredicate, OpIterator, OpIterator)
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         int maxBufferedTuples) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge join requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.maxBufferedTuples = maxBufferedTuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the merged schema of the outer and inner children
+     * @see TupleDesc#merge(TupleDesc, TupleDesc)
+     */
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        td = getTupleDesc();
+        run = new RunBuffer(child2.getTupleDesc(), maxBufferedTuples);
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (run != null)
+            run.clear();
+        run = null;
+        child1.close();
+        child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        run.clear();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        runKey = null;
+        outer = null;
+        matching = false;
+        lookahead = nextInner();
+    }
+
+    private Tuple nextInner() throws DbException, TransactionAbortedException {
+        return child2.hasNext() ? child2.next() : null;
+    }
+
+    /**
+     * Replace the run with the inner tuples of the smallest key that is not
+     * less than key.
+     *
+     * @return false if the inner child has no such key
+     */
+    private boolean loadRun(Field key) throws DbException, TransactionAbortedException {
+        run.clear();
+        runKey = null;
+        int f2 = p.getField2();
+        while (lookahead != null && lookahead.getField(f2).compare(Predicate.Op.LESS_THAN, key))
+            lookahead = nextInner();
+        if (lookahead == null)
+            return false;
+
+        runKey = lookahead.getField(f2);
+        while (lookahead != null && lookahead.getField(f2).equals(runKey)) {
+            run.add(lookahead);
+            lookahead = nextInner();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Logically, this is the next tuple in r1 cross r2 that
+     * satisfies the join predicate.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matching) {
+                Tuple inner = run.next();
+                if (inner != null)
+                    return mergeTuples(outer, inner);
+                matching = false;
+                outer = null;
+            }
+
+            if (outer == null) {
+                if (!child1.hasNext())
+                    return null;
+                outer = child1.next();
+            }
+
+            Field key = outer.getField(p.getField1());
+            if (runKey != null && key.equals(runKey)) {
+                // mark/rewind: replay the run for this outer tuple
+                run.rewind();
+                matching = true;
+            } else if (runKey != null && key.compare(Predicate.Op.LESS_THAN, runKey)) {
+                outer = null;
+            } else if (!loadRun(key)) {
+                // no inner key is >= this key, so nothing later can match
+                return null;
+            }
+        }
+    }
+
+    private Tuple mergeTuples(Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < n2; i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
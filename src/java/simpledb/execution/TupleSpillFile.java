@@ -0,0 +1,140 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.text.ParseException;
+
+/**
+ * TupleSpillFile is an append-then-read temporary file of tuples, used by
+ * operators that have to move part of their input out of memory. Tuples are
+ * written with {@link simpledb.storage.Field#serialize} and read back with
+ * {@link simpledb.common.Type#parse}, so the format matches the slots of a
+ * HeapPage.
+ * <p>
+ * A spill file is written once, then may be read any number of times. It
+ * must be deleted with {@link #delete()} when the operator is done with it.
+ */
+class TupleSpillFile {
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long size;
+
+    /**
+     * Creates a new, empty spill file in the default temporary directory.
+     *
+     * @param td the schema of the tuples to spill
+     */
+    TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb-spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(this.file), IO_BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("unable to create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the number of tuples written to this file */
+    long size() {
+        return size;
+    }
+
+    /** Append a tuple to the end of this file. */
+    void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file already sealed");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** Flush and close the write side; no further tuples may be added. */
+    void seal() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Opens a new reader positioned at the first tuple of this file. Seals
+     * the file if that has not happened yet.
+     */
+    Reader reader() throws DbException {
+        seal();
+        try {
+            return new Reader(new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), IO_BUFFER_SIZE)));
+        } catch (FileNotFoundException e) {
+            throw new DbException("spill file disappeared: " + e.getMessage());
+        }
+    }
+
+    /** Close and remove the underlying file. */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // the file is being thrown away
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Sequential reader over the tuples of a spill file. */
+    class Reader implements Closeable {
+        private final DataInputStream in;
+        private final byte[] record = new byte[td.getSize()];
+        private long remaining = size;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /** @return the next tuple, or null once the file is exhausted */
+        Tuple readNext() throws DbException {
+            if (remaining == 0)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                // read the whole record first: Type.parse relies on read()
+                // filling its buffer, which only a byte array stream promises
+                in.readFully(record);
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(dis));
+            } catch (IOException | ParseException e) {
+                throw new DbException("corrupt spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // read-only stream; nothing to recover
+            }
+        }
+    }
+}
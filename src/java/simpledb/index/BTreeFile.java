@@ -0,0 +1,501 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * BTreeFile is a secondary B+ tree index over one field of a {@link HeapFile}.
+ * Its leaves hold (key, RecordId) entries in key order and are chained left to
+ * right; its internal pages route a search to the right leaf. A point lookup
+ * reads one page per level of the tree instead of every page of the table.
+ * <p>
+ * Page 0 of the file is a {@link BTreeRootPtrPage}; every other page is a
+ * {@link BTreeInternalPage} or a {@link BTreeLeafPage}. All pages are read
+ * through the BufferPool and locked like heap pages. Inserts split full pages
+ * on the way back up the tree. Deletes only remove the entry from its leaf:
+ * pages are never merged, so a tree that shrinks keeps its height.
+ *
+ * @see BTreeFile#createIndex
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File f;
+    private final HeapFile table;
+    private final int keyField;
+    private final int id;
+
+    /**
+     * Constructs a B+ tree index backed by the specified file. The index must
+     * be registered with {@link simpledb.common.Catalog#addIndex} before any
+     * of its pages are read.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param table the table the index is built on
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public BTreeFile(File f, HeapFile table, int keyField) {
+        this(f, table, keyField, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a B+ tree index with an id allocated by the system catalog,
+     * rather than one hashed from the file's name.
+     *
+     * @see simpledb.common.Catalog#allocateId
+     */
+    public BTreeFile(File f, HeapFile table, int keyField, int id) {
+        this.f = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.id = id;
+    }
+
+    /**
+     * Build a B+ tree index over a field of a table, overwriting f, and
+     * register it with the catalog. The leaves are written packed, in key
+     * order, straight to disk.
+     *
+     * @param tid the transaction used to scan the table
+     * @return the new index
+     */
+    public static BTreeFile createIndex(TransactionId tid, File f, HeapFile table, int keyField)
+            throws DbException, TransactionAbortedException, IOException {
+        BTreeFile index = new BTreeFile(f, table, keyField, Database.getCatalog().allocateId(f));
+        Database.getCatalog().addIndex(index);
+
+        List<IndexEntry> entries = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            entries.add(new IndexEntry(t.getField(keyField), t.getRecordId()));
+        }
+        it.close();
+        Collections.sort(entries);
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+        }
+        int tableId = index.getId();
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(
+                new BTreePageId(tableId, 0, BTreePageId.ROOT_PTR), BTreePage.createEmptyPageData());
+        index.writePage(rootPtr);
+        if (entries.isEmpty())
+            return index;
+
+        // the leaf level, chained left to right
+        int leafCap = BTreeLeafPage.getMaxEntries(index.keyType());
+        int numLeaves = (entries.size() + leafCap - 1) / leafCap;
+        List<IndexEntry> firsts = new ArrayList<>(numLeaves);
+        int pgNo = 1;
+        for (int i = 0; i < numLeaves; i++, pgNo++) {
+            BTreeLeafPage leaf = new BTreeLeafPage(
+                    new BTreePageId(tableId, pgNo, BTreePageId.LEAF), BTreePage.createEmptyPageData());
+            List<IndexEntry> chunk = entries.subList(i * leafCap,
+                    Math.min(entries.size(), (i + 1) * leafCap));
+            leaf.entries().addAll(chunk);
+            if (i < numLeaves - 1)
+                leaf.setRightSiblingId(new BTreePageId(tableId, pgNo + 1, BTreePageId.LEAF));
+            index.writePage(leaf);
+            firsts.add(chunk.get(0));
+        }
+
+        // internal levels, bottom up, until a single page is left
+        int internalCap = BTreeInternalPage.getMaxEntries(index.keyType());
+        int levelStart = 1;
+        int category = BTreePageId.LEAF;
+        while (firsts.size() > 1) {
+            List<IndexEntry> parentFirsts = new ArrayList<>();
+            int nextStart = pgNo;
+            for (int i = 0; i < firsts.size(); i += internalCap + 1, pgNo++) {
+                BTreeInternalPage page = new BTreeInternalPage(
+                        new BTreePageId(tableId, pgNo, BTreePageId.INTERNAL),
+                        BTreePage.createEmptyPageData());
+                page.setChildCategory(category);
+                int end = Math.min(firsts.size(), i + internalCap + 1);
+                for (int c = i; c < end; c++) {
+                    if (c > i)
+                        page.keys().add(firsts.get(c));
+                    page.children().add(levelStart + c);
+                }
+                index.writePage(page);
+                parentFirsts.add(firsts.get(i));
+            }
+            firsts = parentFirsts;
+            levelStart = nextStart;
+            category = BTreePageId.INTERNAL;
+        }
+
+        rootPtr.setRootId(new BTreePageId(tableId, levelStart, category));
+        index.writePage(rootPtr);
+        return index;
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** @return the TupleDesc of the indexed table */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    public int getIndexedTableId() {
+        return table.getId();
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    private Type keyType() {
+        return table.getTupleDesc().getFieldType(keyField);
+    }
+
+    /** @return the number of pages in this index file, including the root pointer */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId) || pid.getTableId() != id)
+            throw new IllegalArgumentException("page " + pid + " is not in this index");
+        BTreePageId bpid = (BTreePageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            if ((long) (bpid.getPageNumber() + 1) * data.length > raf.length())
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            raf.seek((long) bpid.getPageNumber() * data.length);
+            raf.readFully(data);
+            switch (bpid.pgcateg()) {
+                case BTreePageId.ROOT_PTR:
+                    return new BTreeRootPtrPage(bpid, data);
+                case BTreePageId.INTERNAL:
+                    return new BTreeInternalPage(bpid, data);
+                default:
+                    return new BTreeLeafPage(bpid, data);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("couldn't read page " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Append an empty page to the file and fetch it through the BufferPool.
+     * The page is returned already marked dirty by tid.
+     */
+    private BTreePage allocatePage(TransactionId tid, int category, List<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = Math.max(1, numPages());
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.write(BTreePage.createEmptyPageData());
+            }
+        }
+        BTreePage p = getPage(tid, new BTreePageId(id, pgNo, category), Permissions.READ_WRITE);
+        markDirty(tid, p, dirtied);
+        return p;
+    }
+
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Mark a page dirty and record it in dirtied. Pages must be marked before
+     * the next page is fetched, so that the BufferPool can't evict them before
+     * the change is made.
+     */
+    private static void markDirty(TransactionId tid, Page p, List<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p))
+            dirtied.add(p);
+    }
+
+    private BTreeRootPtrPage getRootPtrPage(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException, IOException {
+        synchronized (this) {
+            if (numPages() == 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.write(BTreePage.createEmptyPageData());
+                }
+            }
+        }
+        return (BTreeRootPtrPage) getPage(tid, new BTreePageId(id, 0, BTreePageId.ROOT_PTR), perm);
+    }
+
+    /**
+     * Add the entry for t to the index. t must be a tuple of the indexed table
+     * with its RecordId set.
+     *
+     * @return the index pages that were modified
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        List<Page> dirtied = new ArrayList<>();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            markDirty(tid, rootPtr, dirtied);
+            BTreeLeafPage leaf = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF, dirtied);
+            leaf.entries().add(e);
+            rootPtr.setRootId(leaf.getId());
+            return dirtied;
+        }
+
+        Deque<BTreeInternalPage> path = new ArrayDeque<>();
+        BTreePageId pid = rootId;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_WRITE);
+            path.push(p);
+            pid = p.getChildId(p.findChild(e));
+        }
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_WRITE);
+        markDirty(tid, leaf, dirtied);
+        List<IndexEntry> entries = leaf.entries();
+        int pos = Collections.binarySearch(entries, e);
+        if (pos >= 0)
+            throw new DbException("tuple " + t.getRecordId() + " is already in the index");
+        entries.add(-pos - 1, e);
+        if (entries.size() <= BTreeLeafPage.getMaxEntries(keyType()))
+            return dirtied;
+
+        // a split can reach every page on the path, and allocating pages below
+        // may evict any of them that are still clean
+        markDirty(tid, rootPtr, dirtied);
+        for (BTreeInternalPage p : path)
+            markDirty(tid, p, dirtied);
+
+        // split the leaf, moving its upper half to a new right sibling
+        BTreeLeafPage right = (BTreeLeafPage) allocatePage(tid, BTreePageId.LEAF, dirtied);
+        List<IndexEntry> upper = entries.subList(entries.size() / 2, entries.size());
+        right.entries().addAll(upper);
+        upper.clear();
+        right.setRightSiblingId(leaf.getRightSiblingId());
+        leaf.setRightSiblingId(right.getId());
+
+        // push the separator up, splitting internal pages as they fill
+        IndexEntry sep = right.entries().get(0);
+        int leftChild = leaf.getId().getPageNumber();
+        int rightChild = right.getId().getPageNumber();
+        int category = BTreePageId.LEAF;
+        int internalCap = BTreeInternalPage.getMaxEntries(keyType());
+        while (true) {
+            if (path.isEmpty()) {
+                BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL, dirtied);
+                root.setChildCategory(category);
+                root.children().add(leftChild);
+                root.keys().add(sep);
+                root.children().add(rightChild);
+                rootPtr.setRootId(root.getId());
+                return dirtied;
+            }
+            BTreeInternalPage parent = path.pop();
+            int i = parent.findChild(sep);
+            parent.keys().add(i, sep);
+            parent.children().add(i + 1, rightChild);
+            int n = parent.getNumEntries();
+            if (n <= internalCap)
+                return dirtied;
+
+            // the middle key moves up; the keys and children after it go right
+            int mid = n / 2;
+            BTreeInternalPage sibling = (BTreeInternalPage) allocatePage(tid, BTreePageId.INTERNAL, dirtied);
+            sibling.setChildCategory(parent.getChildCategory());
+            sibling.keys().addAll(parent.keys().subList(mid + 1, n));
+            sibling.children().addAll(parent.children().subList(mid + 1, n + 1));
+            sep = parent.keys().get(mid);
+            parent.keys().subList(mid, n).clear();
+            parent.children().subList(mid + 1, n + 1).clear();
+            leftChild = parent.getId().getPageNumber();
+            rightChild = sibling.getId().getPageNumber();
+            category = BTreePageId.INTERNAL;
+        }
+    }
+
+    /**
+     * Remove the entry for t from the index. t must be a tuple of the indexed
+     * table with its RecordId set. Pages left empty are not reclaimed.
+     *
+     * @return the index pages that were modified
+     * @throws DbException if t has no entry in the index
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        List<Page> dirtied = new ArrayList<>();
+        BTreePageId pid = getRootPtrPage(tid, Permissions.READ_ONLY).getRootId();
+        if (pid == null)
+            throw new DbException("tuple " + t.getRecordId() + " is not in the index");
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+            pid = p.getChildId(p.findChild(e));
+        }
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_WRITE);
+        int pos = Collections.binarySearch(leaf.entries(), e);
+        if (pos < 0)
+            throw new DbException("tuple " + t.getRecordId() + " is not in the index");
+        markDirty(tid, leaf, dirtied);
+        leaf.entries().remove(pos);
+        return dirtied;
+    }
+
+    private IndexEntry entryFor(Tuple t) throws DbException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != table.getId())
+            throw new DbException("tuple is not stored in the indexed table");
+        return new IndexEntry(t.getField(keyField), t.getRecordId());
+    }
+
+    /** @return an iterator over the tuples of the indexed table in key order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, ipred);
+    }
+
+    /** A B+ tree answers every comparison except LIKE and NOT_EQUALS by range. */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * Iterates over the leaves in key order, starting at the first key that
+     * can match and stopping at the first key past the range.
+     */
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private BTreeLeafPage leaf;
+        private int pos;
+
+        BTreeFileIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            leaf = null;
+            BTreePageId pid;
+            try {
+                pid = getRootPtrPage(tid, Permissions.READ_ONLY).getRootId();
+            } catch (IOException e) {
+                throw new DbException("couldn't read index root: " + e.getMessage());
+            }
+            if (pid == null)
+                return;
+
+            Field key = null;
+            if (ipred != null) {
+                Predicate.Op op = ipred.getOp();
+                if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                        || op == Predicate.Op.GREATER_THAN_OR_EQ)
+                    key = ipred.getField();
+            }
+            while (pid.pgcateg() == BTreePageId.INTERNAL) {
+                BTreeInternalPage p = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+                pid = p.getChildId(key == null ? 0 : p.findChild(key));
+            }
+            leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_ONLY);
+            pos = key == null ? 0 : leaf.lowerBound(key);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (leaf == null)
+                return null;
+            while (true) {
+                while (pos >= leaf.getNumEntries()) {
+                    BTreePageId next = leaf.getRightSiblingId();
+                    if (next == null) {
+                        leaf = null;
+                        return null;
+                    }
+                    leaf = (BTreeLeafPage) getPage(tid, next, Permissions.READ_ONLY);
+                    pos = 0;
+                }
+                IndexEntry e = leaf.entries().get(pos++);
+                if (ipred != null) {
+                    Field key = ipred.getField();
+                    int c = IndexEntry.compareKeys(e.key, key);
+                    switch (ipred.getOp()) {
+                        case EQUALS:
+                            if (c > 0) { leaf = null; return null; }
+                            break;
+                        case LESS_THAN:
+                            if (c >= 0) { leaf = null; return null; }
+                            break;
+                        case LESS_THAN_OR_EQ:
+                            if (c > 0) { leaf = null; return null; }
+                            break;
+                        case GREATER_THAN:
+                            if (c <= 0) continue;
+                            break;
+                        case GREATER_THAN_OR_EQ:
+                            break;
+                        default:
+                            if (!e.key.compare(ipred.getOp(), key)) continue;
+                    }
+                }
+                Tuple t = table.getTuple(tid, e.getRecordId(table.getId()));
+                if (t != null)
+                    return t;
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            leaf = null;
+        }
+    }
+}
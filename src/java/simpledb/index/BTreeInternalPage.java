@@ -0,0 +1,143 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An internal node of a {@link BTreeFile}. An internal page with n keys has
+ * n + 1 children; keys[i] is the smallest entry stored under children[i + 1],
+ * and every entry under children[i] is smaller than keys[i]. All children of
+ * one internal page are of the same category.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final List<IndexEntry> keys;
+    private final List<Integer> children;
+    private int childCategory;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     * The format of an internal page is the category of its children, the
+     * number of keys n, the first child, and then n (key, child) pairs.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        Type keyType = IndexEntry.keyType(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        childCategory = dis.readInt();
+        int n = dis.readInt();
+        keys = new ArrayList<>(n + 1);
+        children = new ArrayList<>(n + 2);
+        if (childCategory != 0) {
+            children.add(dis.readInt());
+            for (int i = 0; i < n; i++) {
+                keys.add(IndexEntry.read(dis, keyType));
+                children.add(dis.readInt());
+            }
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of keys that fit on an internal page for the given key type */
+    public static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - 12) / (IndexEntry.getSize(keyType) + 4);
+    }
+
+    public int getNumEntries() {
+        return keys.size();
+    }
+
+    /** @return the id of the i-th child, 0 &lt;= i &lt;= getNumEntries() */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /** The keys of this page in order; callers may modify the list. */
+    List<IndexEntry> keys() {
+        return keys;
+    }
+
+    /** The page numbers of the children, one more than the keys. */
+    List<Integer> children() {
+        return children;
+    }
+
+    int getChildCategory() {
+        return childCategory;
+    }
+
+    void setChildCategory(int childCategory) {
+        this.childCategory = childCategory;
+    }
+
+    /**
+     * @return the index of the child whose subtree would hold the given
+     *         entry: the number of keys that are not greater than it
+     */
+    int findChild(IndexEntry e) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(e) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the leftmost child that may hold entries with the
+     *         given key: the number of keys whose key field is less than it
+     */
+    int findChild(Field key) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (IndexEntry.compareKeys(keys.get(mid).key, key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(childCategory);
+            dos.writeInt(keys.size());
+            if (!children.isEmpty()) {
+                dos.writeInt(children.get(0));
+                for (int i = 0; i < keys.size(); i++) {
+                    keys.get(i).write(dos);
+                    dos.writeInt(children.get(i + 1));
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
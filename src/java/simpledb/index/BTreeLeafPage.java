@@ -0,0 +1,105 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A leaf of a {@link BTreeFile}. Leaves hold the index entries in sorted
+ * order and are chained left to right through their right sibling pointers,
+ * so a range scan only descends the tree once.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final List<IndexEntry> entries;
+    private int rightSibling;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     * The format of a leaf page is the page number of the right sibling (0 if
+     * there is none), the number of entries, and then the entries, each the
+     * serialized key followed by the page number and slot of its tuple.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        Type keyType = IndexEntry.keyType(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        rightSibling = dis.readInt();
+        int n = dis.readInt();
+        entries = new ArrayList<>(n + 1);
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.read(dis, keyType));
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a leaf for the given key type */
+    public static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - 8) / IndexEntry.getSize(keyType);
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /** @return the id of the next leaf to the right, or null for the last leaf */
+    public BTreePageId getRightSiblingId() {
+        if (rightSibling == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.getPageNumber();
+    }
+
+    /** The entries of this leaf in order; callers may modify the list. */
+    List<IndexEntry> entries() {
+        return entries;
+    }
+
+    /** @return the position of the first entry whose key is not less than key */
+    int lowerBound(Field key) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (IndexEntry.compareKeys(entries.get(mid).key, key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(rightSibling);
+            dos.writeInt(entries.size());
+            for (IndexEntry e : entries)
+                e.write(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Common state of the pages of a {@link BTreeFile}: the page id, the dirty
+ * flag and the before image used by recovery. Subclasses define the on-disk
+ * layout through {@link #getPageData()}.
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+
+    private volatile TransactionId dirtier;
+    private volatile long lsn = NO_LSN;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected BTreePage(BTreePageId id) {
+        this.pid = id;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /** @return the page contents as of the last {@link #setBeforeImage()} */
+    protected byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    /** @return a byte array of BufferPool.getPageSize() holding what was written to baos */
+    static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, written.length);
+        return data;
+    }
+
+    /** Static method to generate a byte array corresponding to an empty B+ tree page. */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+}
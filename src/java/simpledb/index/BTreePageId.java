@@ -0,0 +1,92 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+/**
+ * Unique identifier for the pages of a {@link BTreeFile}. Besides the table
+ * and page number, a BTreePageId carries the category of the page so that
+ * {@link BTreeFile#readPage} knows which page class to build. The category is
+ * not part of the page's identity: two ids with the same table and page
+ * number are equal regardless of category.
+ */
+public class BTreePageId implements PageId {
+
+    public final static int ROOT_PTR = 0;
+    public final static int INTERNAL = 1;
+    public final static int LEAF = 2;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The id of the index file that is being referenced
+     * @param pgNo The page number in that file
+     * @param pgcateg which kind of page it is: ROOT_PTR, INTERNAL or LEAF
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the index file associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file getTableId() associated with this PageId */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /** @return the category of this page: ROOT_PTR, INTERNAL or LEAF */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    /**
+     * @return a hash code for this page, built from the table number and the
+     *   page number
+     */
+    public int hashCode() {
+        return tableId * 64 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId p = (BTreePageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        String categ;
+        switch (pgcateg) {
+            case ROOT_PTR: categ = "ROOT_PTR"; break;
+            case INTERNAL: categ = "INTERNAL"; break;
+            default: categ = "LEAF";
+        }
+        return "(" + tableId + ", " + pgNo + ", " + categ + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, pgcateg};
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.index;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The first page of every {@link BTreeFile}. It records where the root of the
+ * tree is, so that the root can move when it splits. A root page number of 0
+ * means the tree is empty.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     * The format is the page number of the root followed by its category.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        if (root == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    void setRootId(BTreePageId id) {
+        root = id.getPageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeInt(rootCategory);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
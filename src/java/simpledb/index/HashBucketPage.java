@@ -0,0 +1,99 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bucket of a {@link HashIndexFile}, holding the entries whose key hashes to
+ * it in no particular order. A bucket that can't be split any further is
+ * extended with a chain of overflow pages, which are buckets too.
+ */
+public class HashBucketPage extends HashPage {
+
+    private int localDepth;
+    private int overflow;
+    private final List<IndexEntry> entries;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format is the local depth, the page number of the next overflow
+     * page (0 if there is none), the number of entries, and the entries.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        Type keyType = IndexEntry.keyType(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        localDepth = dis.readInt();
+        overflow = dis.readInt();
+        int n = dis.readInt();
+        entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            entries.add(IndexEntry.read(dis, keyType));
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit in a bucket for the given key type */
+    public static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - 12) / IndexEntry.getSize(keyType);
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /** @return the id of the next page of this bucket's chain, or null */
+    public HashPageId getOverflowId() {
+        return overflow == 0 ? null : new HashPageId(pid.getTableId(), overflow);
+    }
+
+    void setOverflowId(HashPageId id) {
+        overflow = id == null ? 0 : id.getPageNumber();
+    }
+
+    /** The entries of this bucket; callers may modify the list. */
+    List<IndexEntry> entries() {
+        return entries;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(localDepth);
+            dos.writeInt(overflow);
+            dos.writeInt(entries.size());
+            for (IndexEntry e : entries)
+                e.write(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The directory of a {@link HashIndexFile}, always page 0. With a global depth
+ * of d the directory has 2^d slots; slot i holds the page number of the bucket
+ * for keys whose hash ends in the d bits of i. Several slots share a bucket
+ * whose local depth is less than d. A bucket page number of 0 means the index
+ * is empty.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private int globalDepth;
+    private int[] buckets;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     * The format is the global depth followed by 2^depth bucket page numbers.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        globalDepth = dis.readInt();
+        buckets = new int[1 << globalDepth];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the largest global depth whose directory fits on one page */
+    public static int getMaxDepth() {
+        int slots = (BufferPool.getPageSize() - 4) / 4;
+        return 31 - Integer.numberOfLeadingZeros(slots);
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /** @return the page number of the bucket for the given hash, 0 if the index is empty */
+    public int getBucket(int hash) {
+        return buckets[hash & ((1 << globalDepth) - 1)];
+    }
+
+    /** @return the page number of the bucket in the given slot */
+    int getSlot(int slot) {
+        return buckets[slot];
+    }
+
+    void setSlot(int slot, int pgNo) {
+        buckets[slot] = pgNo;
+    }
+
+    /** @return the number of slots, 2^globalDepth */
+    int numSlots() {
+        return buckets.length;
+    }
+
+    /** Double the directory; each new slot points where its twin does. */
+    void grow() {
+        int[] grown = new int[buckets.length * 2];
+        System.arraycopy(buckets, 0, grown, 0, buckets.length);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        globalDepth++;
+    }
+
+    /** Replace the directory with the given global depth and slots. */
+    void reset(int globalDepth, int[] buckets) {
+        this.globalDepth = globalDepth;
+        this.buckets = buckets.clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(globalDepth);
+            for (int b : buckets)
+                dos.writeInt(b);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HashIndexFile is a secondary extendible hash index over one field of a
+ * {@link HeapFile}, meant for equality lookups such as primary key lookups.
+ * Once the directory page is cached, a lookup reads a single bucket page,
+ * regardless of the size of the table.
+ * <p>
+ * A full bucket is split in two, doubling the directory when its local depth
+ * reaches the global depth. The directory lives on one page, so once it can't
+ * grow any further, or when all the keys of a bucket hash alike, full buckets
+ * get chains of overflow pages instead. A chained bucket is split like any
+ * other once it holds keys that hash differently, and its chain is divided
+ * between the two halves, so only keys with equal hashes stay chained.
+ * Deleted entries are removed from their bucket; buckets are never merged.
+ * <p>
+ * Only EQUALS predicates use the hash; any other predicate scans every bucket.
+ *
+ * @see HashIndexFile#createIndex
+ */
+public class HashIndexFile implements IndexFile {
+
+    private final File f;
+    private final HeapFile table;
+    private final int keyField;
+    private final int id;
+
+    /**
+     * Constructs a hash index backed by the specified file. The index must be
+     * registered with {@link simpledb.common.Catalog#addIndex} before any of
+     * its pages are read.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param table the table the index is built on
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField) {
+        this(f, table, keyField, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a hash index with an id allocated by the system catalog,
+     * rather than one hashed from the file's name.
+     *
+     * @see simpledb.common.Catalog#allocateId
+     */
+    public HashIndexFile(File f, HeapFile table, int keyField, int id) {
+        this.f = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.id = id;
+    }
+
+    /**
+     * Build a hash index over a field of a table, overwriting f, and register
+     * it with the catalog. The directory is made just deep enough for every
+     * bucket to fit on a page, and the pages are written straight to disk.
+     *
+     * @param tid the transaction used to scan the table
+     * @return the new index
+     */
+    public static HashIndexFile createIndex(TransactionId tid, File f, HeapFile table, int keyField)
+            throws DbException, TransactionAbortedException, IOException {
+        HashIndexFile index = new HashIndexFile(f, table, keyField, Database.getCatalog().allocateId(f));
+        Database.getCatalog().addIndex(index);
+
+        List<IndexEntry> entries = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            entries.add(new IndexEntry(t.getField(keyField), t.getRecordId()));
+        }
+        it.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+        }
+        int tableId = index.getId();
+        HashDirectoryPage dir = new HashDirectoryPage(new HashPageId(tableId, 0),
+                HashPage.createEmptyPageData());
+        if (entries.isEmpty()) {
+            index.writePage(dir);
+            return index;
+        }
+
+        // the smallest depth at which no bucket overflows, if there is one;
+        // a hash shared by more entries than fit on a page needs a chain at
+        // any depth, so its entries don't count towards deepening
+        int cap = HashBucketPage.getMaxEntries(index.keyType());
+        Map<Integer, Integer> perHash = new HashMap<>();
+        for (IndexEntry e : entries)
+            perHash.merge(hash(e.key), 1, Integer::sum);
+        int depth = 0;
+        for (; depth < HashDirectoryPage.getMaxDepth(); depth++) {
+            int[] counts = new int[1 << depth];
+            boolean fits = true;
+            for (IndexEntry e : entries) {
+                int h = hash(e.key);
+                if (perHash.get(h) <= cap && ++counts[h & ((1 << depth) - 1)] > cap) {
+                    fits = false;
+                    break;
+                }
+            }
+            if (fits)
+                break;
+        }
+
+        int numBuckets = 1 << depth;
+        List<List<IndexEntry>> groups = new ArrayList<>(numBuckets);
+        for (int i = 0; i < numBuckets; i++)
+            groups.add(new ArrayList<>());
+        for (IndexEntry e : entries)
+            groups.get(hash(e.key) & (numBuckets - 1)).add(e);
+
+        int[] slots = new int[numBuckets];
+        int nextOverflow = numBuckets + 1;
+        for (int i = 0; i < numBuckets; i++) {
+            slots[i] = i + 1;
+            List<IndexEntry> group = groups.get(i);
+            int pgNo = i + 1;
+            for (int start = 0; start == 0 || start < group.size(); start += cap) {
+                HashBucketPage bucket = new HashBucketPage(new HashPageId(tableId, pgNo),
+                        HashPage.createEmptyPageData());
+                bucket.setLocalDepth(depth);
+                bucket.entries().addAll(group.subList(start, Math.min(group.size(), start + cap)));
+                if (start + cap < group.size()) {
+                    pgNo = nextOverflow++;
+                    bucket.setOverflowId(new HashPageId(tableId, pgNo));
+                }
+                index.writePage(bucket);
+            }
+        }
+        dir.reset(depth, slots);
+        index.writePage(dir);
+        return index;
+    }
+
+    /** Murmur3's finalizer over the key's hashCode, so the low bits are well mixed. */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /** @return the TupleDesc of the indexed table */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    public int getIndexedTableId() {
+        return table.getId();
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    private Type keyType() {
+        return table.getTupleDesc().getFieldType(keyField);
+    }
+
+    /** @return the number of pages in this index file, including the directory */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HashPageId) || pid.getTableId() != id)
+            throw new IllegalArgumentException("page " + pid + " is not in this index");
+        HashPageId hpid = (HashPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            if ((long) (hpid.getPageNumber() + 1) * data.length > raf.length())
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            raf.seek((long) hpid.getPageNumber() * data.length);
+            raf.readFully(data);
+            if (hpid.isDirectory())
+                return new HashDirectoryPage(hpid, data);
+            return new HashBucketPage(hpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("couldn't read page " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        }
+    }
+
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(id, pgNo), perm);
+    }
+
+    private HashDirectoryPage getDirectory(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException, IOException {
+        synchronized (this) {
+            if (numPages() == 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.write(HashPage.createEmptyPageData());
+                }
+            }
+        }
+        return (HashDirectoryPage) getPage(tid, 0, perm);
+    }
+
+    /**
+     * Mark a page dirty and record it in dirtied. Pages must be marked before
+     * the next page is fetched, so that the BufferPool can't evict them before
+     * the change is made.
+     */
+    private static void markDirty(TransactionId tid, Page p, List<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p))
+            dirtied.add(p);
+    }
+
+    /**
+     * Append an empty bucket to the file and fetch it through the BufferPool.
+     * The page is returned already marked dirty by tid.
+     */
+    private HashBucketPage allocateBucket(TransactionId tid, int localDepth, List<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = Math.max(1, numPages());
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.write(HashPage.createEmptyPageData());
+            }
+        }
+        HashBucketPage bucket = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        markDirty(tid, bucket, dirtied);
+        bucket.setLocalDepth(localDepth);
+        return bucket;
+    }
+
+    /**
+     * Add the entry for t to the index. t must be a tuple of the indexed table
+     * with its RecordId set.
+     *
+     * @return the index pages that were modified
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        int h = hash(e.key);
+        List<Page> dirtied = new ArrayList<>();
+        HashDirectoryPage dir = getDirectory(tid, Permissions.READ_WRITE);
+        if (dir.getBucket(h) == 0) {
+            markDirty(tid, dir, dirtied);
+            HashBucketPage bucket = allocateBucket(tid, 0, dirtied);
+            bucket.entries().add(e);
+            dir.setSlot(0, bucket.getId().getPageNumber());
+            return dirtied;
+        }
+
+        int cap = HashBucketPage.getMaxEntries(keyType());
+        while (true) {
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, dir.getBucket(h), Permissions.READ_WRITE);
+            if (bucket.getNumEntries() < cap) {
+                markDirty(tid, bucket, dirtied);
+                bucket.entries().add(e);
+                return dirtied;
+            }
+            boolean canSplit = (bucket.getLocalDepth() < dir.getGlobalDepth()
+                        || dir.getGlobalDepth() < HashDirectoryPage.getMaxDepth())
+                    && hashesDiffer(tid, bucket, h);
+            if (!canSplit) {
+                appendToChain(tid, bucket, e, cap, dirtied);
+                return dirtied;
+            }
+            markDirty(tid, dir, dirtied);
+            markDirty(tid, bucket, dirtied);
+            split(tid, dir, bucket, cap, dirtied);
+        }
+    }
+
+    /**
+     * @return whether an entry of the bucket or its chain hashes other than
+     *         h, so that a split could divide them
+     */
+    private boolean hashesDiffer(TransactionId tid, HashBucketPage bucket, int h)
+            throws DbException, TransactionAbortedException {
+        while (true) {
+            for (IndexEntry e : bucket.entries())
+                if (hash(e.key) != h)
+                    return true;
+            HashPageId next = bucket.getOverflowId();
+            if (next == null)
+                return false;
+            bucket = (HashBucketPage) getPage(tid, next.getPageNumber(), Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Split a full bucket on the next bit of the hash, growing the directory
+     * first if the bucket is already as deep as the directory. The entries of
+     * the bucket's chain are divided too, and its pages reused for both
+     * halves; pages neither half needs stay, empty, at the end of the
+     * bucket's chain.
+     */
+    private void split(TransactionId tid, HashDirectoryPage dir, HashBucketPage bucket, int cap,
+                       List<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        List<HashBucketPage> chain = new ArrayList<>();
+        chain.add(bucket);
+        for (HashPageId next = bucket.getOverflowId(); next != null; ) {
+            HashBucketPage overflow = (HashBucketPage) getPage(tid, next.getPageNumber(), Permissions.READ_WRITE);
+            markDirty(tid, overflow, dirtied);
+            chain.add(overflow);
+            next = overflow.getOverflowId();
+        }
+        if (bucket.getLocalDepth() == dir.getGlobalDepth())
+            dir.grow();
+        int bit = 1 << bucket.getLocalDepth();
+        int localDepth = bucket.getLocalDepth() + 1;
+        HashBucketPage sibling = allocateBucket(tid, localDepth, dirtied);
+
+        List<IndexEntry> stay = new ArrayList<>(), move = new ArrayList<>();
+        for (HashBucketPage page : chain) {
+            for (IndexEntry e : page.entries())
+                ((hash(e.key) & bit) != 0 ? move : stay).add(e);
+            page.entries().clear();
+            page.setLocalDepth(localDepth);
+        }
+        int stayPages = Math.max(1, (stay.size() + cap - 1) / cap);
+        int movePages = Math.max(1, (move.size() + cap - 1) / cap);
+        List<HashBucketPage> siblingChain = new ArrayList<>();
+        siblingChain.add(sibling);
+        while (siblingChain.size() < movePages)
+            siblingChain.add(chain.remove(stayPages));
+        fill(chain, stay, cap);
+        fill(siblingChain, move, cap);
+
+        int pgNo = bucket.getId().getPageNumber();
+        for (int slot = 0; slot < dir.numSlots(); slot++) {
+            if (dir.getSlot(slot) == pgNo && (slot & bit) != 0)
+                dir.setSlot(slot, sibling.getId().getPageNumber());
+        }
+    }
+
+    /** Lay entries out over the pages in order, cap to a page, and link the pages into a chain. */
+    private static void fill(List<HashBucketPage> pages, List<IndexEntry> entries, int cap) {
+        for (int i = 0; i < pages.size(); i++) {
+            HashBucketPage page = pages.get(i);
+            int start = Math.min(entries.size(), i * cap);
+            page.entries().addAll(entries.subList(start, Math.min(entries.size(), start + cap)));
+            page.setOverflowId(i + 1 < pages.size() ? pages.get(i + 1).getId() : null);
+        }
+    }
+
+    /** Add e to the first page of the bucket's overflow chain with room, extending the chain if needed. */
+    private void appendToChain(TransactionId tid, HashBucketPage bucket, IndexEntry e, int cap,
+                               List<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        while (bucket.getNumEntries() >= cap) {
+            HashPageId next = bucket.getOverflowId();
+            if (next == null) {
+                markDirty(tid, bucket, dirtied);
+                HashBucketPage overflow = allocateBucket(tid, bucket.getLocalDepth(), dirtied);
+                bucket.setOverflowId(overflow.getId());
+                bucket = overflow;
+                break;
+            }
+            bucket = (HashBucketPage) getPage(tid, next.getPageNumber(), Permissions.READ_WRITE);
+        }
+        markDirty(tid, bucket, dirtied);
+        bucket.entries().add(e);
+    }
+
+    /**
+     * Remove the entry for t from the index. t must be a tuple of the indexed
+     * table with its RecordId set.
+     *
+     * @return the index pages that were modified
+     * @throws DbException if t has no entry in the index
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        List<Page> dirtied = new ArrayList<>();
+        int pgNo = getDirectory(tid, Permissions.READ_ONLY).getBucket(hash(e.key));
+        while (pgNo != 0) {
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+            int pos = bucket.entries().indexOf(e);
+            if (pos >= 0) {
+                markDirty(tid, bucket, dirtied);
+                bucket.entries().remove(pos);
+                return dirtied;
+            }
+            HashPageId next = bucket.getOverflowId();
+            pgNo = next == null ? 0 : next.getPageNumber();
+        }
+        throw new DbException("tuple " + t.getRecordId() + " is not in the index");
+    }
+
+    private IndexEntry entryFor(Tuple t) throws DbException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != table.getId())
+            throw new DbException("tuple is not stored in the indexed table");
+        return new IndexEntry(t.getField(keyField), t.getRecordId());
+    }
+
+    /** @return an iterator over the tuples of the indexed table, in no particular order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(tid, null);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashIndexIterator(tid, ipred);
+    }
+
+    /** A hash index can only answer equality without reading every bucket. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * For EQUALS, walks the one bucket chain the key hashes to. Otherwise
+     * reads every bucket page of the file and filters its entries.
+     */
+    private class HashIndexIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private final boolean lookup;
+        private HashBucketPage bucket;
+        private int pos;
+        /** The next page to read in a full scan, and the end of the scan. */
+        private int nextPgNo;
+        private int endPgNo;
+
+        HashIndexIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+            this.lookup = ipred != null && ipred.getOp() == Predicate.Op.EQUALS;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            bucket = null;
+            pos = 0;
+            HashDirectoryPage dir;
+            try {
+                dir = getDirectory(tid, Permissions.READ_ONLY);
+            } catch (IOException e) {
+                throw new DbException("couldn't read index directory: " + e.getMessage());
+            }
+            if (lookup) {
+                int pgNo = dir.getBucket(hash(ipred.getField()));
+                nextPgNo = 0;
+                if (pgNo != 0)
+                    bucket = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_ONLY);
+            } else {
+                nextPgNo = 1;
+                endPgNo = numPages();
+                advance();
+            }
+        }
+
+        /** Move to the next page of the chain, or of the file in a full scan. */
+        private void advance() throws DbException, TransactionAbortedException {
+            pos = 0;
+            if (lookup) {
+                HashPageId next = bucket.getOverflowId();
+                bucket = next == null ? null
+                        : (HashBucketPage) getPage(tid, next.getPageNumber(), Permissions.READ_ONLY);
+            } else {
+                bucket = nextPgNo < endPgNo
+                        ? (HashBucketPage) getPage(tid, nextPgNo++, Permissions.READ_ONLY) : null;
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (bucket != null) {
+                if (pos >= bucket.getNumEntries()) {
+                    advance();
+                    continue;
+                }
+                IndexEntry e = bucket.entries().get(pos++);
+                if (ipred != null && !e.key.compare(ipred.getOp(), ipred.getField()))
+                    continue;
+                Tuple t = table.getTuple(tid, e.getRecordId(table.getId()));
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            bucket = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+/**
+ * Unique identifier for the pages of a {@link HashIndexFile}. Page 0 of an
+ * index is always its directory; every other page is a bucket.
+ */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index.
+     *
+     * @param tableId The id of the index file that is being referenced
+     * @param pgNo The page number in that file
+     */
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the index file associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file getTableId() associated with this PageId */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /** @return true if this is the id of the directory page */
+    public boolean isDirectory() {
+        return pgNo == 0;
+    }
+
+    /**
+     * @return a hash code for this page, built from the table number and the
+     *   page number
+     */
+    public int hashCode() {
+        return tableId * 64 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId p = (HashPageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+}
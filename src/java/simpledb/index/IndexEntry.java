@@ -0,0 +1,99 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * One entry of an index: the value of the indexed field together with the
+ * location of the tuple holding it. Entries are ordered by key, then by record
+ * id, so duplicate keys still have a total order and every entry can be found
+ * again by descending a {@link BTreeFile}.
+ */
+final class IndexEntry implements Comparable<IndexEntry> {
+
+    final Field key;
+    final int ridPage;
+    final int ridSlot;
+
+    IndexEntry(Field key, int ridPage, int ridSlot) {
+        this.key = key;
+        this.ridPage = ridPage;
+        this.ridSlot = ridSlot;
+    }
+
+    IndexEntry(Field key, RecordId rid) {
+        this(key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+    }
+
+    /** @return the RecordId of the tuple this entry points to in the given table */
+    RecordId getRecordId(int tableId) {
+        return new RecordId(new HeapPageId(tableId, ridPage), ridSlot);
+    }
+
+    /** Write the key, then the page number and slot of the tuple. */
+    void write(DataOutputStream dos) throws IOException {
+        key.serialize(dos);
+        dos.writeInt(ridPage);
+        dos.writeInt(ridSlot);
+    }
+
+    static IndexEntry read(DataInputStream dis, Type keyType) throws IOException {
+        try {
+            return new IndexEntry(keyType.parse(dis), dis.readInt(), dis.readInt());
+        } catch (ParseException e) {
+            throw new IOException("couldn't parse key", e);
+        }
+    }
+
+    /** @return the number of bytes an entry with the given key type takes on a page */
+    static int getSize(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    /** @return the type of the key field of the index the page belongs to */
+    static Type keyType(PageId pid) {
+        IndexFile f = (IndexFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        return f.getTupleDesc().getFieldType(f.getKeyField());
+    }
+
+    /** Three-way comparison of two keys of the same type. */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.equals(b) ? 0 : 1;
+    }
+
+    @Override
+    public int compareTo(IndexEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        if (ridPage != o.ridPage)
+            return ridPage < o.ridPage ? -1 : 1;
+        return Integer.compare(ridSlot, o.ridSlot);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IndexEntry && compareTo((IndexEntry) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode() * 31 + ridPage * 17 + ridSlot;
+    }
+
+    public String toString() {
+        return key + "@(" + ridPage + ", " + ridSlot + ")";
+    }
+}
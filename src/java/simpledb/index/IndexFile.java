@@ -0,0 +1,48 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * The interface for secondary indexes on a table. An IndexFile maps the value
+ * of one field of a table to the RecordIds of the tuples holding that value.
+ * <p>
+ * An IndexFile is a DbFile in its own right: it has its own id, its pages are
+ * read and cached through the BufferPool, and it is registered with
+ * {@link simpledb.common.Catalog#addIndex}. Its TupleDesc is the TupleDesc of
+ * the indexed table, and its iterators return tuples of that table.
+ * <p>
+ * {@link #insertTuple} and {@link #deleteTuple} take tuples of the indexed
+ * table that already carry their RecordId; the BufferPool calls them for
+ * every index of a table after it has inserted or before it deletes a tuple.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the table this index is built on */
+    int getIndexedTableId();
+
+    /** @return the index of the key field in the indexed table's TupleDesc */
+    int getKeyField();
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key field
+     * satisfies the predicate.
+     *
+     * @param tid the transaction the iterator runs as part of
+     * @param ipred the predicate on the key field; null matches every tuple
+     * @throws DbException if the index can't evaluate the predicate
+     */
+    DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred)
+            throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns true if this index can answer the given predicate operator
+     * without visiting every index page.
+     */
+    boolean supports(Predicate.Op op);
+}
@@ -0,0 +1,174 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram over a single integer column, built from a sample
+ * of its values.  Each bucket covers a range of values and holds about the
+ * same number of tuples, so frequent values get narrow buckets (possibly
+ * several of them) and sparse ranges get wide ones.
+ * <p>
+ * A bucket knows its range [lo, hi], the number of tuples it stands for and
+ * an estimate of the number of distinct values in it.  Within a bucket,
+ * values are assumed to be spread evenly over the range for range
+ * predicates, and over the distinct values for equality.
+ */
+public class IntHistogram {
+
+    private final int[] lo;
+    private final int[] hi;
+    private final double[] tuples;
+    private final double[] distinct;
+    private final long total;
+
+    /**
+     * Build a histogram.
+     * @param buckets the most buckets to use
+     * @param sample values drawn uniformly from the column; sorted in place
+     * @param total the number of tuples in the column
+     * @param min the least value in the column
+     * @param max the greatest value in the column
+     */
+    public IntHistogram(int buckets, int[] sample, long total, int min, int max) {
+        int n = sample.length;
+        int b = Math.min(buckets, n);
+        Arrays.sort(sample);
+        this.lo = new int[b];
+        this.hi = new int[b];
+        this.tuples = new double[b];
+        this.distinct = new double[b];
+        this.total = total;
+        double scale = n == 0 ? 0 : (double) total / n;
+        for (int i = 0; i < b; i++) {
+            int start = (int) ((long) i * n / b);
+            int end = (int) ((long) (i + 1) * n / b);
+            lo[i] = i == 0 ? min : sample[start];
+            hi[i] = i == b - 1 ? max : sample[end - 1];
+            tuples[i] = (end - start) * scale;
+            distinct[i] = estimateDistinct(sample, start, end, scale, (long) hi[i] - lo[i] + 1);
+        }
+    }
+
+    private IntHistogram(int[] lo, int[] hi, double[] tuples, double[] distinct, long total) {
+        this.lo = lo;
+        this.hi = hi;
+        this.tuples = tuples;
+        this.distinct = distinct;
+        this.total = total;
+    }
+
+    /**
+     * Estimate the distinct values among the tuples sample[start..end)
+     * stands for.  Values seen more than once in the sample are assumed to
+     * be all there are of them; values seen once are scaled up by the
+     * square root of the sampling ratio (the GEE estimator).
+     */
+    static double estimateDistinct(int[] sorted, int start, int end, double scale, long range) {
+        int once = 0, more = 0;
+        for (int i = start; i < end; ) {
+            int j = i;
+            while (j < end && sorted[j] == sorted[i])
+                j++;
+            if (j - i == 1)
+                once++;
+            else
+                more++;
+            i = j;
+        }
+        double d = Math.sqrt(Math.max(scale, 1)) * once + more;
+        return Math.max(1, Math.min(d, Math.min(range, (end - start) * Math.max(scale, 1))));
+    }
+
+    /**
+     * @return the fraction of the column's tuples for which "value op v"
+     *         holds; LIKE is taken as EQUALS
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total == 0)
+            return 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1 - equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, less(v) + equal(v));
+        case GREATER_THAN:
+            return Math.max(0, 1 - less(v) - equal(v));
+        case GREATER_THAN_OR_EQ:
+            return 1 - less(v);
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    private double equal(int v) {
+        double n = 0;
+        for (int i = 0; i < lo.length; i++)
+            if (lo[i] <= v && v <= hi[i])
+                n += tuples[i] / distinct[i];
+        return Math.min(1, n / total);
+    }
+
+    private double less(int v) {
+        double n = 0;
+        for (int i = 0; i < lo.length; i++) {
+            double f = ((double) v - lo[i]) / ((double) hi[i] - lo[i] + 1);
+            n += tuples[i] * Math.max(0, Math.min(1, f));
+        }
+        return Math.min(1, n / total);
+    }
+
+    /** @return the estimated number of distinct values in the column */
+    public double estimateDistinct() {
+        double d = 0;
+        for (int i = 0; i < lo.length; i++)
+            d += distinct[i];
+        // a value may span several buckets, but is one value
+        for (int i = 1; i < lo.length; i++)
+            if (lo[i] == hi[i - 1])
+                d -= 1;
+        return Math.max(total == 0 ? 0 : 1, d);
+    }
+
+    public void write(DataOutputStream dos) throws IOException {
+        dos.writeLong(total);
+        dos.writeInt(lo.length);
+        for (int i = 0; i < lo.length; i++) {
+            dos.writeInt(lo[i]);
+            dos.writeInt(hi[i]);
+            dos.writeDouble(tuples[i]);
+            dos.writeDouble(distinct[i]);
+        }
+    }
+
+    public static IntHistogram read(DataInputStream dis) throws IOException {
+        long total = dis.readLong();
+        int b = dis.readInt();
+        int[] lo = new int[b], hi = new int[b];
+        double[] tuples = new double[b], distinct = new double[b];
+        for (int i = 0; i < b; i++) {
+            lo[i] = dis.readInt();
+            hi[i] = dis.readInt();
+            tuples[i] = dis.readDouble();
+            distinct[i] = dis.readDouble();
+        }
+        return new IntHistogram(lo, hi, tuples, distinct, total);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lo.length; i++)
+            sb.append(String.format("[%d, %d]: %.0f tuples, %.0f distinct%n",
+                    lo[i], hi[i], tuples[i], distinct[i]));
+        return sb.toString();
+    }
+}
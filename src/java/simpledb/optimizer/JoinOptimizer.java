@@ -0,0 +1,466 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JoinOptimizer picks the order in which to join a set of tables, and
+ * builds the plan as a tree of SeqScans, Filters and BlockNestedLoopJoins.
+ * <p>
+ * Plans are linear: each join adds one table to the tables joined so far,
+ * as either the outer or the inner child.  For up to {@link #DP_TABLE_LIMIT}
+ * tables the best plan is found Selinger-style, by dynamic programming over
+ * subsets of the tables; the best plan for a subset extends the best plan
+ * for the subset without one of its tables.  Beyond that, plans are grown
+ * greedily from the smallest table, adding the table that makes the
+ * cheapest join.  Only tables connected by a join predicate to the tables
+ * before them are added, so there are no cross products; the join graph
+ * must be connected.
+ * <p>
+ * Costs come from the tables' {@link TableStats}: a scan costs its pages'
+ * I/O, and a block nested loop join reads its outer child once and its
+ * inner child once per block of outer tuples, and compares every pair.
+ * Join cardinalities assume the values of an equi-join's columns match up,
+ * as for a key and a foreign key.
+ */
+public class JoinOptimizer {
+
+    /** The most tables planned by dynamic programming. */
+    public static final int DP_TABLE_LIMIT = 12;
+    /** Cost of comparing a pair of tuples, against TableStats.IOCOSTPERPAGE per page. */
+    static final double CPU_COST_PER_PAIR = 1.0;
+    /** Selectivity assumed for a join predicate other than = and <>. */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /** tables[t1].f1 op tables[t2].f2 */
+    private static class Edge {
+        final int t1, f1, t2, f2;
+        final Predicate.Op op;
+
+        Edge(int t1, int f1, Predicate.Op op, int t2, int f2) {
+            this.t1 = t1;
+            this.f1 = f1;
+            this.op = op;
+            this.t2 = t2;
+            this.f2 = f2;
+        }
+    }
+
+    /** A linear plan: prev joined with the table t, or a scan of t. */
+    private static class Plan {
+        /** The tables joined; never modified once the plan is built. */
+        final BitSet tables;
+        final Plan prev;
+        final int t;
+        final boolean tableIsOuter;
+        final double cost;
+        final double card;
+        /** Size of the plan's output tuples. */
+        final int bytes;
+
+        Plan(BitSet tables, Plan prev, int t, boolean tableIsOuter, double cost, double card, int bytes) {
+            this.tables = tables;
+            this.prev = prev;
+            this.t = t;
+            this.tableIsOuter = tableIsOuter;
+            this.cost = cost;
+            this.card = card;
+            this.bytes = bytes;
+        }
+
+        boolean contains(int t) {
+            return tables.get(t);
+        }
+
+        /** @return the tables in the order their fields appear in the output */
+        List<Integer> order() {
+            List<Integer> order = new ArrayList<>();
+            if (prev == null) {
+                order.add(t);
+            } else if (tableIsOuter) {
+                order.add(t);
+                order.addAll(prev.order());
+            } else {
+                order.addAll(prev.order());
+                order.add(t);
+            }
+            return order;
+        }
+    }
+
+    private final TransactionId tid;
+    private final List<String> aliases = new ArrayList<>();
+    private final List<Integer> tableIds = new ArrayList<>();
+    private final List<List<Predicate>> filters = new ArrayList<>();
+    /** Every filter, in the order they were added; see template. */
+    private final List<Predicate> filterOrder = new ArrayList<>();
+    private final List<Edge> edges = new ArrayList<>();
+    private final Map<String, Integer> byAlias = new HashMap<>();
+    private int dpLimit = DP_TABLE_LIMIT;
+
+    /** Scans of the tables and the best plan, once computed. */
+    private Plan[] scans;
+    private Plan best;
+
+    /**
+     * @param tid the transaction the plan will run in
+     */
+    public JoinOptimizer(TransactionId tid) {
+        this.tid = tid;
+    }
+
+    /**
+     * Add a table to the query.
+     * @param alias the name the query gives the table; must be unique
+     * @param tableid the table
+     */
+    public void addTable(String alias, int tableid) {
+        if (byAlias.containsKey(alias))
+            throw new IllegalArgumentException("duplicate alias " + alias);
+        byAlias.put(alias, aliases.size());
+        aliases.add(alias);
+        tableIds.add(tableid);
+        filters.add(new ArrayList<>());
+        invalidate();
+    }
+
+    /**
+     * Add a selection on a table.
+     * @param p compares a field of the table, by its index in the table's
+     *          schema, with a constant
+     */
+    public void addFilter(String alias, Predicate p) {
+        filters.get(table(alias)).add(p);
+        filterOrder.add(p);
+        invalidate();
+    }
+
+    /**
+     * Add the join predicate "alias1.field1 op alias2.field2", fields given
+     * by their index in their table's schema.
+     */
+    public void addJoin(String alias1, int field1, Predicate.Op op, String alias2, int field2) {
+        edges.add(new Edge(table(alias1), field1, op, table(alias2), field2));
+        invalidate();
+    }
+
+    /**
+     * Set the most tables planned by dynamic programming rather than
+     * greedily; for tests and experiments. Dynamic programming numbers the
+     * sets of tables with an int, so the limit is at most 30.
+     */
+    public void setDpLimit(int limit) {
+        if (limit > 30)
+            throw new IllegalArgumentException("dynamic programming limit " + limit + " is over 30");
+        this.dpLimit = limit;
+        invalidate();
+    }
+
+    private void invalidate() {
+        scans = null;
+        best = null;
+    }
+
+    private int table(String alias) {
+        Integer t = byAlias.get(alias);
+        if (t == null)
+            throw new IllegalArgumentException("unknown alias " + alias);
+        return t;
+    }
+
+    private static TableStats stats(int tableid) {
+        TableStats stats = Database.getCatalog().getTableStats(tableid);
+        if (stats == null) {
+            stats = new TableStats(tableid, TableStats.IOCOSTPERPAGE);
+            Database.getCatalog().setTableStats(tableid, stats);
+        }
+        return stats;
+    }
+
+    private Plan[] scans() {
+        if (scans != null)
+            return scans;
+        scans = new Plan[aliases.size()];
+        for (int t = 0; t < scans.length; t++) {
+            int tableid = tableIds.get(t);
+            TableStats stats = stats(tableid);
+            double sel = 1;
+            for (Predicate p : filters.get(t))
+                sel *= stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            int bytes = Database.getCatalog().getTupleDesc(tableid).getSize();
+            BitSet tables = new BitSet(scans.length);
+            tables.set(t);
+            scans[t] = new Plan(tables, null, t, false, stats.estimateScanCost(),
+                    Math.max(1, stats.totalTuples() * sel), bytes);
+        }
+        return scans;
+    }
+
+    /** @return the estimated fraction of pairs of tuples that e keeps */
+    private double selectivity(Edge e) {
+        switch (e.op) {
+        case EQUALS:
+        case NOT_EQUALS:
+            double d1 = Math.min(stats(tableIds.get(e.t1)).estimateDistinct(e.f1), scans()[e.t1].card);
+            double d2 = Math.min(stats(tableIds.get(e.t2)).estimateDistinct(e.f2), scans()[e.t2].card);
+            double eq = 1 / Math.max(1, Math.max(d1, d2));
+            return e.op == Predicate.Op.EQUALS ? eq : 1 - eq;
+        default:
+            return RANGE_JOIN_SELECTIVITY;
+        }
+    }
+
+    /** @return the number of blocks the BlockNestedLoopJoin splits card tuples of bytes into */
+    private static double blocks(double card, int bytes) {
+        int perPage = Math.max(1, BufferPool.getPageSize() * 8 / (bytes * 8 + 1));
+        double perBlock = (double) BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES * perPage;
+        return Math.max(1, Math.ceil(card / perBlock));
+    }
+
+    /**
+     * @return the cheaper plan joining prev with table t, or null if no join
+     *         predicate connects them
+     */
+    private Plan join(Plan prev, int t) {
+        Plan scan = scans()[t];
+        double sel = 1;
+        boolean connected = false;
+        for (Edge e : edges) {
+            if ((e.t1 == t && prev.contains(e.t2)) || (e.t2 == t && prev.contains(e.t1))) {
+                sel *= selectivity(e);
+                connected = true;
+            }
+        }
+        if (!connected)
+            return null;
+        double cpu = prev.card * scan.card * CPU_COST_PER_PAIR;
+        double planOuter = prev.cost + blocks(prev.card, prev.bytes) * scan.cost + cpu;
+        double tableOuter = scan.cost + blocks(scan.card, scan.bytes) * prev.cost + cpu;
+        BitSet tables = (BitSet) prev.tables.clone();
+        tables.set(t);
+        return new Plan(tables, prev, t, tableOuter < planOuter,
+                Math.min(planOuter, tableOuter), Math.max(1, prev.card * scan.card * sel),
+                prev.bytes + scan.bytes);
+    }
+
+    private Plan optimize() throws DbException {
+        if (best != null)
+            return best;
+        int n = aliases.size();
+        if (n == 0)
+            throw new DbException("no tables to join");
+        Plan[] scans = scans();
+        Plan plan = n <= dpLimit ? dynamicProgramming(scans) : greedy(scans);
+        if (plan == null)
+            throw new DbException("the tables are not all connected by join predicates");
+        return best = plan;
+    }
+
+    private Plan dynamicProgramming(Plan[] scans) {
+        int n = scans.length;
+        Plan[] bestOf = new Plan[1 << n];
+        for (int t = 0; t < n; t++)
+            bestOf[1 << t] = scans[t];
+        // every proper subset of a set is a smaller number, so is done first
+        for (int mask = 1; mask < bestOf.length; mask++) {
+            if (Integer.bitCount(mask) < 2)
+                continue;
+            for (int t = 0; t < n; t++) {
+                if ((mask & (1 << t)) == 0 || bestOf[mask ^ (1 << t)] == null)
+                    continue;
+                Plan p = join(bestOf[mask ^ (1 << t)], t);
+                if (p != null && (bestOf[mask] == null || p.cost < bestOf[mask].cost))
+                    bestOf[mask] = p;
+            }
+        }
+        return bestOf[bestOf.length - 1];
+    }
+
+    private Plan greedy(Plan[] scans) {
+        Plan plan = scans[0];
+        for (Plan scan : scans)
+            if (scan.card < plan.card)
+                plan = scan;
+        for (int joined = 1; joined < scans.length; joined++) {
+            Plan next = null;
+            for (int t = 0; t < scans.length; t++) {
+                if (plan.contains(t))
+                    continue;
+                Plan p = join(plan, t);
+                if (p != null && (next == null || p.cost < next.cost))
+                    next = p;
+            }
+            if (next == null)
+                return null;
+            plan = next;
+        }
+        return plan;
+    }
+
+    /**
+     * @return the estimated cost of the cheapest plan found
+     * @throws DbException if the tables are not all connected by join
+     *         predicates
+     */
+    public double estimatedCost() throws DbException {
+        return optimize().cost;
+    }
+
+    /** @return the estimated number of tuples the query returns */
+    public double estimatedCardinality() throws DbException {
+        return optimize().card;
+    }
+
+    /**
+     * @return the estimated cost of joining the tables in the given order,
+     *         each table the inner child of a join with those before it, or
+     *         infinity if a table has no join predicate with those before it
+     */
+    public double costOfOrder(List<String> order) {
+        Plan plan = scans()[table(order.get(0))];
+        for (int i = 1; i < order.size(); i++) {
+            Plan p = join(plan, table(order.get(i)));
+            if (p == null)
+                return Double.POSITIVE_INFINITY;
+            double cpu = plan.card * scans()[p.t].card * CPU_COST_PER_PAIR;
+            double cost = plan.cost + blocks(plan.card, plan.bytes) * scans()[p.t].cost + cpu;
+            plan = new Plan(p.tables, plan, p.t, false, cost, p.card, p.bytes);
+        }
+        return plan.cost;
+    }
+
+    /**
+     * @return the order the chosen plan joins the tables in, with the
+     *         aliases of the outer and inner sides of each join
+     */
+    public String explain() throws DbException {
+        return explain(optimize());
+    }
+
+    private String explain(Plan p) {
+        if (p.prev == null)
+            return aliases.get(p.t);
+        String prev = explain(p.prev);
+        return p.tableIsOuter ? "(" + aliases.get(p.t) + " x " + prev + ")"
+                : "(" + prev + " x " + aliases.get(p.t) + ")";
+    }
+
+    /**
+     * @return the chosen plan; its output has the fields of every table, in
+     *         the order the plan joins them
+     * @throws DbException if the tables are not all connected by join
+     *         predicates
+     */
+    public OpIterator plan() throws DbException {
+        return template().getPlan();
+    }
+
+    /**
+     * Build the chosen plan as a template that can be run again in other
+     * transactions with other constants; a new one each call, planned only
+     * the first time.
+     * @return the plan, whose parameters are the constants of the filters,
+     *         in the order they were added
+     * @throws DbException if the tables are not all connected by join
+     *         predicates
+     */
+    public PlanTemplate template() throws DbException {
+        List<SeqScan> scans = new ArrayList<>();
+        Map<Predicate, Filter> built = new IdentityHashMap<>();
+        OpIterator root = build(optimize(), scans, built);
+        List<Filter> parameters = new ArrayList<>();
+        for (Predicate p : filterOrder)
+            parameters.add(built.get(p));
+        return new PlanTemplate(root, scans, parameters);
+    }
+
+    private OpIterator scan(int t, List<SeqScan> scans, Map<Predicate, Filter> built) {
+        SeqScan scan = new SeqScan(tid, tableIds.get(t), aliases.get(t));
+        scans.add(scan);
+        OpIterator it = scan;
+        for (Predicate p : filters.get(t)) {
+            Filter f = new Filter(p, it);
+            built.put(p, f);
+            it = f;
+        }
+        return it;
+    }
+
+    /** @return the index of a field of table t in the output of tables in order */
+    private int offset(List<Integer> order, int t, int field) {
+        int offset = 0;
+        for (int u : order) {
+            if (u == t)
+                return offset + field;
+            offset += Database.getCatalog().getTupleDesc(tableIds.get(u)).numFields();
+        }
+        throw new IllegalStateException("table " + aliases.get(t) + " is not in the plan");
+    }
+
+    private OpIterator build(Plan p, List<SeqScan> scans, Map<Predicate, Filter> built) {
+        if (p.prev == null)
+            return scan(p.t, scans, built);
+        OpIterator prev = build(p.prev, scans, built);
+        OpIterator table = scan(p.t, scans, built);
+        List<Integer> prevOrder = p.prev.order();
+        List<Integer> tableOrder = new ArrayList<>();
+        tableOrder.add(p.t);
+        List<Integer> outerOrder = p.tableIsOuter ? tableOrder : prevOrder;
+        List<Integer> innerOrder = p.tableIsOuter ? prevOrder : tableOrder;
+        List<Integer> order = p.order();
+
+        JoinPredicate jp = null;
+        List<JoinPredicate> rest = new ArrayList<>();
+        for (Edge e : edges) {
+            boolean forward = e.t2 == p.t && p.prev.contains(e.t1);
+            boolean backward = e.t1 == p.t && p.prev.contains(e.t2);
+            if (!forward && !backward)
+                continue;
+            if (jp == null) {
+                // e as "outer field op inner field"
+                boolean t1Outer = outerOrder.contains(e.t1);
+                jp = t1Outer
+                        ? new JoinPredicate(offset(outerOrder, e.t1, e.f1), e.op, offset(innerOrder, e.t2, e.f2))
+                        : new JoinPredicate(offset(outerOrder, e.t2, e.f2), flip(e.op), offset(innerOrder, e.t1, e.f1));
+            } else {
+                rest.add(new JoinPredicate(offset(order, e.t1, e.f1), e.op, offset(order, e.t2, e.f2)));
+            }
+        }
+        OpIterator it = p.tableIsOuter ? new BlockNestedLoopJoin(jp, table, prev)
+                : new BlockNestedLoopJoin(jp, prev, table);
+        for (JoinPredicate extra : rest)
+            it = new Filter(extra, it);
+        return it;
+    }
+
+    /** @return the operator op' such that "a op b" is "b op' a" */
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+}
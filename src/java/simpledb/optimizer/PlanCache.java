@@ -0,0 +1,152 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PlanCache keeps the plans of recently run queries, so that a query run
+ * again, perhaps with other constants, is not planned again.
+ * <p>
+ * A query is keyed by its normalized form, with its constants left out as
+ * parameters, so that queries differing only in their constants share a
+ * plan.  A key maps to the JoinOptimizer that planned it, and to the
+ * PlanTemplates made from that plan and not in use.  acquire hands out an
+ * idle template, or makes another when they are all in use; release hands
+ * it back.  Entries are dropped in least recently used order beyond the
+ * capacity, and once the Catalog's version moves past the one they were
+ * planned at, i.e. when a table or its statistics change.
+ *
+ * @Threadsafe
+ */
+public class PlanCache {
+
+    /** Default number of queries whose plans are kept. */
+    public static final int DEFAULT_CAPACITY = 256;
+    /** Most idle templates kept per query. */
+    static final int MAX_IDLE = 8;
+
+    private static final LongAdder HITS = Metrics.counter("plancache.hits");
+    private static final LongAdder MISSES = Metrics.counter("plancache.misses");
+    private static final LongAdder INVALIDATIONS = Metrics.counter("plancache.invalidations");
+
+    /** Plans a query the cache has no plan for. */
+    public interface Planner {
+        /** @return an optimizer with the query's tables, filters and joins added */
+        JoinOptimizer optimizer() throws DbException;
+    }
+
+    private static class Entry {
+        final Object key;
+        final long version;
+        final JoinOptimizer optimizer;
+        final Deque<PlanTemplate> idle = new ArrayDeque<>(); // protected by the cache
+
+        Entry(Object key, long version, JoinOptimizer optimizer) {
+            this.key = key;
+            this.version = version;
+            this.optimizer = optimizer;
+        }
+    }
+
+    private final Map<Object, Entry> entries; // protected by this
+
+    public PlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of queries whose plans are kept
+     */
+    public PlanCache(int capacity) {
+        this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Take a plan for a query, planning it if it is not cached.  Bind the
+     * template before running it, and hand it back with release once the
+     * plan is closed.
+     * @param key the query's normalized form; queries with equal keys must
+     *        have the same tables, joins and filters but for their constants
+     * @param planner plans the query on a miss
+     */
+    public PlanTemplate acquire(Object key, Planner planner) throws DbException {
+        long version = Database.getCatalog().getVersion();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.version != version) {
+                entries.remove(key);
+                INVALIDATIONS.increment();
+                entry = null;
+            }
+            if (entry != null) {
+                HITS.increment();
+                PlanTemplate t = entry.idle.pollFirst();
+                if (t != null)
+                    return t;
+            }
+        }
+        if (entry == null) {
+            MISSES.increment();
+            // planned outside the lock; two threads missing at once both plan
+            entry = new Entry(key, version, planner.optimizer());
+        }
+        PlanTemplate t;
+        synchronized (entry) {
+            t = entry.optimizer.template();
+        }
+        t.owner = entry;
+        synchronized (this) {
+            if (!entries.containsKey(key))
+                entries.put(key, entry);
+        }
+        return t;
+    }
+
+    /**
+     * Hand back a template acquire returned, once its plan is closed, for
+     * another run of the same query.
+     */
+    public synchronized void release(PlanTemplate t) {
+        Entry entry = (Entry) t.owner;
+        // a template of a plan since dropped is thrown away
+        if (entry != null && entries.get(entry.key) == entry && entry.idle.size() < MAX_IDLE)
+            entry.idle.addFirst(t);
+    }
+
+    /** Drop the plans made before the catalog last changed. */
+    public synchronized void invalidate() {
+        long version = Database.getCatalog().getVersion();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().version != version) {
+                it.remove();
+                INVALIDATIONS.increment();
+            }
+        }
+    }
+
+    /** Drop every plan. */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** @return the number of queries whose plans are kept */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
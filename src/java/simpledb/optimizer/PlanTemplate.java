@@ -0,0 +1,71 @@
+package simpledb.optimizer;
+
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.Field;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+
+/**
+ * A plan made by JoinOptimizer that can be run again, in other
+ * transactions and with other constants, without planning again.  Its
+ * parameters are the constants of the query's filters, in the order the
+ * filters were added.  One template is one tree of operators, so it can
+ * run one query at a time; PlanCache keeps several per query.
+ */
+public class PlanTemplate {
+
+    private final OpIterator root;
+    private final List<SeqScan> scans;
+    private final List<Filter> parameters;
+
+    /** The PlanCache entry the template was made for, if any. */
+    Object owner;
+
+    PlanTemplate(OpIterator root, List<SeqScan> scans, List<Filter> parameters) {
+        this.root = root;
+        this.scans = scans;
+        this.parameters = parameters;
+    }
+
+    /** @return the number of parameters bind expects */
+    public int numParameters() {
+        return parameters.size();
+    }
+
+    /** @return the plan, with whatever it was last bound to */
+    public OpIterator getPlan() {
+        return root;
+    }
+
+    /**
+     * Make the plan run as part of a transaction, with new constants for
+     * its filters.  Only while the plan is closed.
+     * @param params the constants, in the order the filters were added;
+     *        each of the type of the constant it replaces
+     * @return the plan, ready to open
+     * @throws DbException if there are not numParameters() constants, or
+     *         one is of the wrong type
+     */
+    public OpIterator bind(TransactionId tid, Field... params) throws DbException {
+        if (params.length != parameters.size())
+            throw new DbException("plan takes " + parameters.size() + " parameters, not " + params.length);
+        for (int i = 0; i < params.length; i++) {
+            Predicate old = parameters.get(i).getPredicate();
+            if (params[i].getType() != old.getOperand().getType())
+                throw new DbException("parameter " + (i + 1) + " must be " + old.getOperand().getType());
+        }
+        for (SeqScan scan : scans)
+            scan.reset(tid);
+        for (int i = 0; i < params.length; i++) {
+            Filter f = parameters.get(i);
+            Predicate old = f.getPredicate();
+            f.setPredicate(new Predicate(old.getField(), old.getOp(), params[i]));
+        }
+        return root;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A histogram over a single string column.  Strings are mapped to ints that
+ * keep their order, by their first four characters, and kept in an
+ * IntHistogram.
+ */
+public class StringHistogram {
+
+    /** Selectivity assumed for LIKE, which a histogram cannot estimate. */
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    private final IntHistogram hist;
+
+    StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Map s to an int, such that s1 < s2 implies
+     * stringToInt(s1) <= stringToInt(s2).  Seven bits of each of the first
+     * four characters are used, which keeps ASCII in order.
+     */
+    public static int stringToInt(String s) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = i < s.length() ? Math.min(s.charAt(i), 127) : 0;
+            v = (v << 7) | c;
+        }
+        return v;
+    }
+
+    /**
+     * @return the fraction of the column's tuples for which "value op s"
+     *         holds
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+        if (op == Predicate.Op.LIKE)
+            return LIKE_SELECTIVITY;
+        return hist.estimateSelectivity(op, stringToInt(s));
+    }
+
+    /** @return the estimated number of distinct values in the column */
+    public double estimateDistinct() {
+        return hist.estimateDistinct();
+    }
+
+    public void write(DataOutputStream dos) throws IOException {
+        hist.write(dos);
+    }
+
+    public static StringHistogram read(DataInputStream dis) throws IOException {
+        return new StringHistogram(IntHistogram.read(dis));
+    }
+
+    public String toString() {
+        return hist.toString();
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * TableStats holds the statistics of one table: the number of its pages and
+ * tuples and a histogram of every column.  The optimizer uses them to
+ * estimate the cost of scanning the table and the selectivity of
+ * predicates without running the query.
+ * <p>
+ * Statistics are collected in one pass over the table, which keeps exact
+ * counts, minimums and maximums and a uniform sample (reservoir sampling)
+ * of up to SAMPLE_SIZE values per column; the histograms are built from
+ * the samples.  The pass runs as a snapshot transaction, so it does not
+ * hold up writers.  The Catalog keeps each table's statistics and saves
+ * them with the schema.
+ */
+public class TableStats {
+
+    /** Default cost of reading a page, in arbitrary units. */
+    public static final int IOCOSTPERPAGE = 1000;
+    /** The most values of a column that are sampled. */
+    static final int SAMPLE_SIZE = 10000;
+    /** The most buckets of a histogram. */
+    static final int NUM_HIST_BINS = 100;
+
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final long numTuples;
+    private final TupleDesc td;
+    /** IntHistogram or StringHistogram, by the type of the column. */
+    private final Object[] histograms;
+
+    /**
+     * Collect the statistics of a table, in one pass over it.
+     *
+     * @param tableid the table to collect statistics of
+     * @param ioCostPerPage the cost of reading a page of the table
+     */
+    public TableStats(int tableid, int ioCostPerPage) {
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        int fields = td.numFields();
+        int[][] samples = new int[fields][SAMPLE_SIZE];
+        int[] min = new int[fields], max = new int[fields];
+        Random random = new Random(tableid);
+        long n = 0;
+
+        Transaction t = new Transaction(true);
+        t.start();
+        DbFileIterator it = file.iterator(t.getId());
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple tup = it.next();
+                // reservoir sampling: the n-th tuple replaces a sample with
+                // probability SAMPLE_SIZE / n
+                long slot = n < SAMPLE_SIZE ? n : (long) (random.nextDouble() * (n + 1));
+                for (int i = 0; i < fields; i++) {
+                    int v = toInt(tup.getField(i));
+                    if (n == 0 || v < min[i])
+                        min[i] = v;
+                    if (n == 0 || v > max[i])
+                        max[i] = v;
+                    if (slot < SAMPLE_SIZE)
+                        samples[i][(int) slot] = v;
+                }
+                n++;
+            }
+            it.close();
+            t.commit();
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException("cannot collect statistics of table " + tableid, e);
+        }
+
+        this.numTuples = n;
+        this.numPages = file instanceof HeapFile ? ((HeapFile) file).numPages()
+                : (int) Math.ceil((double) n * td.getSize() / BufferPool.getPageSize());
+        this.histograms = new Object[fields];
+        int sampled = (int) Math.min(n, SAMPLE_SIZE);
+        for (int i = 0; i < fields; i++) {
+            int[] sample = new int[sampled];
+            System.arraycopy(samples[i], 0, sample, 0, sampled);
+            IntHistogram hist = new IntHistogram(NUM_HIST_BINS, sample, n, min[i], max[i]);
+            histograms[i] = td.getFieldType(i) == Type.STRING_TYPE ? new StringHistogram(hist) : hist;
+        }
+    }
+
+    private TableStats(int ioCostPerPage, int numPages, long numTuples, TupleDesc td, Object[] histograms) {
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = numPages;
+        this.numTuples = numTuples;
+        this.td = td;
+        this.histograms = histograms;
+    }
+
+    private static int toInt(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return StringHistogram.stringToInt(((StringField) f).getValue());
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the table, assuming that
+     * no page is in the buffer pool and that pages are read one at a time.
+     *
+     * @return the estimated cost of scanning the table
+     */
+    public double estimateScanCost() {
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * @param selectivityFactor the fraction of tuples a predicate keeps
+     * @return the estimated number of tuples of the table that it keeps
+     */
+    public int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.round(numTuples * selectivityFactor);
+    }
+
+    /**
+     * Estimate the selectivity of "field op constant" on the table.
+     *
+     * @param field the index of the column
+     * @param op the operator
+     * @param constant the value to compare the column against
+     * @return the estimated fraction of tuples for which the predicate holds
+     */
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        Object hist = histograms[field];
+        if (hist instanceof StringHistogram)
+            return ((StringHistogram) hist).estimateSelectivity(op, ((StringField) constant).getValue());
+        return ((IntHistogram) hist).estimateSelectivity(op, ((IntField) constant).getValue());
+    }
+
+    /** @return the estimated number of distinct values in a column */
+    public double estimateDistinct(int field) {
+        Object hist = histograms[field];
+        if (hist instanceof StringHistogram)
+            return ((StringHistogram) hist).estimateDistinct();
+        return ((IntHistogram) hist).estimateDistinct();
+    }
+
+    /** @return the number of tuples of the table */
+    public long totalTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of pages of the table */
+    public int numPages() {
+        return numPages;
+    }
+
+    public int getIoCostPerPage() {
+        return ioCostPerPage;
+    }
+
+    /**
+     * Write the statistics to dos.  The schema is not written; it is the
+     * table's, and read() is given it back.
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(ioCostPerPage);
+        dos.writeInt(numPages);
+        dos.writeLong(numTuples);
+        dos.writeInt(histograms.length);
+        for (Object hist : histograms) {
+            if (hist instanceof StringHistogram)
+                ((StringHistogram) hist).write(dos);
+            else
+                ((IntHistogram) hist).write(dos);
+        }
+    }
+
+    /**
+     * Read statistics written by write().
+     * @param td the schema of the table they are of, or null to skip them
+     * @throws IOException if they do not match td
+     */
+    public static TableStats read(DataInputStream dis, TupleDesc td) throws IOException {
+        int ioCostPerPage = dis.readInt();
+        int numPages = dis.readInt();
+        long numTuples = dis.readLong();
+        int fields = dis.readInt();
+        if (td != null && fields != td.numFields())
+            throw new IOException("statistics have " + fields + " columns, table has " + td.numFields());
+        Object[] histograms = new Object[fields];
+        for (int i = 0; i < fields; i++) {
+            IntHistogram hist = IntHistogram.read(dis);
+            histograms[i] = td != null && td.getFieldType(i) == Type.STRING_TYPE ? new StringHistogram(hist) : hist;
+        }
+        return new TableStats(ioCostPerPage, numPages, numTuples, td, histograms);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(numPages).append(" pages, ").append(numTuples).append(" tuples\n");
+        for (int i = 0; i < histograms.length; i++)
+            sb.append(td.getFieldName(i)).append(":\n").append(histograms[i]);
+        return sb.toString();
+    }
+}
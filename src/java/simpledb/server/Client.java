@@ -0,0 +1,288 @@
+package simpledb.server;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A connection to a QueryServer.  Not safe for use by several threads at
+ * once; give each thread its own, or share them through a ClientPool.
+ * <p>
+ * Requests made outside begin and commit each run in a transaction of
+ * their own.  If the server aborts the open transaction, the request
+ * throws TransactionAbortedException and the client is no longer in a
+ * transaction.
+ */
+public class Client implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private boolean inTransaction = false;
+    /** Set once an I/O error leaves the connection in an unknown state. */
+    private boolean broken = false;
+    /** The query result being read, if any. */
+    private ResultStream results;
+
+    /** Connect to the server at host:port. */
+    public Client(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(Protocol.MAGIC);
+        out.flush();
+        if (in.readInt() != Protocol.MAGIC) {
+            socket.close();
+            throw new IOException("not a SimpleDB server");
+        }
+    }
+
+    /** @return whether begin was called and the transaction has not ended */
+    public boolean inTransaction() {
+        return inTransaction;
+    }
+
+    /** @return whether the connection failed and should be thrown away */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /** Start a transaction that takes locks. */
+    public void begin() throws IOException, DbException, TransactionAbortedException {
+        begin(false);
+    }
+
+    /**
+     * Start a transaction.
+     * @param snapshot true for a read-only transaction that sees the tables
+     *        as of its start, without taking locks
+     */
+    public void begin(boolean snapshot) throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.BEGIN);
+        out.writeBoolean(snapshot);
+        ok();
+        inTransaction = true;
+    }
+
+    public void commit() throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.COMMIT);
+        inTransaction = false;
+        ok();
+    }
+
+    public void abort() throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.ABORT);
+        inTransaction = false;
+        ok();
+    }
+
+    /**
+     * Run a query.  Its tuples arrive in batches as they are read from the
+     * stream; the stream must be read to the end or closed before the next
+     * request, or the next request does that first.
+     */
+    public ResultStream query(Query q) throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.QUERY);
+        q.write(out);
+        out.flush();
+        byte response = read();
+        if (response != Protocol.SCHEMA)
+            throw unexpected(response);
+        results = new ResultStream(Protocol.readTupleDesc(in));
+        return results;
+    }
+
+    /** Run a query and collect its result. */
+    public List<Tuple> queryAll(Query q) throws IOException, DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        try (ResultStream rs = query(q)) {
+            while (rs.hasNext())
+                tuples.add(rs.next());
+        }
+        return tuples;
+    }
+
+    /**
+     * Insert a tuple.
+     * @param fields the tuple's fields, in the order of the table's schema
+     */
+    public void insert(String table, Field... fields)
+            throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.INSERT);
+        out.writeUTF(table);
+        Protocol.writeFields(out, fields);
+        ok();
+    }
+
+    /**
+     * Delete the tuples a single-table query returns.
+     * @return the number of tuples deleted
+     */
+    public int delete(Query q) throws IOException, DbException, TransactionAbortedException {
+        request(Protocol.DELETE);
+        q.write(out);
+        return ok();
+    }
+
+    /** Close the connection; the server aborts any transaction still open. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!broken && !socket.isClosed()) {
+                finishResults();
+                out.writeByte(Protocol.QUIT);
+                out.flush();
+            }
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            // closing anyway
+        } finally {
+            socket.close();
+        }
+    }
+
+    /** Start a request, after reading what is left of the last query's result. */
+    private void request(byte request) throws IOException, DbException, TransactionAbortedException {
+        if (broken)
+            throw new IOException("connection is broken");
+        finishResults();
+        out.writeByte(request);
+    }
+
+    private void finishResults() throws IOException, DbException, TransactionAbortedException {
+        if (results != null) {
+            ResultStream rs = results;
+            results = null;
+            rs.drain();
+        }
+    }
+
+    /** @return the next response byte, or throw the error it reports */
+    private byte read() throws IOException, DbException, TransactionAbortedException {
+        byte response;
+        try {
+            response = in.readByte();
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+        if (response == Protocol.ERROR) {
+            boolean aborted = in.readBoolean();
+            String message = in.readUTF();
+            if (aborted) {
+                inTransaction = false;
+                throw new TransactionAbortedException();
+            }
+            throw new DbException(message);
+        }
+        return response;
+    }
+
+    /** @return the count of an OK response */
+    private int ok() throws IOException, DbException, TransactionAbortedException {
+        out.flush();
+        byte response = read();
+        if (response != Protocol.OK)
+            throw unexpected(response);
+        return in.readInt();
+    }
+
+    private IOException unexpected(byte response) {
+        broken = true;
+        return new IOException("unexpected response " + response);
+    }
+
+    /**
+     * The tuples of a query, read from the connection a batch at a time.
+     */
+    public class ResultStream implements Closeable {
+        private final TupleDesc td;
+        private final List<Tuple> batch = new ArrayList<>();
+        private int pos = 0;
+        private boolean done = false;
+        private long rows = -1;
+
+        private ResultStream(TupleDesc td) {
+            this.td = td;
+        }
+
+        /** @return the schema of the result; fields are named alias.field */
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public boolean hasNext() throws IOException, DbException, TransactionAbortedException {
+            while (pos == batch.size() && !done)
+                readBatch();
+            return pos < batch.size();
+        }
+
+        public Tuple next() throws IOException, DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.get(pos++);
+        }
+
+        /** @return the number of tuples in the result, once it has all been read, else -1 */
+        public long getRowCount() {
+            return rows;
+        }
+
+        private void readBatch() throws IOException, DbException, TransactionAbortedException {
+            batch.clear();
+            pos = 0;
+            byte response;
+            try {
+                response = read();
+            } catch (DbException | TransactionAbortedException e) {
+                done = true;
+                if (results == this)
+                    results = null;
+                throw e;
+            }
+            if (response == Protocol.ROWS) {
+                for (int n = in.readInt(); n > 0; n--)
+                    batch.add(Protocol.readTuple(in, td));
+            } else if (response == Protocol.DONE) {
+                rows = in.readLong();
+                done = true;
+                if (results == this)
+                    results = null;
+            } else {
+                throw unexpected(response);
+            }
+        }
+
+        /** Read and throw away the rest of the result. */
+        void drain() throws IOException, DbException, TransactionAbortedException {
+            while (!done)
+                readBatch();
+            batch.clear();
+            pos = 0;
+        }
+
+        /** Skip the rest of the result, so the connection can be used again. */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (results == this)
+                    finishResults();
+            } catch (DbException | TransactionAbortedException e) {
+                // the result was not wanted anyway
+            }
+        }
+    }
+}
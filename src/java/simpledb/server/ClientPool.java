@@ -0,0 +1,91 @@
+package simpledb.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A fixed number of Clients connected to one server, shared by any number
+ * of threads.  Connections are opened as they are first needed and kept
+ * open between uses.
+ *
+ * @Threadsafe
+ */
+public class ClientPool implements Closeable {
+
+    private final String host;
+    private final int port;
+    private final Semaphore available;
+    private final Deque<Client> idle = new ArrayDeque<>(); // protected by this
+    private boolean closed = false; // protected by this
+
+    /**
+     * @param size the most connections open at once
+     */
+    public ClientPool(String host, int port, int size) {
+        this.host = host;
+        this.port = port;
+        this.available = new Semaphore(size, true);
+    }
+
+    /**
+     * Take a connection, waiting for one if all are in use.  Hand it back
+     * with release.
+     */
+    public Client borrow() throws IOException, InterruptedException {
+        available.acquire();
+        try {
+            synchronized (this) {
+                if (closed)
+                    throw new IOException("pool is closed");
+                Client c = idle.pollFirst();
+                if (c != null)
+                    return c;
+            }
+            return new Client(host, port);
+        } catch (IOException | RuntimeException e) {
+            available.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hand back a connection.  A transaction left open on it is aborted;
+     * a broken connection is closed and replaced when next needed.
+     */
+    public void release(Client c) {
+        try {
+            if (c.inTransaction() && !c.isBroken())
+                c.abort();
+        } catch (Exception e) {
+            // keep going; isBroken says whether to reuse it
+        }
+        boolean keep;
+        synchronized (this) {
+            keep = !closed && !c.isBroken();
+            if (keep)
+                idle.addFirst(c);
+        }
+        if (!keep) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // it is being thrown away
+            }
+        }
+        available.release();
+    }
+
+    /** Close the idle connections; those in use are closed when released. */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            for (Client c : idle)
+                c.close();
+            idle.clear();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb.server;
+
+import simpledb.common.LatencyHistogram;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a QueryServer with a mix of point queries and inserts on one
+ * table from many threads, sharing a ClientPool, and reports throughput
+ * and latency.  A point query selects the tuples whose key field equals a
+ * random value below keyRange; an insert adds a tuple of random values in
+ * the same range.  Each request runs in a transaction of its own.
+ */
+public class LoadGenerator {
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_SECONDS = 10;
+    public static final int DEFAULT_WRITE_PERCENT = 10;
+    public static final int DEFAULT_KEY_RANGE = 1000;
+
+    private final String host;
+    private final int port;
+    private final String table;
+    private final String keyField;
+    private final int threads;
+    private final int connections;
+    private final int writePercent;
+    private final int keyRange;
+
+    private final LatencyHistogram reads = new LatencyHistogram();
+    private final LatencyHistogram writes = new LatencyHistogram();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param keyField the field of table point queries select on, named as
+     *        in the table's schema
+     * @param threads the number of threads making requests
+     * @param connections the number of connections they share
+     * @param writePercent the percentage of requests that are inserts
+     * @param keyRange values are drawn from 0 to keyRange - 1
+     */
+    public LoadGenerator(String host, int port, String table, String keyField,
+                         int threads, int connections, int writePercent, int keyRange) {
+        this.host = host;
+        this.port = port;
+        this.table = table;
+        this.keyField = keyField;
+        this.threads = threads;
+        this.connections = connections;
+        this.writePercent = writePercent;
+        this.keyRange = keyRange;
+    }
+
+    private Query pointQuery(int key) {
+        Query q = new Query();
+        q.addTable(table);
+        q.addFilter(table, keyField, Predicate.Op.EQUALS, new IntField(key));
+        return q;
+    }
+
+    private Field[] randomTuple(TupleDesc td) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Field[] fields = new Field[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            int v = random.nextInt(keyRange);
+            fields[i] = td.getFieldType(i) == Type.INT_TYPE ? new IntField(v)
+                    : new StringField("s" + v, Type.STRING_LEN);
+        }
+        return fields;
+    }
+
+    /**
+     * Run the load for a while.
+     * @return a report of what was done, one line per kind of request
+     */
+    public String run(long millis) throws Exception {
+        reads.reset();
+        writes.reset();
+        aborts.reset();
+        errors.reset();
+
+        TupleDesc td;
+        try (Client c = new Client(host, port)) {
+            // the result's schema, for the inserts
+            Client.ResultStream rs = c.query(pointQuery(0));
+            td = rs.getTupleDesc();
+            rs.close();
+        }
+
+        try (ClientPool pool = new ClientPool(host, port, connections)) {
+            long deadline = System.nanoTime() + millis * 1000000;
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread t = new Thread(() -> work(pool, td, deadline), "loadgen-" + i);
+                workers.add(t);
+                t.start();
+            }
+            for (Thread t : workers)
+                t.join();
+        }
+        return report(millis);
+    }
+
+    private void work(ClientPool pool, TupleDesc td, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            boolean write = random.nextInt(100) < writePercent;
+            Client c;
+            try {
+                c = pool.borrow();
+            } catch (Exception e) {
+                errors.increment();
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                if (write) {
+                    c.insert(table, randomTuple(td));
+                    writes.record(System.nanoTime() - start);
+                } else {
+                    c.queryAll(pointQuery(random.nextInt(keyRange)));
+                    reads.record(System.nanoTime() - start);
+                }
+            } catch (TransactionAbortedException e) {
+                aborts.increment();
+            } catch (Exception e) {
+                errors.increment();
+            } finally {
+                pool.release(c);
+            }
+        }
+    }
+
+    private String report(long millis) {
+        StringBuilder sb = new StringBuilder();
+        line(sb, "reads", reads, millis);
+        line(sb, "writes", writes, millis);
+        sb.append(String.format("aborts %d errors %d%n", aborts.sum(), errors.sum()));
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h, long millis) {
+        sb.append(String.format("%s %d (%.1f/s) mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n",
+                name, h.count(), h.count() * 1000.0 / millis, h.mean() / 1e6,
+                h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.max() / 1e6));
+    }
+
+    /** @return the number of requests that completed */
+    public long completed() {
+        return reads.count() + writes.count();
+    }
+
+    /** @return the number of requests whose transaction was aborted */
+    public long aborted() {
+        return aborts.sum();
+    }
+
+    /** @return the number of requests that failed other than by an abort */
+    public long failed() {
+        return errors.sum();
+    }
+
+    /**
+     * <pre>
+     * loadgen &lt;host&gt; &lt;port&gt; &lt;table&gt; &lt;keyField&gt; [threads] [seconds] [writePercent] [connections]
+     * </pre>
+     * connections defaults to threads.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || args.length > 8) {
+            System.err.println("Usage: loadgen <host> <port> <table> <keyField>"
+                    + " [threads] [seconds] [writePercent] [connections]");
+            System.exit(1);
+        }
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_THREADS;
+        int seconds = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_SECONDS;
+        int writePercent = args.length > 6 ? Integer.parseInt(args[6]) : DEFAULT_WRITE_PERCENT;
+        int connections = args.length > 7 ? Integer.parseInt(args[7]) : threads;
+        LoadGenerator gen = new LoadGenerator(args[0], Integer.parseInt(args[1]), args[2], args[3],
+                threads, connections, writePercent, DEFAULT_KEY_RANGE);
+        System.out.print(gen.run(seconds * 1000L));
+    }
+}
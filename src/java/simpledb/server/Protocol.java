@@ -0,0 +1,153 @@
+package simpledb.server;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The wire protocol between QueryServer and Client.
+ * <p>
+ * After connecting, the client sends MAGIC and the server answers with
+ * MAGIC.  Then the client sends requests, one at a time, each a request
+ * byte followed by its arguments, and reads the response before sending
+ * the next.  Every response but a query's is OK with a count, or ERROR.
+ * A query is answered with SCHEMA and the result's TupleDesc, then ROWS
+ * batches of up to BATCH_ROWS tuples, then DONE with the number of
+ * tuples; or with ERROR at any point.
+ * <p>
+ * Values are written with DataOutputStream: ints as 4 bytes, strings in
+ * modified UTF-8 with a 2-byte length rather than padded as on a page.
+ */
+final class Protocol {
+
+    /** "SDB1", sent by both sides when a connection opens. */
+    static final int MAGIC = 0x53444231;
+
+    /** Most tuples in a ROWS message. */
+    static final int BATCH_ROWS = 256;
+
+    // requests
+    /** Start a transaction: byte 1 for a snapshot, 0 otherwise. */
+    static final byte BEGIN = 1;
+    static final byte COMMIT = 2;
+    static final byte ABORT = 3;
+    /** A Query, see Query#write. */
+    static final byte QUERY = 4;
+    /** A table name and a tuple of its fields, see writeFields. */
+    static final byte INSERT = 5;
+    /** A single-table Query whose matching tuples to delete. */
+    static final byte DELETE = 6;
+    /** Close the connection, aborting any transaction still open. */
+    static final byte QUIT = 7;
+
+    // responses
+    /** An int: the number of tuples changed, or 0. */
+    static final byte OK = 64;
+    /** A byte, 1 if the transaction was aborted, and a message. */
+    static final byte ERROR = 65;
+    static final byte SCHEMA = 66;
+    /** An int count, then that many tuples. */
+    static final byte ROWS = 67;
+    /** A long: the number of tuples sent. */
+    static final byte DONE = 68;
+
+    private Protocol() {
+    }
+
+    static void writeTupleDesc(DataOutputStream out, TupleDesc td) throws IOException {
+        out.writeShort(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(td.getFieldType(i).ordinal());
+            String name = td.getFieldName(i);
+            out.writeUTF(name == null ? "" : name);
+        }
+    }
+
+    static TupleDesc readTupleDesc(DataInputStream in) throws IOException {
+        int n = in.readShort();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = readType(in);
+            names[i] = in.readUTF();
+        }
+        return new TupleDesc(types, names);
+    }
+
+    static Type readType(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length)
+            throw new IOException("unknown type " + ordinal);
+        return Type.values()[ordinal];
+    }
+
+    /** Write a field, preceded by its type. */
+    static void writeField(DataOutputStream out, Field f) throws IOException {
+        out.writeByte(f.getType().ordinal());
+        writeValue(out, f);
+    }
+
+    static Field readField(DataInputStream in) throws IOException {
+        return readValue(in, readType(in));
+    }
+
+    /** Write a field without its type, which the reader knows. */
+    static void writeValue(DataOutputStream out, Field f) throws IOException {
+        if (f.getType() == Type.INT_TYPE)
+            out.writeInt(((IntField) f).getValue());
+        else
+            out.writeUTF(((StringField) f).getValue());
+    }
+
+    static Field readValue(DataInputStream in, Type type) throws IOException {
+        if (type == Type.INT_TYPE)
+            return new IntField(in.readInt());
+        return new StringField(in.readUTF(), Type.STRING_LEN);
+    }
+
+    /** Write the fields of a tuple, each with its type. */
+    static void writeFields(DataOutputStream out, Field[] fields) throws IOException {
+        out.writeShort(fields.length);
+        for (Field f : fields)
+            writeField(out, f);
+    }
+
+    static Field[] readFields(DataInputStream in) throws IOException {
+        Field[] fields = new Field[in.readShort()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = readField(in);
+        return fields;
+    }
+
+    /** Write the values of a tuple whose TupleDesc the reader has. */
+    static void writeTuple(DataOutputStream out, Tuple t) throws IOException {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+            writeValue(out, t.getField(i));
+    }
+
+    static Tuple readTuple(DataInputStream in, TupleDesc td) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, readValue(in, td.getFieldType(i)));
+        return t;
+    }
+
+    static void writeOp(DataOutputStream out, Predicate.Op op) throws IOException {
+        out.writeByte(op.ordinal());
+    }
+
+    static Predicate.Op readOp(DataInputStream in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Predicate.Op.values().length)
+            throw new IOException("unknown operator " + ordinal);
+        return Predicate.Op.values()[ordinal];
+    }
+}
@@ -0,0 +1,227 @@
+package simpledb.server;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.PlanTemplate;
+import simpledb.storage.Field;
+import simpledb.transaction.TransactionId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A select-project-join query as a client sends it: the tables, by name
+ * and alias, selections comparing a field with a constant, and join
+ * predicates between two fields.  Fields are named as in their table's
+ * schema.  The server plans it with JoinOptimizer, so the result has every
+ * field of every table, in the order the plan joins them.
+ */
+public class Query {
+
+    private static class Filter {
+        final String alias, field;
+        final Predicate.Op op;
+        final Field operand;
+
+        Filter(String alias, String field, Predicate.Op op, Field operand) {
+            this.alias = alias;
+            this.field = field;
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    private static class Join {
+        final String alias1, field1, alias2, field2;
+        final Predicate.Op op;
+
+        Join(String alias1, String field1, Predicate.Op op, String alias2, String field2) {
+            this.alias1 = alias1;
+            this.field1 = field1;
+            this.op = op;
+            this.alias2 = alias2;
+            this.field2 = field2;
+        }
+    }
+
+    private final List<String> aliases = new ArrayList<>();
+    private final List<String> tables = new ArrayList<>();
+    private final List<Filter> filters = new ArrayList<>();
+    private final List<Join> joins = new ArrayList<>();
+
+    /** Add the table of the given name, under that name. */
+    public void addTable(String table) {
+        addTable(table, table);
+    }
+
+    /** Add a table under an alias, which must be unique within the query. */
+    public void addTable(String table, String alias) {
+        tables.add(table);
+        aliases.add(alias);
+    }
+
+    /** Keep only the tuples where "alias.field op operand". */
+    public void addFilter(String alias, String field, Predicate.Op op, Field operand) {
+        filters.add(new Filter(alias, field, op, operand));
+    }
+
+    /** Join on "alias1.field1 op alias2.field2". */
+    public void addJoin(String alias1, String field1, Predicate.Op op, String alias2, String field2) {
+        joins.add(new Join(alias1, field1, op, alias2, field2));
+    }
+
+    /** @return the number of tables in the query */
+    public int numTables() {
+        return tables.size();
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeShort(tables.size());
+        for (int i = 0; i < tables.size(); i++) {
+            out.writeUTF(tables.get(i));
+            out.writeUTF(aliases.get(i));
+        }
+        out.writeShort(filters.size());
+        for (Filter f : filters) {
+            out.writeUTF(f.alias);
+            out.writeUTF(f.field);
+            Protocol.writeOp(out, f.op);
+            Protocol.writeField(out, f.operand);
+        }
+        out.writeShort(joins.size());
+        for (Join j : joins) {
+            out.writeUTF(j.alias1);
+            out.writeUTF(j.field1);
+            Protocol.writeOp(out, j.op);
+            out.writeUTF(j.alias2);
+            out.writeUTF(j.field2);
+        }
+    }
+
+    static Query read(DataInputStream in) throws IOException {
+        Query q = new Query();
+        for (int n = in.readShort(); n > 0; n--)
+            q.addTable(in.readUTF(), in.readUTF());
+        for (int n = in.readShort(); n > 0; n--)
+            q.addFilter(in.readUTF(), in.readUTF(), Protocol.readOp(in), Protocol.readField(in));
+        for (int n = in.readShort(); n > 0; n--)
+            q.addJoin(in.readUTF(), in.readUTF(), Protocol.readOp(in), in.readUTF(), in.readUTF());
+        return q;
+    }
+
+    /** @return the table behind an alias, by name */
+    String tableOf(String alias) throws DbException {
+        int i = aliases.indexOf(alias);
+        if (i < 0)
+            throw new DbException("unknown alias " + alias);
+        return tables.get(i);
+    }
+
+    /**
+     * @return the query as text, with each filter's constant replaced by a
+     *         numbered parameter and its type, e.g.
+     *         "SELECT * FROM t a, t b WHERE a.c0 &lt; $1:INT_TYPE AND a.c0 = b.c0";
+     *         queries that differ only in their constants normalize alike
+     */
+    String normalize() {
+        StringBuilder sb = new StringBuilder("SELECT * FROM ");
+        for (int i = 0; i < tables.size(); i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(tables.get(i)).append(' ').append(aliases.get(i));
+        }
+        String sep = " WHERE ";
+        for (int i = 0; i < filters.size(); i++) {
+            Filter f = filters.get(i);
+            sb.append(sep).append(f.alias).append('.').append(f.field).append(' ').append(f.op)
+                    .append(" $").append(i + 1).append(':').append(f.operand.getType());
+            sep = " AND ";
+        }
+        for (Join j : joins) {
+            sb.append(sep).append(j.alias1).append('.').append(j.field1).append(' ').append(j.op)
+                    .append(' ').append(j.alias2).append('.').append(j.field2);
+            sep = " AND ";
+        }
+        return sb.toString();
+    }
+
+    /** @return the constants of the filters, the parameters of normalize() */
+    Field[] parameters() {
+        Field[] params = new Field[filters.size()];
+        for (int i = 0; i < params.length; i++)
+            params[i] = filters.get(i).operand;
+        return params;
+    }
+
+    /** @return the query with its constants, for the ResultCache */
+    Object resultKey() {
+        return Arrays.asList(normalize(), Arrays.asList(parameters()));
+    }
+
+    /** @return the ids of the query's tables */
+    int[] tableIds() throws DbException {
+        int[] ids = new int[tables.size()];
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                ids[i] = Database.getCatalog().getTableId(tables.get(i));
+            } catch (NoSuchElementException e) {
+                throw new DbException("no table named " + tables.get(i));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Plan the query against the tables in the catalog, or take its plan
+     * from the Database's PlanCache.  Hand the template back to the cache
+     * once its plan is closed.
+     * @throws DbException if a table or field does not exist, or the
+     *         tables are not connected by joins
+     */
+    PlanTemplate template(TransactionId tid) throws DbException {
+        return Database.getPlanCache().acquire(normalize(), () -> optimizer(tid));
+    }
+
+    /**
+     * Plan the query against the tables in the catalog.
+     * @throws DbException if a table or field does not exist, or the
+     *         tables are not connected by joins
+     */
+    OpIterator plan(TransactionId tid) throws DbException {
+        return optimizer(tid).plan();
+    }
+
+    private JoinOptimizer optimizer(TransactionId tid) throws DbException {
+        if (tables.isEmpty())
+            throw new DbException("no tables in query");
+        Catalog catalog = Database.getCatalog();
+        JoinOptimizer optimizer = new JoinOptimizer(tid);
+        try {
+            for (int i = 0; i < tables.size(); i++)
+                optimizer.addTable(aliases.get(i), catalog.getTableId(tables.get(i)));
+            for (Filter f : filters)
+                optimizer.addFilter(f.alias, new Predicate(field(f.alias, f.field), f.op, f.operand));
+            for (Join j : joins)
+                optimizer.addJoin(j.alias1, field(j.alias1, j.field1), j.op,
+                        j.alias2, field(j.alias2, j.field2));
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            throw new DbException(e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+        return optimizer;
+    }
+
+    /** @return the index of a field in the schema of the table behind alias */
+    private int field(String alias, String field) throws DbException {
+        Catalog catalog = Database.getCatalog();
+        return catalog.getTupleDesc(catalog.getTableId(tableOf(alias))).fieldNameToIndex(field);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.server;
+
+import simpledb.common.Database;
+import simpledb.common.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryServer serves the Database of its process to Clients over TCP,
+ * so that many clients share one catalog and one warm BufferPool.
+ * <p>
+ * Each connection is served by a thread of its own, taken from a pool of
+ * maxConnections threads; connections beyond that wait for a thread to be
+ * free.  Threads rather than a selector, because a request blocks for as
+ * long as its locks do, and the LockManager breaks deadlocks by
+ * interrupting the waiting thread, which would close an NIO channel.
+ *
+ * @see Protocol
+ * @see Session
+ */
+public class QueryServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 8432;
+    public static final int DEFAULT_CONNECTIONS = 64;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+
+    /**
+     * Listen on a port; clients are served once start is called.
+     * @param port the port, or 0 for any free one
+     * @param maxConnections the most connections served at once
+     */
+    public QueryServer(int port, int maxConnections) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "simpledb-session-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.workers = Executors.newFixedThreadPool(maxConnections, factory);
+        Metrics.gauge("server.connections", sessions::size);
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** Start accepting connections, in a thread of its own. */
+    public synchronized void start() {
+        if (acceptor != null)
+            return;
+        acceptor = new Thread(this::acceptLoop, "simpledb-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(this, socket);
+                sessions.add(session);
+                workers.execute(session);
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Called by a Session when its connection closes. */
+    void closed(Session session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * Stop accepting connections and close those open; their open
+     * transactions are aborted.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Session session : sessions)
+            session.close();
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a server until the process is killed.
+     * <pre>
+     * server &lt;catalog&gt; [port] [maxConnections]
+     * </pre>
+     * catalog is a directory holding a system catalog, or a schema file as
+     * read by Catalog.loadSchema.  Recovery runs before the first client is
+     * accepted.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: server <catalog> [port] [maxConnections]");
+            System.exit(1);
+        }
+        File catalog = new File(args[0]);
+        if (catalog.isDirectory())
+            Database.getCatalog().openSystemCatalog(catalog);
+        else
+            Database.getCatalog().loadSchema(args[0]);
+        Database.getLogFile().recover();
+
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONNECTIONS;
+        QueryServer server = new QueryServer(port, connections);
+        server.start();
+        System.out.println("Listening on port " + server.getPort());
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            server.close();
+        }
+    }
+}
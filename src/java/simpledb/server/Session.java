@@ -0,0 +1,307 @@
+package simpledb.server;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.LatencyHistogram;
+import simpledb.common.Metrics;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.PlanTemplate;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One client connection of a QueryServer, served by one thread from
+ * accept to close.
+ * <p>
+ * A connection has at most one transaction open, started by BEGIN.  Outside
+ * one, each request runs in a transaction of its own that commits when it
+ * succeeds: a query in a snapshot transaction, so it takes no locks, and
+ * an insert or delete in an ordinary one.  When a transaction is aborted,
+ * e.g. as a deadlock victim, the client is told and the connection goes
+ * back to running requests on their own.
+ */
+class Session implements Runnable {
+
+    private static final LongAdder REQUESTS = Metrics.counter("server.requests");
+    private static final LongAdder ABORTS = Metrics.counter("server.aborts");
+    private static final LatencyHistogram LATENCY = Metrics.histogram("server.request_nanos");
+
+    private final QueryServer server;
+    private final Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    /** The transaction BEGIN started, or null. */
+    private Transaction txn;
+
+    Session(QueryServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+        try {
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != Protocol.MAGIC)
+                return;
+            out.writeInt(Protocol.MAGIC);
+            out.flush();
+            while (serve(in.readByte()))
+                out.flush();
+        } catch (EOFException e) {
+            // the client went away
+        } catch (IOException e) {
+            if (!socket.isClosed())
+                e.printStackTrace();
+        } finally {
+            abortQuietly();
+            server.closed(this);
+            close();
+        }
+    }
+
+    /** Close the connection; the thread serving it ends. */
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+
+    /**
+     * Serve one request.
+     * @return false if the client asked to close the connection
+     */
+    private boolean serve(byte request) throws IOException {
+        // the LockManager's deadlock timer may have fired after a lock was
+        // granted; it must not abort the next request
+        Thread.interrupted();
+        REQUESTS.increment();
+        long start = System.nanoTime();
+        try {
+            switch (request) {
+            case Protocol.BEGIN:
+                begin(in.readBoolean());
+                break;
+            case Protocol.COMMIT:
+                finish(true);
+                break;
+            case Protocol.ABORT:
+                finish(false);
+                break;
+            case Protocol.QUERY:
+                query(Query.read(in));
+                break;
+            case Protocol.INSERT:
+                insert(in.readUTF(), Protocol.readFields(in));
+                break;
+            case Protocol.DELETE:
+                delete(Query.read(in));
+                break;
+            case Protocol.QUIT:
+                return false;
+            default:
+                throw new IOException("unknown request " + request);
+            }
+        } catch (TransactionAbortedException e) {
+            ABORTS.increment();
+            error(true, "transaction aborted");
+        } catch (DbException e) {
+            error(false, e.getMessage());
+        } catch (RuntimeException e) {
+            error(false, e.toString());
+        } finally {
+            LATENCY.record(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    private void ok(int count) throws IOException {
+        out.writeByte(Protocol.OK);
+        out.writeInt(count);
+    }
+
+    private void error(boolean aborted, String message) throws IOException {
+        out.writeByte(Protocol.ERROR);
+        out.writeBoolean(aborted);
+        out.writeUTF(message == null ? "" : message);
+    }
+
+    private void begin(boolean snapshot) throws IOException, DbException {
+        if (txn != null)
+            throw new DbException("a transaction is already open");
+        txn = new Transaction(snapshot);
+        txn.start();
+        ok(0);
+    }
+
+    private void finish(boolean commit) throws IOException, DbException {
+        if (txn == null)
+            throw new DbException("no transaction is open");
+        Transaction t = txn;
+        txn = null;
+        if (commit)
+            t.commit();
+        else
+            t.abort();
+        ok(0);
+    }
+
+    /** Abort the open transaction, if any, when the connection goes away. */
+    private void abortQuietly() {
+        if (txn == null)
+            return;
+        try {
+            txn.abort();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        txn = null;
+    }
+
+    /** A request that runs in a transaction. */
+    private interface Statement {
+        void run(TransactionId tid) throws IOException, DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Run a request in the open transaction, or in one of its own.  An abort
+     * ends the transaction either way; other errors end only the request's
+     * own transaction.
+     */
+    private void inTransaction(boolean readOnly, Statement statement)
+            throws IOException, DbException, TransactionAbortedException {
+        Transaction t = txn;
+        boolean own = t == null;
+        if (own) {
+            t = new Transaction(readOnly);
+            t.start();
+        }
+        boolean done = false;
+        try {
+            statement.run(t.getId());
+            done = true;
+        } catch (TransactionAbortedException e) {
+            txn = null;
+            throw e;
+        } finally {
+            if (own || !done && txn == null) {
+                if (done)
+                    t.commit();
+                else
+                    t.abort();
+            }
+        }
+    }
+
+    private void query(Query q) throws IOException, DbException, TransactionAbortedException {
+        inTransaction(true, tid -> {
+            // a snapshot may be answered from the result cache, without a plan
+            PlanTemplate[] template = {null};
+            OpIterator plan = Database.getResultCache().get(tid, q.resultKey(), q.tableIds(), () -> {
+                template[0] = q.template(tid);
+                return template[0].bind(tid, q.parameters());
+            });
+            try {
+                plan.open();
+                TupleDesc td = plan.getTupleDesc();
+                out.writeByte(Protocol.SCHEMA);
+                Protocol.writeTupleDesc(out, td);
+                List<Tuple> batch = new ArrayList<>(Protocol.BATCH_ROWS);
+                long rows = 0;
+                while (plan.hasNext()) {
+                    batch.add(plan.next());
+                    if (batch.size() == Protocol.BATCH_ROWS) {
+                        rows += sendRows(batch);
+                        // let the client start on this batch while the next is made
+                        out.flush();
+                    }
+                }
+                rows += sendRows(batch);
+                out.writeByte(Protocol.DONE);
+                out.writeLong(rows);
+            } finally {
+                plan.close();
+                if (template[0] != null)
+                    Database.getPlanCache().release(template[0]);
+            }
+        });
+    }
+
+    private int sendRows(List<Tuple> batch) throws IOException {
+        int n = batch.size();
+        if (n == 0)
+            return 0;
+        out.writeByte(Protocol.ROWS);
+        out.writeInt(n);
+        for (Tuple t : batch)
+            Protocol.writeTuple(out, t);
+        batch.clear();
+        return n;
+    }
+
+    private void insert(String table, Field[] fields)
+            throws IOException, DbException, TransactionAbortedException {
+        int tableid;
+        try {
+            tableid = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new DbException("no table named " + table);
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (fields.length != td.numFields())
+            throw new DbException(table + " has " + td.numFields() + " fields, not " + fields.length);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType() != td.getFieldType(i))
+                throw new DbException("field " + td.getFieldName(i) + " of " + table
+                        + " is " + td.getFieldType(i));
+            t.setField(i, fields[i]);
+        }
+        inTransaction(false, tid -> Database.getBufferPool().insertTuple(tid, tableid, t));
+        ok(1);
+    }
+
+    private void delete(Query q) throws IOException, DbException, TransactionAbortedException {
+        if (q.numTables() != 1)
+            throw new DbException("delete from one table at a time");
+        int[] deleted = {0};
+        inTransaction(false, tid -> {
+            // find the tuples first, so the scan does not see its own deletes
+            List<Tuple> victims = new ArrayList<>();
+            PlanTemplate template = q.template(tid);
+            OpIterator plan = template.bind(tid, q.parameters());
+            try {
+                plan.open();
+                while (plan.hasNext())
+                    victims.add(plan.next());
+            } finally {
+                plan.close();
+                Database.getPlanCache().release(template);
+            }
+            for (Tuple t : victims)
+                Database.getBufferPool().deleteTuple(tid, t);
+            deleted[0] = victims.size();
+        });
+        ok(deleted[0]);
+    }
+}
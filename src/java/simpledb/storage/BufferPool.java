@@ -1,6 +1,10 @@
 package simpledb.storage;
 
+import simpledb.common.LatencyHistogram;
 import simpledb.common.LockManager;
+import simpledb.common.Metrics;
+import simpledb.execution.ProfiledOperator;
+import simpledb.index.IndexFile;
 import simpledb.storage.Page;
 import simpledb.storage.PageId;
 import simpledb.storage.RecordId;
@@ -19,6 +23,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -28,7 +33,13 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
- * 
+ * <p>
+ * Pages are written only when their transaction commits, or when flushed
+ * explicitly, and are clean once written. Eviction is NO STEAL: it takes the
+ * least recently used clean page, and fails if every page is dirty. A page
+ * that an insert adds to a file is cached and write-locked by the inserting
+ * transaction, like a page it fetched, so that the commit writes it.
+ *
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
@@ -41,6 +52,24 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Metrics shared by every BufferPool, see Metrics. */
+    private static final LongAdder HITS = Metrics.counter("bufferpool.hits");
+    private static final LongAdder MISSES = Metrics.counter("bufferpool.misses");
+    private static final LongAdder EVICTIONS = Metrics.counter("bufferpool.evictions");
+    private static final LongAdder PAGES_WRITTEN = Metrics.counter("bufferpool.pages_written");
+    /** Time to read a missing page from its file. */
+    private static final LatencyHistogram READ_LATENCY = Metrics.histogram("bufferpool.read_nanos");
+    /** Time to write a batch of pages, including forcing the log. */
+    private static final LatencyHistogram WRITE_LATENCY = Metrics.histogram("bufferpool.write_nanos");
+
+    static {
+        Metrics.gauge("bufferpool.dirty_pages", () -> Database.getBufferPool().dirtyPageCount());
+        Metrics.gauge("bufferpool.hit_pct", () -> {
+            long hits = HITS.sum(), total = hits + MISSES.sum();
+            return total == 0 ? 0 : 100 * hits / total;
+        });
+    }
     
     /** 
      * The bufferPool array is used to store the page. In fact, it represents
@@ -62,6 +91,9 @@ public class BufferPool {
     
     private LockManager lock;
     
+    /** Bumped by insertTuple, deleteTuple and transactionComplete. */
+    private final TableVersions tableVersions = new TableVersions();
+    
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -77,6 +109,11 @@ public class BufferPool {
     	this.lock = new LockManager(numPages);
     }
     
+    /** @return the versions of the tables changed through this pool */
+    public TableVersions getTableVersions() {
+    	return this.tableVersions;
+    }
+    
     public static int getPageSize() {
       return pageSize;
     }
@@ -109,6 +146,37 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here -Done
+    	ProfiledOperator.pageFetched();
+    	if (tid != null && tid.isSnapshot()) {
+    		if (perm == Permissions.READ_WRITE) {
+    			throw new DbException("Snapshot transactions are read-only");
+    		}
+    		// Heap pages are read through the VersionStore, without locks.
+    		if (pid instanceof HeapPageId) {
+    			synchronized (this) {
+    				return this.bufferPool[this.frameOf(pid)];
+    			}
+    		}
+    	}
+    	int index = this.frameOf(pid);
+    	try {
+			lock.acquire(tid, index, perm);
+		} catch (InterruptedException e) {
+			throw new TransactionAbortedException();
+		}
+    	return this.bufferPool[index];
+    }
+
+    /**
+     * Find the frame holding the page, reading it from disk into a free
+     * frame (evicting one if the buffer is full) when it is not cached.
+     * Synchronized so that two transactions missing at the same time
+     * cannot claim the same frame; the caller takes the page lock after
+     * this returns, since that may block.
+     *
+     * @return the index of the frame holding pid
+     */
+    private synchronized int frameOf(PageId pid) throws DbException {
     	/* 
     	 * The other function of the pageIDToIndex is following.
     	 * Use it to judge if the page exists in the buffer.
@@ -121,58 +189,21 @@ public class BufferPool {
     		// LRURefer.
     		this.lru.leftMove(this.lru.findIndexOf(index) + 1);
     		this.lru.fill(index);
-    		
-    		try {
-				lock.acquire(tid, index, perm);
-			} catch (InterruptedException e) {
-				throw new TransactionAbortedException();
-			}
-    		return this.bufferPool[index];
-    		
-    	// Page is not in the buffer. Add page, or evict page.
-    	} else {
-    		if(this.emptyPageLength != 0) {
-    			
-    			// The buffer is not full. Read the page from the disk by 
-    			// the 'HeapFile' and find a physical frame to put the page.
-    			for(int i = 0; i < this.bufferPool.length; i++) {
-    				if(exist[i] == 0) {
-    					DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-//    					HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-    					Page page = dbFile.readPage(pid);
-    					this.addPage(i, page);
-    		    		try {
-    						lock.acquire(tid, i, perm);
-    					} catch (InterruptedException e) {
-    						throw new TransactionAbortedException();
-    					}
-    					return page;
-    				}
-    			}
-    		} else {
-    			/*
-    			 * In later lab implements this process.
-    			 * Check if it is dirty.
-    			 * Follow the evict algorithm to change a page.
-    			 */
-    			this.evictPage();
-    			for (int i = 0; i < this.bufferPool.length; i++) {
-					if(this.exist[i] == 0) {
-    					DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-//    					HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-    					Page page = dbFile.readPage(pid);
-    					this.addPage(i, page);
-    		    		try {
-    						lock.acquire(tid, i, perm);
-    					} catch (InterruptedException e) {
-    						throw new TransactionAbortedException();
-    					}
-    					return page;
-					}
-				}
-    		}
-		}
-    	throw new TransactionAbortedException();
+    		HITS.increment();
+    		return index;
+    	}
+    	MISSES.increment();
+
+    	// Page is not in the buffer. Evict a page if it is full, then read
+    	// the page from the disk into a free physical frame.
+    	if (this.emptyPageLength == 0) {
+    		this.evictPage();
+    	}
+    	DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    	long start = System.nanoTime();
+    	Page page = dbFile.readPage(pid);
+    	READ_LATENCY.record(System.nanoTime() - start);
+    	return this.addPage(page);
     }
     
     /**
@@ -182,10 +213,14 @@ public class BufferPool {
      * change four variable when i change a page from buffer pool. This is so
      * tedious that I will forget one or two steps sometimes. So I encapsulate 
      * this method. 
-     * @param pos
-     * @param heapPage
+     * @param page the page to add; the buffer must have a free frame
+     * @return the index of the frame the page was put in
      */
-    private void addPage(int index, Page page) {
+    private int addPage(Page page) {
+    	int index = 0;
+    	while (this.exist[index] == 1) {
+    		index++;
+    	}
 	    /*************************************************
 	     *  Note: When add one page, we need to set four variable.
 	     *  1. bufferPool: means that put the page into the buffer.
@@ -200,6 +235,7 @@ public class BufferPool {
     	
     	// If we can add page, the LRURefer must have empty position.
     	this.lru.fill(index);
+    	return index;
     }
 
     /**
@@ -271,30 +307,43 @@ public class BufferPool {
     	 */
     	if (commit) {
     		try {
-				flushPages(tid);
+    			// Log the updates and the COMMIT record, then wait for the
+    			// log writer outside the pool's monitor so that concurrent
+    			// committers can share one force of the log.
+    			logDirtyPages(tid);
+    			Database.getLogFile().logCommit(tid);
+				writePages(tid);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+    	} else {
+    		try {
+    			// Undo whatever reached the disk; does nothing if the
+    			// Transaction already rolled back.
+    			Database.getLogFile().logAbort(tid);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
     	}
     	
 		for (int i = 0; i < this.bufferPool.length; i++) {
-			if (this.exist[i] == 1) {
-				// The page is dirtied by this transaction.
-				if (!commit && tid.equals(this.bufferPool[i].isDirty())) {
-					for (Entry<PageId, Integer> entry : this.pageIDToIndex.entrySet()) {
-						if (entry.getValue() == i) {
-							// Change the this.lru to keep up with the state of
-							// the current buffer pool.
-							this.lru.leftMove(this.lru.findIndexOf(i) + 1);
-							discardPage(entry.getKey());
-							break;
-						}
-					}
-				}
-				
-				if (lock.isHolding(tid, i)) {
-					lock.release(tid, i);
-				}
+			// The page is dirtied by this transaction.
+			if (this.exist[i] == 1 && !commit && tid.equals(this.bufferPool[i].isDirty())) {
+				discardPage(this.bufferPool[i].getId());
+			}
+		}
+
+		// With its pages written or restored, and while it still holds its
+		// locks, the transaction takes its place among the snapshots' versions.
+		this.tableVersions.completing(tid);
+		Database.getVersionStore().transactionComplete(tid, commit);
+		this.tableVersions.completed(tid, Database.getVersionStore().clock());
+
+		for (int i = 0; i < this.bufferPool.length; i++) {
+			// Rollback may have discarded pages of the transaction, so its
+			// locks are released whether or not the frame is still in use.
+			if (lock.isHolding(tid, i)) {
+				lock.release(tid, i);
 			}
 		}
     }
@@ -319,37 +368,49 @@ public class BufferPool {
         // some code goes here -Done
         // not necessary for lab1
     	
-    	ArrayList<Page> list = (ArrayList<Page>) Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+    	this.tableVersions.modified(tid, tableId);
+    	DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+    	List<Page> list = dbFile.insertTuple(tid, t);
+    	this.cacheDirtyPages(tid, list);
+    	if (dbFile instanceof HeapFile) {
+    		setLsn(list, Database.getLogFile().logInsert(tid, t));
+    	}
+    	
+    	// Keep the table's indexes up to date; t now carries its RecordId.
+    	for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+    		this.cacheDirtyPages(tid, index.insertTuple(tid, t));
+    	}
+    }
+    
+    /**
+     * Mark the pages modified by an insert or delete as dirty and make sure
+     * the buffer pool holds those versions of them.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> list)
+    		throws DbException, TransactionAbortedException {
     	for(Page page : list) {
+    		page.markDirty(true, tid);
 
-    		// The page is in buffer.
-    		if(this.pageIDToIndex.containsKey(page.getId())) {
-    			int index = this.pageIDToIndex.get(page.getId());
-    			this.bufferPool[index].markDirty(true, tid);
-    		
-    		// The page is not in buffer and the buffer pool has empty buffer.
-    		} else if(this.emptyPageLength != 0) {
-    			for(int i = 0; i < this.bufferPool.length; i++) {
-    				if(this.exist[i] == 0) {
-    					page.markDirty(true, tid);
-    					this.addPage(i, (HeapPage)page);
-    					break;
-    				}
+    		int index;
+    		synchronized (this) {
+    			// The page is in buffer.
+    			if(this.pageIDToIndex.containsKey(page.getId())) {
+    				index = this.pageIDToIndex.get(page.getId());
+    				this.bufferPool[index] = page;
+    				continue;
     			}
-    		// Buffer Pool is full.
-    		} else {
-    			// evict page.
-    			this.evictPage();
-    			for (int i = 0; i < this.bufferPool.length; i++) {
-					if(this.exist[i] == 0) {
-//    					HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-//    					HeapPage heapPage = (HeapPage) heapFile.readPage(page.getId());
-						DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-    					Page page2 = dbFile.readPage(page.getId());
-    					page2.markDirty(true, tid);
-    					this.addPage(i, page2);
-					}
-				}
+
+    			// The page is not in buffer. Evict a page if the buffer pool is full.
+    			if(this.emptyPageLength == 0) {
+    				this.evictPage();
+    			}
+    			index = this.addPage(page);
+    		}
+    		// The new page must be flushed when tid commits.
+    		try {
+    			lock.acquire(tid, index, Permissions.READ_WRITE);
+    		} catch (InterruptedException e) {
+    			throw new TransactionAbortedException();
     		}
     	}
     }
@@ -373,11 +434,30 @@ public class BufferPool {
         // not necessary for lab1
     	
     	RecordId recordId = t.getRecordId();
+    	int tableId = recordId.getPageId().getTableId();
+    	this.tableVersions.modified(tid, tableId);
+    	
+    	// Remove the index entries first, while t still has its RecordId.
+    	for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+    		this.cacheDirtyPages(tid, index.deleteTuple(tid, t));
+    	}
+    	
 //    	HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(recordId.getPageId().getTableId());
-    	DbFile dbFile = Database.getCatalog().getDatabaseFile(recordId.getPageId().getTableId());
+    	DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
     	List<Page> list = dbFile.deleteTuple(tid, t);
-    	for(Page page : list) {
-    		page.markDirty(true, tid);
+    	this.cacheDirtyPages(tid, list);
+    	if (dbFile instanceof HeapFile) {
+    		setLsn(list, Database.getLogFile().logDelete(tid, recordId, t));
+    	}
+    }
+
+    /**
+     * Heap pages are logged a tuple at a time as they change, rather than
+     * as page images at commit; remember the record on the pages.
+     */
+    private static void setLsn(List<Page> pages, long lsn) {
+    	for (Page page : pages) {
+    		page.setLsn(lsn);
     	}
     }
 
@@ -389,11 +469,13 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here -Done
         // not necessary for lab1
+    	List<Page> dirty = new ArrayList<>();
     	for(int i = 0; i < this.bufferPool.length; i++) {
     		if(this.exist[i] == 1 && this.bufferPool[i].isDirty() != null) {
-        		this.flushPage(this.bufferPool[i].getId());
+        		dirty.add(this.bufferPool[i]);
         	}
     	}
+    	logAndWritePages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -409,6 +491,12 @@ public class BufferPool {
         // not necessary for lab1
     	if (this.pageIDToIndex.containsKey(pid)) {
         	int index = this.pageIDToIndex.get(pid);
+        	// Keep this.lru up with the state of the buffer pool; evictPage
+        	// has already taken the frame out.
+        	int pos = this.lru.findIndexOf(index);
+        	if (pos != -1) {
+        		this.lru.leftMove(pos + 1);
+        	}
         	this.bufferPool[index] = null;
         	this.pageIDToIndex.remove(pid);
         	this.exist[index] = 0;
@@ -427,12 +515,81 @@ public class BufferPool {
     	 * flushPage should write any dirty page to disk and mark it as 
     	 * not dirty, while leaving it in the BufferPool.
     	 */
-    	int tableId = pid.getTableId();
     	Page page = this.bufferPool[this.pageIDToIndex.get(pid)];
     	
     	if(page.isDirty() != null) {
-    		Database.getCatalog().getDatabaseFile(tableId).writePage(page);
+    		List<Page> dirty = new ArrayList<>();
+    		dirty.add(page);
+    		logAndWritePages(dirty);
+    	}
+    }
+
+    /**
+     * Write dirty pages that may belong to transactions still running.
+     * Pages other than heap pages are logged as images first, so that
+     * recovery can undo them if their transaction does not commit.
+     */
+    private synchronized void logAndWritePages(List<Page> pages) throws IOException {
+    	for (Page page : pages) {
+    		if (!(page instanceof HeapPage)) {
+    			page.setLsn(Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page));
+    		}
     	}
+    	writePages(pages);
+    }
+
+    /**
+     * Write dirty pages to disk and mark them clean. Their log records must
+     * already have been appended. Heap pages are written as one batch
+     * through the double-write buffer, so that a crash cannot tear them.
+     */
+    private synchronized void writePages(List<Page> pages) throws IOException {
+    	if (pages.isEmpty()) {
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	// write-ahead rule: the log records for the pages go first
+    	long lsn = Page.NO_LSN;
+    	for (Page page : pages) {
+    		lsn = Math.max(lsn, page.getLsn());
+    	}
+    	Database.getLogFile().forceTo(lsn);
+    	
+    	List<HeapPage> heapPages = new ArrayList<>();
+    	for (Page page : pages) {
+    		if (page instanceof HeapPage) {
+    			heapPages.add((HeapPage) page);
+    		} else {
+    			Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+    		}
+    	}
+    	Database.getLogFile().getDoubleWriteBuffer().write(heapPages);
+    	
+    	for (Page page : pages) {
+    		page.markDirty(false, null);
+    		Database.getLogFile().pageWritten(page.getId());
+    	}
+    	PAGES_WRITTEN.add(pages.size());
+    	WRITE_LATENCY.record(System.nanoTime() - start);
+    }
+
+    /** @return the number of pages in the buffer pool that are dirty */
+    public synchronized int dirtyPageCount() {
+    	int dirty = 0;
+    	for (int i = 0; i < this.bufferPool.length; i++) {
+    		if (this.exist[i] == 1 && this.bufferPool[i].isDirty() != null) {
+    			dirty++;
+    		}
+    	}
+    	return dirty;
+    }
+
+    /**
+     * Write heap pages that are not in the buffer pool, e.g. pages restored
+     * by recovery, through the double-write buffer.
+     */
+    synchronized void writeHeapPages(List<HeapPage> pages) throws IOException {
+    	Database.getLogFile().getDoubleWriteBuffer().write(pages);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -440,42 +597,78 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here -Done
         // not necessary for lab1|lab2
+    	// writing the first page forces the log past every update record
+    	// of the transaction, see flushPage
+    	logDirtyPages(tid);
+    	writePages(tid);
+    }
+
+    /**
+     * Append an update record, with a before-image and after-image, for
+     * every dirty page the transaction holds a lock on, except heap pages
+     * whose changes were already logged tuple by tuple. The log is not
+     * forced; the caller decides when.
+     *
+     * @return the number of dirty pages the transaction holds
+     */
+    private synchronized int logDirtyPages(TransactionId tid) throws IOException {
+    	int dirty = 0;
     	for (int i = 0; i < this.bufferPool.length; i++) {
     		if (this.exist[i] == 1 && lock.isHolding(tid, i)) {
-    		    // append an update record to the log, with 
-    		    // a before-image and after-image.
     		    TransactionId dirtier = this.bufferPool[i].isDirty();
     		    if (dirtier != null){
-    		      Database.getLogFile().logWrite(dirtier, this.bufferPool[i].getBeforeImage(), this.bufferPool[i]);
-    		      Database.getLogFile().force();
+    		      dirty++;
+    		      if (this.bufferPool[i] instanceof HeapPage) {
+    		    	  continue;
+    		      }
+    		      long lsn = Database.getLogFile().logWrite(dirtier, this.bufferPool[i].getBeforeImage(), this.bufferPool[i]);
+    		      this.bufferPool[i].setLsn(lsn);
     		    }
-    		    
-    			flushPage(this.bufferPool[i].getId());
-    			
-    			// use current page contents as the before-image
-    			// for the next transaction that modifies this page.
-    			this.bufferPool[i].setBeforeImage();
     		}
     	}
+    	return dirty;
+    }
+
+    /**
+     * Write the pages the transaction holds a lock on to disk. Their update
+     * records must already be durable in the log.
+     */
+    private synchronized void writePages(TransactionId tid) throws IOException {
+    	List<Page> held = new ArrayList<>();
+    	List<Page> dirty = new ArrayList<>();
+    	for (int i = 0; i < this.bufferPool.length; i++) {
+    		if (this.exist[i] == 1 && lock.isHolding(tid, i)) {
+    			held.add(this.bufferPool[i]);
+    			if (this.bufferPool[i].isDirty() != null) {
+    				dirty.add(this.bufferPool[i]);
+    			}
+    		}
+    	}
+    	writePages(dirty);
+    	
+    	// use current page contents as the before-image
+    	// for the next transaction that modifies this page.
+    	for (Page page : held) {
+    		page.setBeforeImage();
+    	}
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Uses NO STEAL: only clean pages are evicted, the least recently used
+     * first, so uncommitted changes never reach the disk and are never lost.
+     * @throws DbException if every page in the buffer pool is dirty
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here -Done
         // not necessary for lab1
 
-    	// Using steal policy need to comment out the following four
-    	// line code. And change the "index + 1" to "1".
-//    	int index = this.lru.findIdxOfclrPage();
-//    	if (index == -1) {
-//    		throw new DbException("All pages in the buffer pool are dirty");
-//    	}
+    	int index = this.lru.findIdxOfclrPage();
+    	if (index == -1) {
+    		throw new DbException("All pages in the buffer pool are dirty");
+    	}
     	
-//    	int removedPageIndex = this.lru.leftMove(index + 1);
-    	int removedPageIndex = this.lru.leftMove(1);
+    	int removedPageIndex = this.lru.leftMove(index + 1);
     	PageId heapPageId = null;
     	Set<Entry<PageId, Integer>> set = this.pageIDToIndex.entrySet();
     	for(Entry<PageId, Integer> entry : set) {
@@ -492,6 +685,7 @@ public class BufferPool {
 //		}
     	
     	this.discardPage(heapPageId);
+    	EVICTIONS.increment();
     }
     
 	private class LRU {
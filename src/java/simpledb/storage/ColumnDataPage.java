@@ -0,0 +1,191 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * A page of the values of one column of a {@link ColumnFile}: the values of
+ * a run of consecutive rows, starting at getFirstRow, and the smallest and
+ * largest of them. Pages of a column are chained in row order through
+ * getNext.
+ */
+public class ColumnDataPage extends ColumnPage {
+
+    /** Column, type, next page, first row and number of values. */
+    static final int HEADER_SIZE = 5 * 4;
+
+    private final int column;
+    private final Type type;
+    private int next;
+    private final int firstRow;
+    private final Field[] values;
+    private int count;
+    private Field min;
+    private Field max;
+
+    /**
+     * Create a ColumnDataPage from a set of bytes of data read from disk.
+     * The format is a header of the column's index, the ordinal of its
+     * Type, the next page number (0 for the last page), the first row and
+     * the number of values; then the smallest and largest value, and the
+     * values themselves, each in the fixed width of the type.
+     */
+    public ColumnDataPage(ColumnPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        column = dis.readInt();
+        type = Type.values()[dis.readInt()];
+        next = dis.readInt();
+        firstRow = dis.readInt();
+        count = dis.readInt();
+        values = new Field[getMaxValues(type)];
+        try {
+            min = type.parse(dis);
+            max = type.parse(dis);
+            for (int i = 0; i < count; i++)
+                values[i] = type.parse(dis);
+        } catch (ParseException e) {
+            throw new IOException("bad value in column page " + id, e);
+        }
+        if (count == 0)
+            min = max = null;
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of values of the given type that fit on a page */
+    public static int getMaxValues(Type type) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 2 * type.getLen()) / type.getLen();
+    }
+
+    /** @return the index of the column in the table's TupleDesc */
+    public int getColumn() {
+        return column;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** @return the page number of the next page of the column, 0 if this is the last */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int pgNo) {
+        this.next = pgNo;
+    }
+
+    /** @return the row of the first value on this page */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getNumValues() {
+        return count;
+    }
+
+    public boolean isFull() {
+        return count == values.length;
+    }
+
+    /** @return the value of a row on this page */
+    public Field getValue(int row) {
+        return values[row - firstRow];
+    }
+
+    /** @return the smallest value on the page, or null if it is empty */
+    public Field getMin() {
+        return min;
+    }
+
+    /** @return the largest value on the page, or null if it is empty */
+    public Field getMax() {
+        return max;
+    }
+
+    /**
+     * @return false if no value on this page can satisfy "value op operand",
+     *         judging by the smallest and largest
+     */
+    public boolean mayMatch(Predicate.Op op, Field operand) {
+        if (count == 0)
+            return false;
+        switch (op) {
+        case EQUALS:
+            return !min.compare(Predicate.Op.GREATER_THAN, operand)
+                    && !max.compare(Predicate.Op.LESS_THAN, operand);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return min.compare(op, operand);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return max.compare(op, operand);
+        case NOT_EQUALS:
+            return !(min.equals(operand) && max.equals(operand));
+        default:
+            return true;
+        }
+    }
+
+    /** Append the value of the next row. */
+    void add(Field value) {
+        if (isFull())
+            throw new IllegalStateException("column page " + pid + " is full");
+        if (value.getType() != type)
+            throw new IllegalArgumentException("value " + value + " is not " + type);
+        values[count++] = value;
+        if (min == null || value.compare(Predicate.Op.LESS_THAN, min))
+            min = value;
+        if (max == null || value.compare(Predicate.Op.GREATER_THAN, max))
+            max = value;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(column);
+            dos.writeInt(type.ordinal());
+            dos.writeInt(next);
+            dos.writeInt(firstRow);
+            dos.writeInt(count);
+            if (count == 0) {
+                dos.write(new byte[2 * type.getLen()]);
+            } else {
+                min.serialize(dos);
+                max.serialize(dos);
+            }
+            for (int i = 0; i < count; i++)
+                values[i].serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public ColumnDataPage getBeforeImage() {
+        try {
+            return new ColumnDataPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the page data of an empty page of a column, for rows from firstRow on */
+    public static byte[] createEmptyPageData(int column, Type type, int firstRow) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer.wrap(data).putInt(0, column).putInt(4, type.ordinal()).putInt(12, firstRow);
+        return data;
+    }
+}
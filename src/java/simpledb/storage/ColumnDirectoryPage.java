@@ -0,0 +1,127 @@
+package simpledb.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The directory of a {@link ColumnFile}, always page 0: the number of rows
+ * in the table, and for each column the first and last page of its chain
+ * of {@link ColumnDataPage}s, and the length of the chain's run: how many
+ * of its pages, from the first, are consecutive pages of the file. A page
+ * number of 0 means the column has no pages yet.
+ */
+public class ColumnDirectoryPage extends ColumnPage {
+
+    private int numRows;
+    private final int[] heads;
+    private final int[] tails;
+    private final int[] runs;
+
+    /**
+     * Create a ColumnDirectoryPage from a set of bytes of data read from
+     * disk. The format is the number of rows and the number of columns,
+     * followed by the head and tail page numbers and the run length of
+     * each column.
+     */
+    public ColumnDirectoryPage(ColumnPageId id, byte[] data) throws IOException {
+        super(id);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        numRows = dis.readInt();
+        int numColumns = dis.readInt();
+        heads = new int[numColumns];
+        tails = new int[numColumns];
+        runs = new int[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            heads[i] = dis.readInt();
+            tails[i] = dis.readInt();
+            runs[i] = dis.readInt();
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the most columns whose directory fits on one page */
+    public static int getMaxColumns() {
+        return (BufferPool.getPageSize() - 8) / 12;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    void setNumRows(int numRows) {
+        this.numRows = numRows;
+    }
+
+    public int getNumColumns() {
+        return heads.length;
+    }
+
+    /** @return the page number of the first page of a column, 0 if it has none */
+    public int getHead(int column) {
+        return heads[column];
+    }
+
+    /** @return the page number of the last page of a column, 0 if it has none */
+    public int getTail(int column) {
+        return tails[column];
+    }
+
+    /**
+     * @return the number of pages of a column, from its head, that are the
+     *         pages numbered getHead(column) on, in order
+     */
+    public int getRun(int column) {
+        return runs[column];
+    }
+
+    void setRun(int column, int run) {
+        runs[column] = run;
+    }
+
+    void setHead(int column, int pgNo) {
+        heads[column] = pgNo;
+    }
+
+    void setTail(int column, int pgNo) {
+        tails[column] = pgNo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(numRows);
+            dos.writeInt(heads.length);
+            for (int i = 0; i < heads.length; i++) {
+                dos.writeInt(heads[i]);
+                dos.writeInt(tails[i]);
+                dos.writeInt(runs[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    public ColumnDirectoryPage getBeforeImage() {
+        try {
+            return new ColumnDirectoryPage(pid, getBeforeImageData());
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the page data of an empty table's directory */
+    public static byte[] createEmptyPageData(int numColumns) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer.wrap(data).putInt(4, numColumns);
+        return data;
+    }
+}
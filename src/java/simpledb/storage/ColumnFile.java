@@ -0,0 +1,433 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in a chain of
+ * pages of its own, for analytic tables that are scanned rather than
+ * updated. A scan that needs two of twenty columns reads the pages of those
+ * two only, and a page holds as many values as fit in it, so the pages read
+ * shrink with the columns a query references.
+ * <p>
+ * Page 0 is a {@link ColumnDirectoryPage} with the number of rows and the
+ * ends of every column's chain; the rest are {@link ColumnDataPage}s, each
+ * holding the values of consecutive rows of one column along with their
+ * minimum and maximum. Row r of the table is the r-th value of every column,
+ * and its RecordId is (page 0, r).
+ * <p>
+ * Tuples are appended, so an insert takes the directory's lock and
+ * serializes with other inserts and scans; tuples cannot be deleted.
+ *
+ * @see ColumnFile#create
+ * @see simpledb.execution.ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int id;
+
+    /**
+     * Constructs a column file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this table
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, f.getAbsoluteFile().hashCode());
+    }
+
+    /**
+     * Constructs a column file with an id allocated by the system catalog,
+     * rather than one hashed from the file's name.
+     */
+    public ColumnFile(File f, TupleDesc td, int id) {
+        if (td.numFields() > ColumnDirectoryPage.getMaxColumns())
+            throw new IllegalArgumentException("a column file has at most "
+                    + ColumnDirectoryPage.getMaxColumns() + " columns");
+        this.f = f;
+        this.td = td;
+        this.id = id;
+    }
+
+    /**
+     * Write a table to f in columns, overwriting f. Each column's pages are
+     * consecutive in the file, so scans can go straight to the page of a
+     * row. The pages are written straight to disk, a page of each column at
+     * a time, so tuples may be as many as will fit in the file.
+     *
+     * @param tuples the rows of the table, each with the schema td; iterated
+     *        twice, once to count them
+     * @return the new file, not yet added to the catalog
+     */
+    public static ColumnFile create(File f, TupleDesc td, Iterable<Tuple> tuples) throws IOException {
+        ColumnFile file = new ColumnFile(f, td, Database.getCatalog().allocateId(f));
+        int rows = 0;
+        for (Tuple t : tuples) {
+            if (!t.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("tuple " + t + " does not match the schema");
+            rows++;
+        }
+
+        int columns = td.numFields();
+        ColumnDirectoryPage dir = new ColumnDirectoryPage(new ColumnPageId(file.id, 0),
+                ColumnDirectoryPage.createEmptyPageData(columns));
+        dir.setNumRows(rows);
+        int nextPgNo = 1;
+        for (int c = 0; c < columns && rows > 0; c++) {
+            int pages = (rows + ColumnDataPage.getMaxValues(td.getFieldType(c)) - 1)
+                    / ColumnDataPage.getMaxValues(td.getFieldType(c));
+            dir.setHead(c, nextPgNo);
+            dir.setTail(c, nextPgNo + pages - 1);
+            dir.setRun(c, pages);
+            nextPgNo += pages;
+        }
+
+        ColumnDataPage[] pages = new ColumnDataPage[columns];
+        int row = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+            file.write(raf, dir);
+            for (Tuple t : tuples) {
+                if (row == rows)
+                    throw new IllegalArgumentException("tuples changed while they were written");
+                for (int c = 0; c < columns; c++) {
+                    if (pages[c] == null || pages[c].isFull()) {
+                        int pgNo = pages[c] == null ? dir.getHead(c) : pages[c].getId().getPageNumber() + 1;
+                        if (pages[c] != null) {
+                            pages[c].setNext(pgNo);
+                            file.write(raf, pages[c]);
+                        }
+                        pages[c] = new ColumnDataPage(new ColumnPageId(file.id, pgNo),
+                                ColumnDataPage.createEmptyPageData(c, td.getFieldType(c), row));
+                    }
+                    pages[c].add(t.getField(c));
+                }
+                row++;
+            }
+            if (row != rows)
+                throw new IllegalArgumentException("tuples changed while they were written");
+            for (ColumnDataPage page : pages) {
+                if (page != null)
+                    file.write(raf, page);
+            }
+        }
+        return file;
+    }
+
+    /** @return the File backing this table on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages in this file, including the directory */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != id)
+            throw new IllegalArgumentException("page " + pid + " is not in this table");
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            if ((long) (cpid.getPageNumber() + 1) * data.length > raf.length())
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            raf.seek((long) cpid.getPageNumber() * data.length);
+            raf.readFully(data);
+            if (cpid.isDirectory())
+                return new ColumnDirectoryPage(cpid, data);
+            return new ColumnDataPage(cpid, data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("couldn't read page " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            write(raf, page);
+        }
+    }
+
+    private void write(RandomAccessFile raf, Page page) throws IOException {
+        raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
+        raf.write(page.getPageData());
+    }
+
+    private ColumnPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid, new ColumnPageId(id, pgNo), perm);
+    }
+
+    private ColumnDirectoryPage getDirectory(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException, IOException {
+        synchronized (this) {
+            if (numPages() == 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.write(ColumnDirectoryPage.createEmptyPageData(td.numFields()));
+                }
+            }
+        }
+        return (ColumnDirectoryPage) getPage(tid, 0, perm);
+    }
+
+    /**
+     * Mark a page dirty and record it in dirtied. Pages must be marked before
+     * the next page is fetched, so that the BufferPool can't evict them before
+     * the change is made.
+     */
+    private static void markDirty(TransactionId tid, Page p, List<Page> dirtied) {
+        p.markDirty(true, tid);
+        if (!dirtied.contains(p))
+            dirtied.add(p);
+    }
+
+    /**
+     * Append an empty page of a column to the file and fetch it through the
+     * BufferPool. The page is returned already marked dirty by tid.
+     */
+    private ColumnDataPage allocatePage(TransactionId tid, int column, int firstRow, List<Page> dirtied)
+            throws DbException, TransactionAbortedException, IOException {
+        int pgNo;
+        synchronized (this) {
+            pgNo = Math.max(1, numPages());
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.seek((long) pgNo * BufferPool.getPageSize());
+                raf.write(ColumnDataPage.createEmptyPageData(column, td.getFieldType(column), firstRow));
+            }
+        }
+        ColumnDataPage page = (ColumnDataPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+        markDirty(tid, page, dirtied);
+        return page;
+    }
+
+    /**
+     * Append a tuple as the table's last row.
+     *
+     * @return the pages that were modified: the directory and the last page
+     *         of every column
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tuple does not match the schema of the table");
+        List<Page> dirtied = new ArrayList<>();
+        ColumnDirectoryPage dir = getDirectory(tid, Permissions.READ_WRITE);
+        markDirty(tid, dir, dirtied);
+        int row = dir.getNumRows();
+        for (int c = 0; c < td.numFields(); c++) {
+            int tail = dir.getTail(c);
+            ColumnDataPage page = tail == 0 ? null
+                    : (ColumnDataPage) getPage(tid, tail, Permissions.READ_WRITE);
+            if (page == null || page.isFull()) {
+                if (page != null)
+                    markDirty(tid, page, dirtied);
+                ColumnDataPage fresh = allocatePage(tid, c, row, dirtied);
+                int pgNo = fresh.getId().getPageNumber();
+                if (page == null) {
+                    dir.setHead(c, pgNo);
+                    dir.setRun(c, 1);
+                } else {
+                    page.setNext(pgNo);
+                    // the run goes on while the chain is consecutive
+                    if (tail == dir.getHead(c) + dir.getRun(c) - 1 && pgNo == tail + 1)
+                        dir.setRun(c, dir.getRun(c) + 1);
+                }
+                dir.setTail(c, pgNo);
+                page = fresh;
+            }
+            markDirty(tid, page, dirtied);
+            page.add(t.getField(c));
+        }
+        dir.setNumRows(row + 1);
+        t.setRecordId(new RecordId(dir.getId(), row));
+        return dirtied;
+    }
+
+    /**
+     * Not supported: the rows of a column file are only ever appended.
+     *
+     * @throws DbException always
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("tuples cannot be deleted from a column file");
+    }
+
+    /** @return an iterator over every column of every row, in row order */
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = i;
+        return iterator(tid, columns, new Predicate[0]);
+    }
+
+    /**
+     * @return the TupleDesc of the tuples iterator(tid, columns, filters)
+     *         returns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Iterate over some of the columns of the rows that satisfy every
+     * filter, in row order. Only the pages of the filters' columns and of
+     * the wanted columns are read. The filters are tried one at a time, and
+     * the other columns read only for the rows that satisfy them all; a
+     * page whose minimum and maximum show that none of its values satisfy
+     * a filter is skipped without looking at the values.
+     *
+     * @param columns the indexes of the wanted columns in the table's
+     *        TupleDesc, in the order the returned tuples have them
+     * @param filters predicates whose fields are indexes in the table's
+     *        TupleDesc, not in the returned tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate[] filters) {
+        for (int c : columns) {
+            if (c < 0 || c >= td.numFields())
+                throw new IllegalArgumentException("no column " + c);
+        }
+        for (Predicate p : filters) {
+            if (p.getField() < 0 || p.getField() >= td.numFields())
+                throw new IllegalArgumentException("no column " + p.getField());
+        }
+        return new ColumnIterator(tid, columns.clone(), filters.clone());
+    }
+
+    /**
+     * Reads one column's chain of pages in row order. Within the chain's
+     * run every page but the last is full, so the page of a row is found
+     * without reading the pages before it; past the run, the chain is
+     * followed page by page.
+     */
+    private class Cursor {
+        private final TransactionId tid;
+        private final int head;
+        private final int run;
+        private final int valuesPerPage;
+        private ColumnDataPage page;
+
+        Cursor(TransactionId tid, ColumnDirectoryPage dir, int column) {
+            this.tid = tid;
+            this.head = dir.getHead(column);
+            this.run = dir.getRun(column);
+            this.valuesPerPage = ColumnDataPage.getMaxValues(td.getFieldType(column));
+        }
+
+        /** @return the page holding row; rows must not go backwards */
+        ColumnDataPage pageOf(int row) throws DbException, TransactionAbortedException {
+            if (page != null && row < page.getFirstRow() + page.getNumValues())
+                return page;
+            int index = Math.min(row / valuesPerPage, run - 1);
+            if (page == null || page.getId().getPageNumber() < head + index)
+                page = (ColumnDataPage) getPage(tid, head + index, Permissions.READ_ONLY);
+            while (row >= page.getFirstRow() + page.getNumValues()) {
+                if (page.getNext() == 0)
+                    throw new DbException("column " + page.getColumn() + " has no row " + row);
+                page = (ColumnDataPage) getPage(tid, page.getNext(), Permissions.READ_ONLY);
+            }
+            return page;
+        }
+    }
+
+    private class ColumnIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] columns;
+        private final Predicate[] filters;
+        private final TupleDesc outTd;
+        /** Cursors by column index in the table, for the columns needed. */
+        private Cursor[] cursors;
+        private int numRows;
+        private int row;
+
+        ColumnIterator(TransactionId tid, int[] columns, Predicate[] filters) {
+            this.tid = tid;
+            this.columns = columns;
+            this.filters = filters;
+            this.outTd = getTupleDesc(columns);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            ColumnDirectoryPage dir;
+            try {
+                dir = getDirectory(tid, Permissions.READ_ONLY);
+            } catch (IOException e) {
+                throw new DbException("couldn't read directory: " + e.getMessage());
+            }
+            numRows = dir.getNumRows();
+            row = 0;
+            cursors = new Cursor[td.numFields()];
+            for (int c : columns)
+                cursors[c] = new Cursor(tid, dir, c);
+            for (Predicate p : filters)
+                cursors[p.getField()] = new Cursor(tid, dir, p.getField());
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (cursors == null)
+                return null;
+            rows:
+            while (row < numRows) {
+                for (Predicate p : filters) {
+                    ColumnDataPage page = cursors[p.getField()].pageOf(row);
+                    if (!page.mayMatch(p.getOp(), p.getOperand())) {
+                        row = page.getFirstRow() + page.getNumValues();
+                        continue rows;
+                    }
+                    if (!page.getValue(row).compare(p.getOp(), p.getOperand())) {
+                        row++;
+                        continue rows;
+                    }
+                }
+                Tuple t = new Tuple(outTd);
+                for (int i = 0; i < columns.length; i++)
+                    t.setField(i, cursors[columns[i]].pageOf(row).getValue(row));
+                t.setRecordId(new RecordId(new ColumnPageId(id, 0), row));
+                row++;
+                return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            cursors = null;
+        }
+    }
+}
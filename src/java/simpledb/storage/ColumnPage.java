@@ -0,0 +1,65 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Common state of the pages of a {@link ColumnFile}: the page id, the dirty
+ * flag and the before image used by recovery.
+ */
+public abstract class ColumnPage implements Page {
+
+    protected final ColumnPageId pid;
+
+    private volatile TransactionId dirtier;
+    private volatile long lsn = NO_LSN;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected ColumnPage(ColumnPageId id) {
+        this.pid = id;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /** @return the page contents as of the last {@link #setBeforeImage()} */
+    protected byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    /** @return a byte array of BufferPool.getPageSize() holding what was written to baos */
+    static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, written.length);
+        return data;
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * DoubleWriteBuffer protects heap pages from torn writes.  Writing a page
+ * in place is not atomic: a crash in the middle of it can leave a page
+ * that is half old and half new, which neither the table nor the log can
+ * repair, since the log holds changes to tuples rather than whole pages.
+ * <p>
+ * So heap pages are written twice.  A batch of pages is first appended to
+ * the double-write file, with a checksum per page, and the file is forced;
+ * only then are the pages written to their home locations in the table
+ * files, which are forced in turn.  After a crash, restore() copies every
+ * intact page of the last batch back home.  If the crash tore the copy in
+ * the double-write file, the home page was not touched yet; if it tore the
+ * home page, the copy is intact.
+ * <p>
+ * Every batch is written from the start of the file.  The entries of a
+ * batch carry its number, so the end of a longer earlier batch that is
+ * still in the file is told apart and never restored.
+ * <p>
+ * The format of an entry is the batch number (a long), the table id and
+ * page number (ints), the page data, and a CRC32 of all of these.
+ * <p>
+ * Each LogFile owns the double-write buffer of its database, in a file next
+ * to the log, and empties it when it starts a new log.
+ *
+ * @Threadsafe
+ */
+public class DoubleWriteBuffer {
+
+    private final File file;
+    private RandomAccessFile raf; // opened on first use
+    private long batch;
+
+    public DoubleWriteBuffer(File f) {
+        this.file = f;
+    }
+
+    /** @return the double-write file */
+    public File getFile() {
+        return file;
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+            // carry on numbering after whatever batch is in the file
+            batch = raf.length() >= 8 ? raf.readLong() + 1 : 0;
+        }
+        return raf;
+    }
+
+    /**
+     * Write heap pages to the double-write file, then to their tables,
+     * and force both.  The pages' log records must be durable already.
+     */
+    public synchronized void write(List<HeapPage> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        RandomAccessFile raf = open();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                pages.size() * (BufferPool.getPageSize() + 20));
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (HeapPage page : pages)
+            writeEntry(dos, page);
+        raf.seek(0);
+        raf.write(baos.toByteArray());
+        raf.getChannel().force(false);
+        batch++;
+
+        Set<HeapFile> files = new LinkedHashSet<>();
+        for (HeapPage page : pages) {
+            HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            hf.writePage(page);
+            files.add(hf);
+        }
+        for (HeapFile hf : files)
+            hf.sync();
+    }
+
+    private void writeEntry(DataOutputStream dos, HeapPage page) throws IOException {
+        byte[] data = page.getPageData();
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 16);
+        DataOutputStream entry = new DataOutputStream(baos);
+        entry.writeLong(batch);
+        entry.writeInt(page.getId().getTableId());
+        entry.writeInt(page.getId().getPageNumber());
+        entry.write(data);
+        byte[] bytes = baos.toByteArray();
+        crc.update(bytes);
+        dos.write(bytes);
+        dos.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Forget the last batch, so that restore() copies nothing.  Called when
+     * a new log is started, since the batch belongs to the old one.
+     */
+    public synchronized void clear() throws IOException {
+        open().setLength(0);
+    }
+
+    /**
+     * Copy the intact pages of the last batch back to their tables, in case
+     * a crash tore them while they were written.  Called by recovery before
+     * it reads any page.
+     *
+     * @return the intact pages of tables missing from the Catalog, which
+     *         recovery restores with {@link #restore(List)} once it has
+     *         read the system catalog
+     */
+    public synchronized List<HeapPage> restore() throws IOException {
+        RandomAccessFile raf = open();
+        int pageSize = BufferPool.getPageSize();
+        byte[] bytes = new byte[16 + pageSize];
+        List<HeapPage> pages = new ArrayList<>();
+        long first = -1;
+        raf.seek(0);
+        while (raf.getFilePointer() + bytes.length + 4 <= raf.length()) {
+            raf.readFully(bytes);
+            int stored = raf.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            DataInputStream entry = new DataInputStream(new ByteArrayInputStream(bytes));
+            long entryBatch = entry.readLong();
+            if (stored != (int) crc.getValue() || (first != -1 && entryBatch != first))
+                break; // torn, or left over from an earlier batch
+            first = entryBatch;
+            HeapPageId pid = new HeapPageId(entry.readInt(), entry.readInt());
+            byte[] data = new byte[pageSize];
+            entry.readFully(data);
+            pages.add(new HeapPage(pid, data));
+        }
+        return restore(pages);
+    }
+
+    /**
+     * Copy pages read by restore() back to their tables.
+     *
+     * @return the pages of tables missing from the Catalog, which are skipped
+     */
+    public List<HeapPage> restore(List<HeapPage> pages) throws IOException {
+        Set<HeapFile> files = new LinkedHashSet<>();
+        List<HeapPage> skipped = new ArrayList<>();
+        for (HeapPage page : pages) {
+            int tableid = page.getId().getTableId();
+            DbFile f = Database.getCatalog().contains(tableid)
+                    ? Database.getCatalog().getDatabaseFile(tableid) : null;
+            if (f instanceof HeapFile) {
+                ((HeapFile) f).writePage(page);
+                files.add((HeapFile) f);
+            } else {
+                skipped.add(page);
+            }
+        }
+        for (HeapFile hf : files)
+            hf.sync();
+        return skipped;
+    }
+}
@@ -45,6 +45,22 @@ public class HeapFile implements DbFile {
 //    	this.numPage = (int) (f.length() / BufferPool.getPageSize());
     }
 
+    /**
+     * Constructs a heap file with an id allocated by the system catalog,
+     * rather than one hashed from the file's name.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param id
+     *            the id of the table
+     */
+    public HeapFile(File f, TupleDesc td, int id) {
+    	this.id = id;
+    	this.file = f;
+    	this.tupleDesc = td;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -129,6 +145,18 @@ public class HeapFile implements DbFile {
     	randomAccess.close();
     }
 
+    /**
+     * Force the pages written to this file so far to disk.
+     */
+    void sync() throws IOException {
+    	RandomAccessFile randomAccess = new RandomAccessFile(this.file, "rw");
+    	try {
+    		randomAccess.getChannel().force(false);
+    	} finally {
+    		randomAccess.close();
+    	}
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -152,7 +180,7 @@ public class HeapFile implements DbFile {
     		HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
     		if(heapPage.getNumEmptySlots() != 0) {
     			noSuchPage = false;
-    			heapPage.insertTuple(t);
+    			insertTuple(tid, heapPage, t);
     			list.add(heapPage);
     		    break;
     		}
@@ -163,15 +191,28 @@ public class HeapFile implements DbFile {
     	if (noSuchPage) {
     		HeapPage heapPage = new HeapPage(new HeapPageId(this.id, this.numPages()),
     				HeapPage.createEmptyPageData());
-    		heapPage.insertTuple(t);
-    		list.add(heapPage);
+    		// Only the empty page goes to disk; the tuple stays in the
+    		// BufferPool until it has been logged and committed.
     		this.writePage(heapPage);
+    		insertTuple(tid, heapPage, t);
+    		list.add(heapPage);
 //    		this.numPage++;
     	}
         	
     	return list;
     }
 
+    /**
+     * Insert t into heapPage, recording the empty slot it fills for the
+     * snapshots in the same critical section as the change.
+     */
+    private void insertTuple(TransactionId tid, HeapPage heapPage, Tuple t) throws DbException {
+    	synchronized (heapPage) {
+    		heapPage.insertTuple(t);
+    		Database.getVersionStore().record(tid, t.getRecordId(), null);
+    	}
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -183,7 +224,11 @@ public class HeapFile implements DbFile {
     	
     	if (this.id == pageId.getTableId()) {
     		HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-    		heapPage.deleteTuple(t);
+    		synchronized (heapPage) {
+    			Tuple before = heapPage.getTuple(recordId.getTupleNumber());
+    			heapPage.deleteTuple(t);
+    			Database.getVersionStore().record(tid, recordId, before);
+    		}
     		list.add(heapPage);
     	} else {
     		throw new DbException("Tuple is not a member of the file");
@@ -191,6 +236,30 @@ public class HeapFile implements DbFile {
     	return list;
     }
 
+    /**
+     * Fetch a single tuple by its RecordId, reading its page through the
+     * BufferPool. Used by indexes to turn their entries into tuples.
+     *
+     * @return the tuple, or null if the slot is empty
+     * @throws DbException if the RecordId is not in this file
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        PageId pageId = rid.getPageId();
+        if (pageId.getTableId() != this.id || pageId.getPageNumber() >= numPages()) {
+            throw new DbException("RecordId is not in this file");
+        }
+        HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+        if (tid != null && tid.isSnapshot()) {
+            Tuple current;
+            synchronized (heapPage) {
+                current = heapPage.getTuple(rid.getTupleNumber());
+            }
+            return Database.getVersionStore().visible(tid, rid, current);
+        }
+        return heapPage.getTuple(rid.getTupleNumber());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here -Done
@@ -228,7 +297,7 @@ public class HeapFile implements DbFile {
 			HeapPageId pageId = new HeapPageId(getId(), this.iteratorPagePos);
 			HeapPage page = (HeapPage) Database.getBufferPool()
 					        .getPage(this.tid, pageId, Permissions.READ_ONLY);
-			this.tupelIterator = page.iterator();
+			this.tupelIterator = tuplesOf(page);
 		}
 
 		@Override
@@ -241,13 +310,12 @@ public class HeapFile implements DbFile {
 			
 			// The there exists more pages.
 			if (this.iteratorPagePos < numPages() - 1 && this.iteratorPagePos >= 0) {
-				if(this.tupelIterator.hasNext()) {
-					return true;
-				} else {
+				// Skip pages that have no tuples, or none this
+				// transaction sees.
+				while (!this.tupelIterator.hasNext() && this.iteratorPagePos < numPages() - 1) {
 					tupleIteratorMove();
-//					return true;
-					return this.tupelIterator.hasNext();
 				}
+				return this.tupelIterator.hasNext();
 			// The last page.
 			} else if(this.iteratorPagePos == numPages() - 1) {
 				return this.tupelIterator.hasNext();
@@ -275,7 +343,7 @@ public class HeapFile implements DbFile {
 			try {
 				heapPage = (HeapPage) Database.getBufferPool()
 						   .getPage(this.tid, pageId, Permissions.READ_ONLY);
-				this.tupelIterator = heapPage.iterator();
+				this.tupelIterator = tuplesOf(heapPage);
 			} catch (TransactionAbortedException e) {
 				e.printStackTrace();
 			} catch (DbException e) {
@@ -283,6 +351,26 @@ public class HeapFile implements DbFile {
 			}
 		}
 
+		/**
+		 * A snapshot sees the tuples of a page that the VersionStore says it
+		 * sees; any other transaction holds a lock on the page and sees what
+		 * it holds.
+		 */
+		private Iterator<Tuple> tuplesOf(HeapPage page) {
+			if (this.tid == null || !this.tid.isSnapshot()) {
+				return page.iterator();
+			}
+			Tuple[] slots = page.copySlots();
+			Database.getVersionStore().visible(this.tid, page.getId(), slots);
+			List<Tuple> visible = new ArrayList<>();
+			for (Tuple t : slots) {
+				if (t != null) {
+					visible.add(t);
+				}
+			}
+			return visible.iterator();
+		}
+
 		@Override
 		public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
 			// It has closed.
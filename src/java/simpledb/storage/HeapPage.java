@@ -31,6 +31,8 @@ public class HeapPage implements Page {
     private boolean isDirty;
     /** The last transaction which modified this page. */
     private TransactionId tId;
+    /** LSN of the last log record for this page; kept in memory only. */
+    private volatile long lsn = NO_LSN;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -310,6 +312,27 @@ public class HeapPage implements Page {
     	}
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuples[i];
+    }
+
+    /**
+     * @return a copy of the slots of this page, null where a slot is empty;
+     *         taken while holding the page, which writers hold while they
+     *         change it and record the change in the VersionStore
+     */
+    synchronized Tuple[] copySlots() {
+        Tuple[] copy = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            copy[i] = getTuple(i);
+        return copy;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -330,6 +353,14 @@ public class HeapPage implements Page {
         return this.isDirty ? this.tId : null;      
     }
 
+    public long getLsn() {
+        return this.lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -375,6 +406,25 @@ public class HeapPage implements Page {
     	}
     }
 
+    /**
+     * Put a tuple in a given slot, replacing whatever is there. Used by
+     * recovery to redo an insert or undo a delete.
+     */
+    void setTuple(int slot, Tuple t) {
+    	t.setRecordId(new RecordId(this.pid, slot));
+    	this.tuples[slot] = t;
+    	markSlotUsed(slot, true);
+    }
+
+    /**
+     * Empty a given slot. Used by recovery to redo a delete or undo an
+     * insert.
+     */
+    void clearSlot(int slot) {
+    	this.tuples[slot] = null;
+    	markSlotUsed(slot, false);
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
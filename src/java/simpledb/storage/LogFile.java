@@ -2,12 +2,38 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashDirectoryPage;
+import simpledb.index.HashPageId;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
+import simpledb.common.LatencyHistogram;
+import simpledb.common.Metrics;
 
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -39,44 +65,128 @@ must not be declared synchronized and must begin with a block like:
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The log is kept in a header file, the file LogFile is created with,
+and in segment files next to it named after it plus a segment number
+("log.0", "log.1", ...).  Every segment is segmentSize bytes long, except
+the last one, which grows as records are appended.  The log is a single
+stream of bytes cut into segments; the LSN of a record is its offset in
+that stream, so segment n holds LSNs n * segmentSize up to (n + 1) *
+segmentSize, and a record may be split across two segments.
+
+<p> The format of the header file is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The first long integer of the file is the LSN of the BEGIN_CHECKPOINT
+record of the last completed checkpoint, or -1 if there are no
+checkpoints.
+
+<li> The second long integer is the LSN of the first record still in the
+log.  It tells which segment is the first one, and where to start
+reading when there is no checkpoint.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+</ul>
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<p> The format of the log records is as follows:
+
+<ul>
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> All data in the segments consists of log records.  Log records are
+variable length.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> Each log record begins with an integer type, a long integer
+transaction id and the LSN of the previous record of the same
+transaction, or -1 if this is its first record.
 
-<li> ABORT, COMMIT, and BEGIN records contain no additional data
+<li> Each log record ends with a long integer holding the LSN of the
+record itself, followed by an integer CRC32 checksum of all the bytes of
+the record before it.  Recovery takes the first record that does not
+match its checksum, which is normally one torn by a crash, for the end
+of the log.
+
+<li> There are nine record types: ABORT, COMMIT, UPDATE, BEGIN,
+BEGIN_CHECKPOINT, CHECKPOINT, INSERT, DELETE and CLR
+
+<li> ABORT, COMMIT, BEGIN and BEGIN_CHECKPOINT records contain no
+additional data.  An
+ABORT record is written once a transaction has been completely rolled
+back.
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
-
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+methods.  The page and id classes are written as a small integer tag,
+see PAGE_TAGS.  Page data is deflated unless that does not make it any
+smaller, or compression is turned off.  See LogFile.print() for an
+example.
+
+<li>INSERT and DELETE records describe a single tuple of a heap page
+rather than a whole page: the table id, page number and slot of the
+tuple, followed by the length of the tuple and the serialized tuple.
+Heap pages are only logged this way, so a small update costs a few
+dozen bytes of log instead of two page images.  An update of a tuple
+is logged as a DELETE followed by an INSERT.
+
+<li>CLR (compensation log) records are written while rolling back a
+change.  They hold the LSN of the next record of the transaction still
+to be undone, the type of the compensating change (INSERT, DELETE or
+UPDATE) and its data: a tuple as in INSERT and DELETE records, or for
+UPDATE only the page image being restored.  CLRs are redone but never
+undone.
+
+<li> CHECKPOINT records end a checkpoint and consist of the active
+transactions and the dirty pages at the time the checkpoint was taken.
+The format of the record is an integer count of the number of
+transactions, and for each active transaction its id, the LSN of its
+first record and the LSN of its last record; then an integer count of
+the number of dirty pages, and for each dirty page its id (see
+writePageId) and the LSN of the first record that dirtied it.
 
 </ul>
+
+<p> Checkpoints are fuzzy: they write no pages and do not stop other
+transactions for longer than it takes to append the two records.  The
+dirty page table is kept here, in the log, since every change to a page
+is logged before the page is written: a page enters the table with its
+first record and leaves it when the BufferPool reports it written, see
+pageWritten.  Recovery starts reading at the BEGIN_CHECKPOINT record and
+redoes from the oldest first record in the dirty page table, so as
+committed pages reach the disk the redo point moves forward, and the log
+before it can be truncated.  Truncation only deletes the segments that
+lie wholly before that point and updates the header, so it costs the
+same however long the log is, and records are never copied.
+
+<p> Records are not written to the file field by field.  They are
+serialized into an in-memory log buffer, which is written out in large
+sequential chunks when it fills up or when the log is forced.  Pages
+remember the LSN of the last record describing them, and the BufferPool only forces the
+log up to that LSN before writing a page.
+
+<p> Commits use group commit: logCommit appends the COMMIT record and
+then waits for a log writer thread, which forces the log once for every
+commit that queued up while the previous force was running.  Concurrent
+committers therefore share fsyncs instead of paying one each.
+
+<p> Recovery first has the BufferPool copy back any heap page the crash
+may have torn, see DoubleWriteBuffer.  Then it follows ARIES.  An analysis pass reads forward from the
+last checkpoint to rebuild the table of active transactions and the
+table of pages dirtied since the checkpoint.  A redo pass repeats
+history from the oldest of those pages' first records, on several
+threads that each take the changes to a share of the pages; an undo pass
+rolls back every transaction that neither committed nor aborted,
+writing CLRs so that a crash during recovery never undoes a change
+twice.  Heap pages have no room for a page LSN on disk, so redo does not
+compare LSNs; instead every change is redone in a form that can be
+applied any number of times (fill or empty a slot, install a page
+image).
 */
 public class LogFile {
 
     final File logFile;
+    /** The header file */
     private RandomAccessFile raf;
+    /** Heap pages go through it on their way to disk; it lives next to the log. */
+    private final DoubleWriteBuffer doubleWrite;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,16 +194,233 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int INSERT_RECORD = 6;
+    static final int DELETE_RECORD = 7;
+    static final int CLR_RECORD = 8;
+    static final int BEGIN_CHECKPOINT_RECORD = 9;
     static final long NO_CHECKPOINT_ID = -1;
+    /** prevLsn of the first record of a transaction */
+    static final long NO_LSN = Page.NO_LSN;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /** Checkpoint LSN and LSN of the first record in the log. */
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
 
+    /** Size of a log segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 24;
+    private static int segmentSize = DEFAULT_SEGMENT_SIZE;
+    /** segmentSize when this log was created */
+    private final long segmentBytes;
+
+    /** The LSN the next record will have. */
     long currentOffset = -1;//protected by this
+    /** LSN of the first record still in the log; the segments before
+        the one holding it have been deleted. */
+    private long firstLsn = 0; //protected by this
+    /** Open segments, by segment number. */
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>(); //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    /** LSN of the first and of the last record of every active transaction. */
     final HashMap<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    final HashMap<Long,Long> tidToLastLogRecord = new HashMap<>();
+    /** LSN of the first record that changed each page not yet written since. */
+    final HashMap<PageId,Long> dirtyPages = new HashMap<>();
+
+    /** Page classes, and the class of their ids, that may appear in the
+        log.  A page image is tagged with its row in this table. */
+    private static final Class<?>[][] PAGE_TAGS = {
+        {HeapPage.class, HeapPageId.class},
+        {BTreeRootPtrPage.class, BTreePageId.class},
+        {BTreeInternalPage.class, BTreePageId.class},
+        {BTreeLeafPage.class, BTreePageId.class},
+        {HashDirectoryPage.class, HashPageId.class},
+        {HashBucketPage.class, HashPageId.class},
+        {ColumnDirectoryPage.class, ColumnPageId.class},
+        {ColumnDataPage.class, ColumnPageId.class},
+    };
+
+    /** Size of the in-memory buffer log records are serialized into. */
+    static final int LOG_BUFFER_SIZE = 1 << 16;
+
+    /** Records not yet written to the segments, starting at LSN bufferOffset. */
+    private final ByteBuffer logBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE); //protected by this
+    private long bufferOffset = 0; //protected by this
+    /** Appends to logBuffer.  Only used while holding the lock on this. */
+    private final LogBufferStream logOut = new LogBufferStream();
+    private final DataOutputStream out = new DataOutputStream(logOut);
+
+    /** Whether page images are compressed, see writePageData. */
+    private static boolean compressPages = true;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED); //protected by this
+    private final Inflater inflater = new Inflater(); //protected by this
+
+    /** Reads records back from the segments.  Only used while holding the
+        lock on this, after flushing the log buffer. */
+    private final LogInputStream logIn = new LogInputStream();
+    private final DataInputStream in = new DataInputStream(logIn);
+
+    /** Number of threads recovery redoes changes with. */
+    static final int REDO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /** Tells a redo worker there are no more changes. */
+    private static final LogRecord END_OF_REDO = new LogRecord();
+
+    /** How long the log writer thread waits for work before exiting. */
+    static final long WRITER_IDLE_MILLIS = 1000;
+
+    /** Commits waiting for the log writer, in arrival order. */
+    private final LinkedBlockingQueue<ForceRequest> forceQueue = new LinkedBlockingQueue<>();
+    private Thread logWriter; // protected by forceQueue
+    /** Every byte of the log before this LSN is on disk. */
+    private volatile long durableLsn = 0;
+    int totalForces = 0; // for tests //protected by this
+
+    /** Metrics shared by every LogFile, see Metrics. */
+    private static final LongAdder RECORDS = Metrics.counter("log.records");
+    private static final LongAdder BYTES = Metrics.counter("log.bytes");
+    /** Time each force of the log takes; its count is the number of forces. */
+    private static final LatencyHistogram FORCES = Metrics.histogram("log.force_nanos");
+
+    /** A committer waiting for the log to be forced up to lsn. */
+    private static class ForceRequest {
+        final long lsn;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        ForceRequest(long lsn) {
+            this.lsn = lsn;
+        }
+    }
+
+    /** Copies whatever is written to it into logBuffer, writing the
+        buffer out to the file whenever it fills up, and keeps the checksum
+        of the record being appended. */
+    private class LogBufferStream extends OutputStream {
+        /** Checksum of the record being appended */
+        final CRC32 crc = new CRC32();
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!logBuffer.hasRemaining())
+                flushBuffer();
+            logBuffer.put((byte) b);
+            crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            crc.update(b, off, len);
+            while (len > 0) {
+                if (!logBuffer.hasRemaining())
+                    flushBuffer();
+                int n = Math.min(len, logBuffer.remaining());
+                logBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /** Reads the log from the segments, starting at the LSN it was
+        positioned at with seek.  Reaches its end at the first byte not
+        written to a segment yet. */
+    private class LogInputStream extends InputStream {
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        /** LSN of the first byte in buf */
+        private long bufStart = 0;
+        long position = 0;
+        /** Checksum of the bytes read since the start of the record */
+        final CRC32 crc = new CRC32();
+
+        void seek(long lsn) {
+            position = lsn;
+            // the end of the log changes when recovery cuts off a torn record
+            buf.limit(0);
+        }
+
+        /** Make sure buf holds the byte at position.
+            @return false at the end of the log */
+        private boolean fill() throws IOException {
+            if (position >= bufStart && position < bufStart + buf.limit())
+                return true;
+            if (position >= bufferOffset)
+                return false;
+            FileChannel segment = segment(position / segmentBytes, false);
+            if (segment == null)
+                return false;
+            long offset = position % segmentBytes;
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(),
+                    Math.min(segmentBytes - offset, bufferOffset - position)));
+            bufStart = position;
+            while (buf.hasRemaining()) {
+                if (segment.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            buf.flip();
+            return buf.hasRemaining();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill())
+                return -1;
+            int b = buf.get((int) (position++ - bufStart)) & 0xff;
+            crc.update(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int start = (int) (position - bufStart);
+            int n = Math.min(len, buf.limit() - start);
+            System.arraycopy(buf.array(), start, b, off, n);
+            crc.update(b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    /** A log record read back from the file. */
+    static class LogRecord {
+        int type;
+        long tid;
+        long prevLsn;
+        long lsn;
+        /** LSN just past the end of this record */
+        long endLsn;
+
+        /** The change the record describes: INSERT_RECORD, DELETE_RECORD,
+            UPDATE_RECORD, or 0 if it changes no page.  For a CLR this is
+            the compensating change. */
+        int change;
+        /** CLR only: the next record of the transaction to undo */
+        long undoNextLsn;
+
+        // INSERT and DELETE
+        int tableId;
+        int pgNo;
+        int slot;
+        byte[] tupleData;
+
+        // UPDATE; a CLR only has the after image
+        Page before;
+        Page after;
+
+        /** CHECKPOINT only: {tid, first LSN, last LSN} of each active transaction */
+        long[][] activeXactions;
+        /** CHECKPOINT only: the first record that changed each dirty page */
+        Map<PageId, Long> dirtyPages;
+
+        PageId pageId() {
+            return change == UPDATE_RECORD ? after.getId() : new HeapPageId(tableId, pgNo);
+        }
+    }
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -109,6 +436,9 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        doubleWrite = new DoubleWriteBuffer(
+                new File(f.getAbsoluteFile().getParentFile(), f.getName() + ".doublewrite"));
+        segmentBytes = segmentSize;
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,20 +459,139 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
+            for (FileChannel segment : segments.values())
+                segment.close();
+            segments.clear();
+            File[] files = logFile.getAbsoluteFile().getParentFile().listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                if (file.getName().matches(java.util.regex.Pattern.quote(logFile.getName()) + "\\.\\d+"))
+                    file.delete();
+            }
+            // a batch left by an earlier database must never be restored
+            doubleWrite.clear();
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            raf.writeLong(0);
+            firstLsn = 0;
+            currentOffset = 0;
+            bufferOffset = currentOffset;
+            logBuffer.clear();
         }
     }
 
+    /** @return the double-write buffer heap pages of this log's database are written through */
+    public DoubleWriteBuffer getDoubleWriteBuffer() {
+        return doubleWrite;
+    }
+
+    /** Change the size of the segments of logs created from now on.  A
+        log must be recovered with the segment size it was written with.
+        For testing. */
+    public static void setSegmentSize(int size) {
+        segmentSize = size;
+    }
+
+    public static void resetSegmentSize() {
+        segmentSize = DEFAULT_SEGMENT_SIZE;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(logFile.getPath() + "." + segment);
+    }
+
+    /** @param create whether to create the segment if it does not exist
+        @return the open segment, or null if it does not exist */
+    private synchronized FileChannel segment(long segment, boolean create) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null && (create || segmentFile(segment).exists())) {
+            channel = new RandomAccessFile(segmentFile(segment), "rw").getChannel();
+            segments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    /** @return the open segments holding LSNs from, up to to */
+    private synchronized List<FileChannel> segmentsBetween(long from, long to) {
+        if (from >= to)
+            return Collections.emptyList();
+        return new ArrayList<>(segments.subMap(from / segmentBytes, true, (to - 1) / segmentBytes, true).values());
+    }
+
+    /** @return the LSN the next appended byte will have */
+    private long filePointer() {
+        return bufferOffset + logBuffer.position();
+    }
+
+    /** Write the contents of the log buffer to the end of the log, cutting
+        it where a segment ends.  Does not force them to disk. */
+    private synchronized void flushBuffer() throws IOException {
+        logBuffer.flip();
+        while (logBuffer.hasRemaining()) {
+            long offset = bufferOffset % segmentBytes;
+            ByteBuffer chunk = logBuffer.duplicate();
+            chunk.limit(chunk.position() + (int) Math.min(logBuffer.remaining(), segmentBytes - offset));
+            int n = segment(bufferOffset / segmentBytes, true).write(chunk, offset);
+            logBuffer.position(logBuffer.position() + n);
+            bufferOffset += n;
+        }
+        logBuffer.clear();
+    }
+
+    /** @return the LSN the next log record will have */
+    public synchronized long getCurrentLsn() {
+        return currentOffset;
+    }
+
+    /** @return the LSN of the first record still in the log */
+    public synchronized long getFirstLsn() {
+        return firstLsn;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
-    
-    /** Write an abort record to the log for the specified tid, force
-        the log to disk, and perform a rollback
+
+    /** @return the number of times the log has been forced to disk */
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
+
+    /** Start appending a record of transaction tid: write the record type,
+        tid and the LSN of tid's previous record, and remember this record
+        as tid's last.  Finish the record with endRecord.
+        @return the LSN of the new record
+    */
+    private long beginRecord(int type, long tid) throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        Long prev = tidToLastLogRecord.put(tid, lsn);
+        tidToFirstLogRecord.putIfAbsent(tid, lsn);
+        logOut.crc.reset();
+        out.writeInt(type);
+        out.writeLong(tid);
+        out.writeLong(prev == null ? NO_LSN : prev);
+        return lsn;
+    }
+
+    /** Finish the record that beginRecord started at lsn. */
+    private void endRecord(long lsn) throws IOException {
+        out.writeLong(lsn);
+        out.writeInt((int) logOut.crc.getValue());
+        currentOffset = filePointer();
+        RECORDS.increment();
+        BYTES.add(currentOffset - lsn);
+    }
+
+    /** Forget about a transaction that committed or finished aborting. */
+    private void endXaction(long tid) {
+        tidToFirstLogRecord.remove(tid);
+        tidToLastLogRecord.remove(tid);
+    }
+
+    /** Write an abort record to the log for the specified tid, after
+        rolling back its changes.  Does nothing for a transaction that
+        has not written anything to the log, or has already aborted.
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
@@ -152,40 +601,42 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
-                preAppend();
+                if (!tidToLastLogRecord.containsKey(tid.getId()))
+                    return;
                 //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
 
                 // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
+                // live transactions (needs tidToLastLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                // the ABORT record need not be forced: if it is lost,
+                // recovery finds the CLRs and finishes the rollback
+                endRecord(beginRecord(ABORT_RECORD, tid.getId()));
+                endXaction(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with any other
+        transactions committing at the same time, see forceAsync.
+        Does nothing for a transaction that has not written anything to
+        the log.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            if (!tidToLastLogRecord.containsKey(tid.getId()))
+                return;
+            Debug.log("COMMIT " + tid.getId());
+
+            lsn = beginRecord(COMMIT_RECORD, tid.getId());
+            endRecord(lsn);
+            endXaction(tid.getId());
+        }
+        force(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -194,93 +645,257 @@ public class LogFile {
         @param before The before image of the page
         @param after The after image of the page
 
+        @return the LSN of the record, to be stored as the page's LSN
         @see Page#getBeforeImage
+        @see Page#setLsn
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
+        Debug.log("WRITE, offset = " + currentOffset);
         /* update record conists of
 
            record type
            transaction id
+           previous LSN of the transaction
            before page data (see writePageData)
            after page data
-           start offset
+           LSN
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = beginRecord(UPDATE_RECORD, tid.getId());
+        writePageData(out,before);
+        writePageData(out,after);
+        endRecord(lsn);
+        dirtyPages.putIfAbsent(after.getId(), lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
+    }
+
+    /** Write an INSERT record for a tuple that was just added to a heap
+        page.
+        @param tid The transaction performing the insert
+        @param t The inserted tuple; its RecordId says where it went
+        @return the LSN of the record, to be stored as the page's LSN
+    */
+    public synchronized long logInsert(TransactionId tid, Tuple t)
+        throws IOException {
+        return logTupleDelta(INSERT_RECORD, tid, t.getRecordId(), t);
+    }
+
+    /** Write a DELETE record for a tuple that was just removed from a
+        heap page.
+        @param tid The transaction performing the delete
+        @param rid Where the tuple was stored
+        @param t The deleted tuple, needed to undo the delete
+        @return the LSN of the record, to be stored as the page's LSN
+    */
+    public synchronized long logDelete(TransactionId tid, RecordId rid, Tuple t)
+        throws IOException {
+        return logTupleDelta(DELETE_RECORD, tid, rid, t);
+    }
+
+    private long logTupleDelta(int type, TransactionId tid, RecordId rid, Tuple t)
+        throws IOException {
+        /* insert and delete records consist of
+
+           record type
+           transaction id
+           previous LSN of the transaction
+           table id, page number and slot of the tuple
+           tuple length
+           tuple data
+           LSN
+        */
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(t.getTupleDesc().getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            t.getField(i).serialize(dos);
+        }
+        long lsn = beginRecord(type, tid.getId());
+        writeTupleDelta(rid.getPageId().getTableId(), rid.getPageId().getPageNumber(),
+                rid.getTupleNumber(), baos.toByteArray());
+        endRecord(lsn);
+        dirtyPages.putIfAbsent(rid.getPageId(), lsn);
+        return lsn;
+    }
+
+    private void writeTupleDelta(int tableId, int pgNo, int slot, byte[] tupleData)
+        throws IOException {
+        out.writeInt(tableId);
+        out.writeInt(pgNo);
+        out.writeInt(slot);
+        out.writeInt(tupleData.length);
+        out.write(tupleData);
+    }
+
+    private void readTupleDelta(LogRecord r) throws IOException {
+        r.tableId = in.readInt();
+        r.pgNo = in.readInt();
+        r.slot = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > BufferPool.getPageSize())
+            throw new IOException("bad tuple length " + length);
+        r.tupleData = new byte[length];
+        in.readFully(r.tupleData);
+    }
+
+    /** Write a CLR recording that the change in undone has been undone by
+        the compensating change in clr.
+        @return the LSN of the CLR
+    */
+    private long logClr(LogRecord undone, LogRecord clr) throws IOException {
+        long lsn = beginRecord(CLR_RECORD, undone.tid);
+        out.writeLong(undone.prevLsn);
+        out.writeInt(clr.change);
+        if (clr.change == UPDATE_RECORD) {
+            writePageData(out, clr.after);
+        } else {
+            writeTupleDelta(clr.tableId, clr.pgNo, clr.slot, clr.tupleData);
+        }
+        endRecord(lsn);
+        dirtyPages.putIfAbsent(clr.pageId(), lsn);
+        return lsn;
+    }
+
+    /** @return the row of PAGE_TAGS that p's class is in */
+    static int pageTag(Page p) {
+        for (int tag = 0; tag < PAGE_TAGS.length; tag++) {
+            if (PAGE_TAGS[tag][0] == p.getClass())
+                return tag;
+        }
+        throw new IllegalArgumentException("no log tag for " + p.getClass().getName());
+    }
+
+    /** Write a page id: the row of PAGE_TAGS its class is in, and its
+        serialized fields. */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int tag = 0;
+        while (tag < PAGE_TAGS.length && PAGE_TAGS[tag][1] != pid.getClass())
+            tag++;
+        if (tag == PAGE_TAGS.length)
+            throw new IllegalArgumentException("no log tag for " + pid.getClass().getName());
+        int[] idInfo = pid.serialize();
+        out.writeInt(tag);
+        out.writeInt(idInfo.length);
+        for (int j : idInfo) {
+            out.writeInt(j);
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    static PageId readPageId(DataInput in) throws IOException {
+        int tag = in.readInt();
+        if (tag < 0 || tag >= PAGE_TAGS.length)
+            throw new IOException("bad page id tag " + tag);
+        Constructor<?> idConst = PAGE_TAGS[tag][1].getDeclaredConstructors()[0];
+        int numIdArgs = in.readInt();
+        if (numIdArgs != idConst.getParameterCount())
+            throw new IOException("bad page id length " + numIdArgs);
+        Object[] idArgs = new Object[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++) {
+            idArgs[i] = in.readInt();
+        }
+        try {
+            return (PageId) idConst.newInstance(idArgs);
+        } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException("bad page id", e);
+        }
+    }
+
+    void writePageData(DataOutput out, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
+        // page tag
         // id class bytes
         // id class data
         // page class bytes
+        // stored page class bytes, less if deflated
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        out.writeInt(pageTag(p));
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            out.writeInt(j);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        out.writeInt(pageData.length);
+        if (compressPages) {
+            byte[] deflated = new byte[pageData.length];
+            deflater.reset();
+            deflater.setInput(pageData);
+            deflater.finish();
+            int n = deflater.deflate(deflated);
+            if (deflater.finished() && n < pageData.length) {
+                out.writeInt(n);
+                out.write(deflated, 0, n);
+                return;
+            }
+        }
+        out.writeInt(pageData.length);
+        out.write(pageData);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    /** Turn compression of the page images written to the log on or off.
+        Logs written either way can be read back. */
+    public static void setCompressPages(boolean compress) {
+        compressPages = compress;
+    }
+
+    Page readPageData(DataInput in) throws IOException {
         PageId pid;
         Page newPage = null;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        int tag = in.readInt();
+        if (tag < 0 || tag >= PAGE_TAGS.length)
+            throw new IOException("bad page tag " + tag);
 
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
+            Class<?> pageClass = PAGE_TAGS[tag][0];
+            Class<?> idClass = PAGE_TAGS[tag][1];
 
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            int numIdArgs = in.readInt();
+            if (numIdArgs != idConsts[0].getParameterCount())
+                throw new IOException("bad page id length " + numIdArgs);
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+                idArgs[i] = in.readInt();
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+            int pageSize = in.readInt();
+            if (pageSize != BufferPool.getPageSize())
+                throw new IOException("bad page length " + pageSize);
 
+            int storedSize = in.readInt();
+            if (storedSize < 0 || storedSize > pageSize)
+                throw new IOException("bad stored page length " + storedSize);
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            if (storedSize == pageSize) {
+                in.readFully(pageData); //read before image
+            } else {
+                byte[] deflated = new byte[storedSize];
+                in.readFully(deflated);
+                inflater.reset();
+                inflater.setInput(deflated);
+                try {
+                    if (inflater.inflate(pageData) != pageSize || !inflater.finished())
+                        throw new IOException("bad deflated page");
+                } catch (DataFormatException e) {
+                    throw new IOException("bad deflated page", e);
+                }
+            }
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
             newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -288,6 +903,82 @@ public class LogFile {
 
     }
 
+    /** Read the record starting at the current position of logIn.
+        @throws EOFException if the log ends inside the record
+        @throws IOException if the record is not well formed, or does not
+        match its checksum
+    */
+    private LogRecord readRecord() throws IOException {
+        LogRecord r = new LogRecord();
+        r.lsn = logIn.position;
+        logIn.crc.reset();
+        r.type = in.readInt();
+        r.tid = in.readLong();
+        r.prevLsn = in.readLong();
+        switch (r.type) {
+        case UPDATE_RECORD:
+            r.change = UPDATE_RECORD;
+            r.before = readPageData(in);
+            r.after = readPageData(in);
+            break;
+        case INSERT_RECORD:
+        case DELETE_RECORD:
+            r.change = r.type;
+            readTupleDelta(r);
+            break;
+        case CLR_RECORD:
+            r.undoNextLsn = in.readLong();
+            r.change = in.readInt();
+            if (r.change == UPDATE_RECORD) {
+                r.after = readPageData(in);
+            } else if (r.change == INSERT_RECORD || r.change == DELETE_RECORD) {
+                readTupleDelta(r);
+            } else {
+                throw new IOException("bad CLR change " + r.change);
+            }
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = in.readInt();
+            if (numXactions < 0 || numXactions > (bufferOffset - r.lsn) / (3 * LONG_SIZE))
+                throw new IOException("bad checkpoint size " + numXactions);
+            r.activeXactions = new long[numXactions][3];
+            for (long[] xaction : r.activeXactions) {
+                for (int i = 0; i < 3; i++)
+                    xaction[i] = in.readLong();
+            }
+            int numPages = in.readInt();
+            if (numPages < 0 || numPages > (bufferOffset - r.lsn) / (3 * INT_SIZE + LONG_SIZE))
+                throw new IOException("bad checkpoint size " + numPages);
+            r.dirtyPages = new HashMap<>();
+            for (int i = 0; i < numPages; i++) {
+                PageId pid = readPageId(in);
+                r.dirtyPages.put(pid, in.readLong());
+            }
+            break;
+        case ABORT_RECORD:
+        case COMMIT_RECORD:
+        case BEGIN_RECORD:
+        case BEGIN_CHECKPOINT_RECORD:
+            break;
+        default:
+            throw new IOException("bad record type " + r.type);
+        }
+        if (in.readLong() != r.lsn)
+            throw new IOException("log record at " + r.lsn + " is corrupt");
+        int crc = (int) logIn.crc.getValue();
+        if (in.readInt() != crc)
+            throw new IOException("log record at " + r.lsn + " fails its checksum");
+        r.endLsn = logIn.position;
+        return r;
+    }
+
+    /** Read the record with the given LSN. */
+    private LogRecord readRecordAt(long lsn) throws IOException {
+        flushBuffer();
+        logIn.seek(lsn);
+        return readRecord();
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -299,151 +990,127 @@ public class LogFile {
             System.err.print("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        endRecord(beginRecord(BEGIN_RECORD, tid.getId()));
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Take a fuzzy checkpoint: write a BEGIN_CHECKPOINT record and a
+        CHECKPOINT record with the active transactions and the dirty pages,
+        and once both are durable point the log header at the first.  No
+        pages are written, and other transactions only wait while the
+        records are appended. */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+        long beginLsn;
+        synchronized (this) {
+            preAppend();
+            beginLsn = beginCheckpointRecord(BEGIN_CHECKPOINT_RECORD);
+            endRecord(beginLsn);
+
+            long endLsn = beginCheckpointRecord(CHECKPOINT_RECORD);
+            //write list of outstanding transactions
+            out.writeInt(tidToLastLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToLastLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(tidToFirstLogRecord.get(e.getKey()));
+                out.writeLong(e.getValue());
             }
+            //and of pages whose changes may not be on disk
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
+            }
+            endRecord(endLsn);
+        }
+        force(beginLsn);
+
+        synchronized (this) {
+            //once the CP is durable, make sure the CP location at the
+            // beginning of the log file is updated
+            raf.seek(0);
+            raf.writeLong(beginLsn);
+            raf.getChannel().force(true);
         }
 
         logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+    /** Like beginRecord, for a record that belongs to no transaction. */
+    private long beginCheckpointRecord(int type) throws IOException {
+        long lsn = currentOffset;
+        logOut.crc.reset();
+        out.writeInt(type);
+        out.writeLong(-1); //no tid , but leave space for convenience
+        out.writeLong(NO_LSN);
+        return lsn;
+    }
 
-        long minLogRecord = cpLoc;
+    /** Called by the BufferPool once a page has been written to disk, so
+        that its changes no longer need to be redone. */
+    public synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  Everything before the last checkpoint, before the
+        first record of every transaction active then or now, and before
+        the first change to every page dirty then or now can go.  The
+        checkpoint's own lists count, since recovery starts from them,
+        even if a page was written since.  Only whole segments are
+        dropped, and appends only wait while the header is updated. */
+    public void logTruncate() throws IOException {
+        List<File> dropped = new ArrayList<>();
+        synchronized (this) {
+            preAppend();
+            raf.seek(0);
+            long cpLsn = raf.readLong();
+            if (cpLsn == NO_CHECKPOINT_ID)
+                return;
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+            long minLsn = checkpointMinLsn(cpLsn);
+            for (long first : tidToFirstLogRecord.values()) {
+                minLsn = Math.min(minLsn, first);
             }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+            for (long recLsn : dirtyPages.values()) {
+                minLsn = Math.min(minLsn, recLsn);
             }
-        }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+            long oldFirst = firstLsn / segmentBytes;
+            long newFirst = minLsn / segmentBytes;
+            if (newFirst == oldFirst)
+                return;
+
+            // the header must not point at a deleted segment
+            raf.seek(LONG_SIZE);
+            raf.writeLong(minLsn);
+            raf.getChannel().force(true);
+            firstLsn = minLsn;
+
+            Debug.log("TRUNCATING LOG; DROPPING SEGMENTS " + oldFirst + " TO " + (newFirst - 1));
+            for (long segment = oldFirst; segment < newFirst; segment++) {
+                FileChannel channel = segments.remove(segment);
+                if (channel != null)
+                    channel.close();
+                dropped.add(segmentFile(segment));
             }
         }
+        for (File file : dropped)
+            file.delete();
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+    /** @return the earliest record recovery from the checkpoint at cpLsn
+        reads: the checkpoint, or the first record of a transaction or
+        the first change to a page it lists */
+    private long checkpointMinLsn(long cpLsn) throws IOException {
+        LogRecord begin = readRecordAt(cpLsn);
+        LogRecord cp = readRecordAt(begin.endLsn);
+        long minLsn = cpLsn;
+        for (long[] xaction : cp.activeXactions)
+            minLsn = Math.min(minLsn, xaction[1]);
+        for (long recLsn : cp.dirtyPages.values())
+            minLsn = Math.min(minLsn, recLsn);
+        return minLsn;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -452,6 +1119,10 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        <p> Each change is undone on the page as it is on disk, a CLR is
+        written for it, and once the CLRs are durable the pages are
+        written back and dropped from the BufferPool.
+
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
@@ -459,7 +1130,21 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long lsn = tidToLastLogRecord.get(tid.getId());
+                if (lsn == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not active");
+
+                Map<PageId, Page> pages = new HashMap<>();
+                while (lsn != NO_LSN) {
+                    LogRecord r = readRecordAt(lsn);
+                    if (r.type == CLR_RECORD) {
+                        lsn = r.undoNextLsn;
+                    } else {
+                        undo(r, pages);
+                        lsn = r.prevLsn;
+                    }
+                }
+                installPages(pages);
             }
         }
     }
@@ -468,10 +1153,14 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                for (FileChannel segment : segments.values())
+                    segment.close();
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -481,23 +1170,437 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        The Catalog must hold every table the log refers to, or have a
+        system catalog open that records it.  The system catalog is read
+        only once its own tables are repaired, and again once recovery is
+        done.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+                Database.getCatalog().beginRecovery();
+                try {
+                    recoverWithCatalog();
+                } finally {
+                    Database.getCatalog().endRecovery();
+                }
             }
-         }
+        }
+    }
+
+    /** recover() with the Catalog in recovery, see Catalog.beginRecovery. */
+    private void recoverWithCatalog() throws IOException {
+        recoveryUndecided = false;
+        // pages torn by the crash must be whole before redo reads
+        // them; those of tables the Catalog doesn't know yet wait
+        // until the system catalog is read
+        List<HeapPage> torn = doubleWrite.restore();
+        if (raf.length() < HEADER_SIZE) {
+            Database.getCatalog().loadForRecovery(Collections.emptyMap());
+            doubleWrite.restore(torn);
+            recoveryUndecided = true;
+            preAppend();
+            return;
+        }
+        raf.seek(0);
+        long cpLsn = raf.readLong();
+        firstLsn = raf.readLong();
+        long lastSegment = firstLsn / segmentBytes;
+        while (segmentFile(lastSegment + 1).exists())
+            lastSegment++;
+        // readable up to the end of the last segment for now
+        bufferOffset = lastSegment * segmentBytes + segmentFile(lastSegment).length();
+        logBuffer.clear();
+        tidToFirstLogRecord.clear();
+        tidToLastLogRecord.clear();
+        dirtyPages.clear();
+
+        // analysis: active transactions and pages dirtied since the
+        // checkpoint, with the first record that dirtied each
+        long endLsn = cpLsn == NO_CHECKPOINT_ID ? firstLsn : cpLsn;
+        logIn.seek(endLsn);
+        while (true) {
+            LogRecord r;
+            try {
+                r = readRecord();
+            } catch (IOException e) {
+                break; // end of the log, or a record torn by the crash
+            }
+            endLsn = r.endLsn;
+            switch (r.type) {
+            case CHECKPOINT_RECORD:
+                // taken after every record read so far, so it
+                // knows better where the transactions are
+                for (long[] xaction : r.activeXactions) {
+                    tidToFirstLogRecord.put(xaction[0], xaction[1]);
+                    tidToLastLogRecord.put(xaction[0], xaction[2]);
+                }
+                for (Map.Entry<PageId, Long> e : r.dirtyPages.entrySet())
+                    dirtyPages.merge(e.getKey(), e.getValue(), Math::min);
+                break;
+            case BEGIN_CHECKPOINT_RECORD:
+                break;
+            case COMMIT_RECORD:
+            case ABORT_RECORD:
+                endXaction(r.tid);
+                break;
+            default:
+                tidToFirstLogRecord.putIfAbsent(r.tid, r.lsn);
+                tidToLastLogRecord.put(r.tid, r.lsn);
+                if (r.change != 0)
+                    dirtyPages.putIfAbsent(r.pageId(), r.lsn);
+            }
+        }
+
+        // drop whatever follows the last whole record, and append
+        // from there
+        currentOffset = endLsn;
+        segment(endLsn / segmentBytes, true).truncate(endLsn % segmentBytes);
+        for (long segment = endLsn / segmentBytes + 1; segment <= lastSegment; segment++) {
+            FileChannel channel = segments.remove(segment);
+            if (channel != null)
+                channel.close();
+            segmentFile(segment).delete();
+        }
+        bufferOffset = currentOffset;
+        logBuffer.clear();
+        durableLsn = endLsn;
+
+        // redo: repeat history from the oldest change that may not
+        // have reached disk.  The tables the Catalog knows, among
+        // them the system catalog's, go first; the system catalog is
+        // read from them, and then the other tables are redone.
+        Map<PageId, Page> pages = new HashMap<>();
+        Set<Integer> later = new HashSet<>();
+        // nothing before firstLsn is left to redo, even if a page's first
+        // change is older
+        long redoLsn = dirtyPages.isEmpty() ? -1 : Math.max(firstLsn, Collections.min(dirtyPages.values()));
+        if (redoLsn != -1) {
+            redoAll(redoLsn, pages, tableid -> {
+                if (Database.getCatalog().contains(tableid))
+                    return true;
+                later.add(tableid);
+                return false;
+            });
+        }
+        Database.getCatalog().loadForRecovery(pages);
+        doubleWrite.restore(torn);
+        if (!later.isEmpty())
+            redoAll(redoLsn, pages, later::contains);
+
+        // undo: roll back the losers together, latest record first
+        TreeSet<Long> toUndo = new TreeSet<>(tidToLastLogRecord.values());
+        while (!toUndo.isEmpty()) {
+            LogRecord r = readRecordAt(toUndo.pollLast());
+            long next;
+            if (r.type == CLR_RECORD) {
+                next = r.undoNextLsn;
+            } else {
+                undo(r, pages);
+                next = r.prevLsn;
+            }
+            if (next != NO_LSN) {
+                toUndo.add(next);
+            } else {
+                endRecord(beginRecord(ABORT_RECORD, r.tid));
+                endXaction(r.tid);
+            }
+        }
+        installPages(pages);
+        dirtyPages.clear();
+    }
+
+    /** Redo every change from redoLsn on to a page in the dirty page
+        table.  This thread reads the log and hands each change to one of
+        REDO_THREADS workers, chosen by the page it changes, so the changes
+        to a page are applied in LSN order while different pages are
+        redone in parallel.
+        @param pages receives the redone pages
+        @param redoTable whether to redo the changes to a table, by id
+    */
+    private void redoAll(long redoLsn, Map<PageId, Page> pages, IntPredicate redoTable) throws IOException {
+        int threads = REDO_THREADS;
+        List<LinkedBlockingQueue<LogRecord>> queues = new ArrayList<>();
+        List<Map<PageId, Page>> redone = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                LinkedBlockingQueue<LogRecord> queue = new LinkedBlockingQueue<>();
+                Map<PageId, Page> workerPages = new HashMap<>();
+                queues.add(queue);
+                redone.add(workerPages);
+                workers.add(pool.submit(() -> {
+                    for (LogRecord r = queue.take(); r != END_OF_REDO; r = queue.take())
+                        redo(r, workerPages);
+                    return null;
+                }));
+            }
+
+            logIn.seek(redoLsn);
+            while (logIn.position < currentOffset) {
+                LogRecord r = readRecord();
+                if (r.change == 0)
+                    continue;
+                PageId pid = r.pageId();
+                Long recLsn = dirtyPages.get(pid);
+                if (recLsn != null && r.lsn >= recLsn && redoTable.test(pid.getTableId()))
+                    queues.get((pid.hashCode() & Integer.MAX_VALUE) % threads).add(r);
+            }
+        } finally {
+            for (LinkedBlockingQueue<LogRecord> queue : queues)
+                queue.add(END_OF_REDO);
+            pool.shutdown();
+        }
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted during redo");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException("redo failed", e.getCause());
+            }
+        }
+        for (Map<PageId, Page> workerPages : redone)
+            pages.putAll(workerPages);
+    }
+
+    /** @return the page pid, from pages if it is there, else from disk */
+    private Page getPage(PageId pid, Map<PageId, Page> pages) {
+        Page p = pages.get(pid);
+        if (p == null) {
+            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            pages.put(pid, p);
+        }
+        return p;
+    }
+
+    /** Apply the change r describes to pages; for a CLR, the compensating
+        change.  Applying a change twice has the same effect as once. */
+    private void redo(LogRecord r, Map<PageId, Page> pages) throws IOException {
+        switch (r.change) {
+        case UPDATE_RECORD:
+            pages.put(r.after.getId(), r.after);
+            break;
+        case INSERT_RECORD:
+            HeapPage p = (HeapPage) getPage(r.pageId(), pages);
+            p.setTuple(r.slot, parseTuple(r.tableId, r.tupleData));
+            break;
+        case DELETE_RECORD:
+            ((HeapPage) getPage(r.pageId(), pages)).clearSlot(r.slot);
+            break;
+        }
+    }
+
+    /** Undo the change r describes, if any: write a CLR for it and apply
+        the compensating change to pages. */
+    private void undo(LogRecord r, Map<PageId, Page> pages) throws IOException {
+        if (r.change == 0)
+            return;
+        LogRecord clr = new LogRecord();
+        switch (r.change) {
+        case UPDATE_RECORD:
+            clr.change = UPDATE_RECORD;
+            clr.after = r.before;
+            break;
+        case INSERT_RECORD:
+        case DELETE_RECORD:
+            clr.change = r.change == INSERT_RECORD ? DELETE_RECORD : INSERT_RECORD;
+            clr.tableId = r.tableId;
+            clr.pgNo = r.pgNo;
+            clr.slot = r.slot;
+            clr.tupleData = r.tupleData;
+            break;
+        }
+        logClr(r, clr);
+        redo(clr, pages);
+    }
+
+    private Tuple parseTuple(int tableId, byte[] tupleData) throws IOException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(tupleData));
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.setField(i, td.getFieldType(i).parse(dis));
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad tuple in log", e);
+        }
+        return t;
+    }
+
+    /** Force the log, so that the records describing pages are durable,
+        then write pages to disk and drop any cached copies of them.  Heap
+        pages go through the double-write buffer like any other write. */
+    private void installPages(Map<PageId, Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        force();
+        List<HeapPage> heapPages = new ArrayList<>();
+        for (Page p : pages.values()) {
+            if (p instanceof HeapPage)
+                heapPages.add((HeapPage) p);
+            else
+                Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        }
+        Database.getBufferPool().writeHeapPages(heapPages);
+        for (Page p : pages.values()) {
+            Database.getBufferPool().discardPage(p.getId());
+            dirtyPages.remove(p.getId());
+        }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            flushBuffer();
+            raf.seek(0);
+            long cpLsn = raf.readLong();
+            long first = raf.readLong();
+            System.out.println("checkpoint: " + cpLsn + ", first LSN: " + first);
+            logIn.seek(first);
+            try {
+                while (true) {
+                    LogRecord r = readRecord();
+                    String desc = r.lsn + ": type " + r.type + ", tid " + r.tid + ", prev " + r.prevLsn;
+                    if (r.type == CLR_RECORD)
+                        desc += ", undo next " + r.undoNextLsn;
+                    if (r.change != 0)
+                        desc += ", change " + r.change + " on " + r.pageId();
+                    System.out.println(desc);
+                }
+            } catch (IOException e) {
+                System.out.println("end of log");
+            }
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        flushBuffer();
+        long start = System.nanoTime();
+        for (FileChannel segment : segmentsBetween(durableLsn, currentOffset))
+            segment.force(true);
+        FORCES.record(System.nanoTime() - start);
+        totalForces++;
+        durableLsn = Math.max(durableLsn, currentOffset);
+    }
+
+    /** Make sure the log record at the given LSN is on disk, forcing the
+        log in the calling thread if it is not.  Unlike force(long), this
+        may be called while holding the lock on this LogFile, e.g. when
+        the BufferPool writes pages during a checkpoint.
+        @param lsn a page LSN
+    */
+    public synchronized void forceTo(long lsn) throws IOException {
+        if (lsn != NO_LSN && lsn >= durableLsn)
+            force();
+    }
+
+    /** Wait until the log record at the given LSN is on disk.  Must not
+        be called while holding the lock on this LogFile.
+        @see #forceAsync
+    */
+    public void force(long lsn) throws IOException {
+        try {
+            forceAsync(lsn).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for log force");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /** Ask the log writer to force the log up to the record at the given
+        LSN.  The writer forces once for every request that is queued by
+        the time it gets to run, so concurrent callers share a single fsync.
+        @return a future completed once the record is durable
+    */
+    public CompletableFuture<Void> forceAsync(long lsn) {
+        ForceRequest req = new ForceRequest(lsn);
+        if (lsn < durableLsn) {
+            req.done.complete(null);
+            return req.done;
+        }
+        synchronized (forceQueue) {
+            forceQueue.add(req);
+            if (logWriter == null) {
+                logWriter = new Thread(this::runLogWriter, "simpledb-log-writer");
+                logWriter.setDaemon(true);
+                logWriter.start();
+            }
+        }
+        return req.done;
+    }
+
+    /** Force everything appended so far.  Unlike force(), the lock on
+        this LogFile is not held during the fsync, so committers can keep
+        appending records for the next batch meanwhile.
+    */
+    private void forceUnlocked() throws IOException {
+        List<FileChannel> unforced;
+        long end;
+        synchronized (this) {
+            flushBuffer();
+            unforced = segmentsBetween(durableLsn, currentOffset);
+            end = currentOffset;
+        }
+        long start = System.nanoTime();
+        for (FileChannel segment : unforced) {
+            try {
+                segment.force(true);
+            } catch (ClosedChannelException e) {
+                // truncated under us; its records are no longer needed
+            }
+        }
+        FORCES.record(System.nanoTime() - start);
+        synchronized (this) {
+            totalForces++;
+            if (end > durableLsn)
+                durableLsn = end;
+        }
+    }
+
+    /** Body of the log writer thread; exits after WRITER_IDLE_MILLIS without work. */
+    private void runLogWriter() {
+        List<ForceRequest> batch = new ArrayList<>();
+        while (true) {
+            ForceRequest first;
+            try {
+                first = forceQueue.poll(WRITER_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = null;
+            }
+            if (first == null) {
+                synchronized (forceQueue) {
+                    if (forceQueue.isEmpty()) {
+                        logWriter = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            batch.clear();
+            batch.add(first);
+            forceQueue.drainTo(batch);
+            try {
+                // every record in the batch was appended before this force
+                forceUnlocked();
+                for (ForceRequest req : batch)
+                    req.done.complete(null);
+            } catch (IOException e) {
+                for (ForceRequest req : batch)
+                    req.done.completeExceptionally(e);
+            }
+        }
     }
 
 }
@@ -58,4 +58,20 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * LSN of a page no logged change describes.  LSNs are offsets in the
+     * log, so 0 is the LSN of the first record.
+     */
+    long NO_LSN = -1;
+
+    /**
+     * Return the LSN of the last log record describing a change to this
+     * page, or NO_LSN if no change to it has been logged.  The log must be
+     * on disk up to this LSN before the page may be written.
+     */
+    long getLsn();
+
+    /** Record that the log record at the given LSN describes this page. */
+    void setLsn(long lsn);
 }
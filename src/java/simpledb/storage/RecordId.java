@@ -82,7 +82,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here -Done
-    	return Integer.valueOf(this.pageId.hashCode() + "" + this.tupleid);
+    	// Concatenating the digits overflows an int for most table ids.
+    	return 31 * this.pageId.hashCode() + this.tupleid;
 //      throw new UnsupportedOperationException("implement this");
     }
 }
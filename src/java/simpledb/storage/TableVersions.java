@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TableVersions tells whether a table may have changed since some earlier
+ * moment, for caches of what was read from it.
+ * <p>
+ * A table's version changes when a tuple is inserted into it or deleted
+ * from it, and again when the writer commits or aborts, so that something
+ * read while the writer was running is out of date once it finishes.
+ * Versions come from one counter shared by every BufferPool, so a version
+ * is never seen twice, not even across Database.reset.
+ * <p>
+ * For snapshot readers, which see the tables as they were when they
+ * started, it also remembers the VersionStore clock at which each table
+ * last finished changing: a snapshot that began at or after it sees the
+ * table as it is now.
+ *
+ * @Threadsafe
+ */
+public class TableVersions {
+
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private final Map<Integer, Long> versions = new HashMap<>();
+    /** The VersionStore clock when a writer of the table last finished. */
+    private final Map<Integer, Long> changedAt = new HashMap<>();
+    /** Writers of each table that are finishing, between completing and completed. */
+    private final Map<Integer, Integer> finishing = new HashMap<>();
+    /** The tables each running writer has changed. */
+    private final Map<TransactionId, Set<Integer>> written = new HashMap<>();
+
+    /** @return the version of a table */
+    public synchronized long version(int tableid) {
+        return versions.getOrDefault(tableid, 0L);
+    }
+
+    /**
+     * @return whether a snapshot that began at the VersionStore clock
+     *         beginTs sees the table as it is now, apart from changes
+     *         not yet committed
+     */
+    public synchronized boolean currentFor(int tableid, long beginTs) {
+        return !finishing.containsKey(tableid) && changedAt.getOrDefault(tableid, 0L) <= beginTs;
+    }
+
+    /** Record that tid changed a table. */
+    synchronized void modified(TransactionId tid, int tableid) {
+        versions.put(tableid, COUNTER.incrementAndGet());
+        written.computeIfAbsent(tid, k -> new HashSet<>()).add(tableid);
+    }
+
+    /**
+     * Record that tid is about to commit or abort, before the VersionStore
+     * hears of it.
+     */
+    synchronized void completing(TransactionId tid) {
+        Set<Integer> tables = written.get(tid);
+        if (tables == null)
+            return;
+        for (int tableid : tables) {
+            versions.put(tableid, COUNTER.incrementAndGet());
+            finishing.merge(tableid, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Record that tid has committed or aborted.
+     * @param clock the VersionStore clock after it finished
+     */
+    synchronized void completed(TransactionId tid, long clock) {
+        Set<Integer> tables = written.remove(tid);
+        if (tables == null)
+            return;
+        for (int tableid : tables) {
+            changedAt.merge(tableid, clock, Math::max);
+            finishing.computeIfPresent(tableid, (k, n) -> n == 1 ? null : n - 1);
+        }
+    }
+}
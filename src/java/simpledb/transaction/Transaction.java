@@ -0,0 +1,73 @@
+package simpledb.transaction;
+
+import simpledb.common.Database;
+
+import java.io.IOException;
+
+/**
+ * Transaction encapsulates information about the state of
+ * a transaction and manages transaction commit / abort.
+ */
+public class Transaction {
+    private final TransactionId tid;
+    volatile boolean started = false;
+
+    public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param snapshot true for a read-only transaction that sees the heap
+     *        files as of its start, without taking page locks on them
+     */
+    public Transaction(boolean snapshot) {
+        tid = new TransactionId(snapshot);
+    }
+
+    /** Start the transaction running */
+    public void start() {
+        started = true;
+        if (tid.isSnapshot()) {
+            // nothing to log for a transaction that never writes
+            Database.getVersionStore().beginSnapshot(tid);
+            return;
+        }
+        try {
+            Database.getLogFile().logXactionBegin(tid);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public TransactionId getId() {
+        return tid;
+    }
+
+    /** Finish the transaction */
+    public void commit() throws IOException {
+        transactionComplete(false);
+    }
+
+    /** Finish the transaction */
+    public void abort() throws IOException {
+        transactionComplete(true);
+    }
+
+    /** Handle the details of transaction commit / abort */
+    public void transactionComplete(boolean abort) throws IOException {
+        if (started) {
+            // write abort log record and rollback transaction
+            if (abort) {
+                Database.getLogFile().logAbort(tid); // does rollback too
+            }
+
+            // Release locks and flush pages if needed.  On commit the
+            // BufferPool writes the COMMIT record and waits for the log
+            // writer to force it.
+            Database.getBufferPool().transactionComplete(tid, !abort);
+
+            // setting this here means we could possibly write multiple abort records -- OK?
+            started = false;
+        }
+    }
+}
@@ -12,15 +12,43 @@ public class TransactionId implements Serializable {
 
     static final AtomicLong counter = new AtomicLong(0);
     final long myid;
+    /** True for a read-only transaction that reads a snapshot. */
+    private final boolean snapshot;
+    /** Timestamps the VersionStore gives out; 0 until given. */
+    volatile long beginTs;
+    volatile long commitTs;
 
     public TransactionId() {
+        this(false);
+    }
+
+    /**
+     * @param snapshot true for a read-only transaction that reads heap
+     *        files through the VersionStore rather than under page locks
+     */
+    public TransactionId(boolean snapshot) {
         myid = counter.getAndIncrement();
+        this.snapshot = snapshot;
     }
 
     public long getId() {
         return myid;
     }
 
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /** @return the timestamp a snapshot reads as of, or 0 if not begun */
+    public long getBeginTimestamp() {
+        return beginTs;
+    }
+
+    /** @return the timestamp the transaction committed at, or 0 if it has not */
+    public long getCommitTimestamp() {
+        return commitTs;
+    }
+
     @Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -0,0 +1,187 @@
+package simpledb.transaction;
+
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * VersionStore keeps the old versions of heap tuples, so that snapshot
+ * transactions can read a consistent view of the database without taking
+ * page locks.
+ * <p>
+ * Writers still lock pages and change them in place.  Before a writer
+ * changes a slot, it records what the slot held (a tuple, or null for an
+ * empty slot) in the version chain of the slot's RecordId, newest first.
+ * A snapshot starts at a timestamp and sees exactly the transactions that
+ * committed at or before it: reading a slot, it starts from what the page
+ * holds and walks back the chain, undoing every change of a transaction it
+ * must not see, until it reaches one it sees.
+ * <p>
+ * Timestamps come from one clock.  A snapshot's begin timestamp is the
+ * clock; a commit advances the clock and takes the new value.  Aborts
+ * advance it as well, so that the versions of an aborted transaction are
+ * kept until every snapshot that may have read its pages is gone.
+ * Versions are dropped once no active snapshot began before the
+ * transaction that made them finished.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** One change to a slot, and what the slot held before it. */
+    private static class Version {
+        final TransactionId writer;
+        final Tuple before;
+        Version older;
+
+        Version(TransactionId writer, Tuple before, Version older) {
+            this.writer = writer;
+            this.before = before;
+            this.older = older;
+        }
+    }
+
+    private long clock;
+    /** The newest version of every slot with versions. */
+    private final Map<RecordId, Version> chains = new HashMap<>();
+    /** The slots each writer changed, until its versions are dropped. */
+    private final Map<TransactionId, Set<RecordId>> written = new HashMap<>();
+    /** Finished writers whose versions are still kept, oldest first. */
+    private final LinkedList<TransactionId> finished = new LinkedList<>();
+    /** The snapshots that are running. */
+    private final Set<TransactionId> snapshots = new HashSet<>();
+    /** The timestamps at which finished writers ended. */
+    private final Map<TransactionId, Long> endTs = new HashMap<>();
+
+    /**
+     * @return the clock; a snapshot beginning now sees the transactions that
+     *         finished at or before it
+     */
+    public synchronized long clock() {
+        return clock;
+    }
+
+    /**
+     * Start a snapshot: tid will see the transactions committed so far.
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        tid.beginTs = clock;
+        snapshots.add(tid);
+    }
+
+    /**
+     * Record that tid is about to change the slot rid, which holds before
+     * (null if the slot is empty).  Must be called before the change is
+     * visible to anyone reading the page, or in the same critical section.
+     */
+    public synchronized void record(TransactionId tid, RecordId rid, Tuple before) {
+        chains.put(rid, new Version(tid, before, chains.get(rid)));
+        written.computeIfAbsent(tid, k -> new HashSet<>()).add(rid);
+    }
+
+    /**
+     * @param snapshot a snapshot transaction
+     * @param rid the slot
+     * @param current what the slot of the page holds, or null if empty
+     * @return the tuple snapshot sees in the slot, or null if it sees none
+     */
+    public synchronized Tuple visible(TransactionId snapshot, RecordId rid, Tuple current) {
+        Tuple t = current;
+        for (Version v = chains.get(rid); v != null; v = v.older) {
+            long commitTs = v.writer.commitTs;
+            if (commitTs != 0 && commitTs <= snapshot.beginTs)
+                break;
+            t = v.before;
+        }
+        return t;
+    }
+
+    /**
+     * Replace the slots of a page, as the page holds them, with the tuples
+     * snapshot sees in them.
+     * @param slots the slots of page pid, null where a slot is empty
+     */
+    public synchronized void visible(TransactionId snapshot, PageId pid, Tuple[] slots) {
+        if (chains.isEmpty())
+            return;
+        for (int i = 0; i < slots.length; i++) {
+            RecordId rid = new RecordId(pid, i);
+            if (chains.containsKey(rid))
+                slots[i] = visible(snapshot, rid, slots[i]);
+        }
+    }
+
+    /**
+     * Finish a transaction.  A committing writer takes its commit
+     * timestamp here, so this must be called once its changes are in the
+     * pages and before it releases its locks; an aborting writer must have
+     * restored its pages already.
+     */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        if (snapshots.remove(tid)) {
+            purge();
+            return;
+        }
+        if (!written.containsKey(tid))
+            return;
+        clock++;
+        if (commit)
+            tid.commitTs = clock;
+        endTs.put(tid, clock);
+        finished.add(tid);
+        purge();
+    }
+
+    /** Drop the versions no active snapshot can need any more. */
+    private void purge() {
+        long oldest = Long.MAX_VALUE;
+        for (TransactionId s : snapshots)
+            oldest = Math.min(oldest, s.beginTs);
+        for (Iterator<TransactionId> it = finished.iterator(); it.hasNext(); ) {
+            TransactionId tid = it.next();
+            if (endTs.get(tid) > oldest)
+                break;
+            it.remove();
+            endTs.remove(tid);
+            for (RecordId rid : written.remove(tid))
+                drop(rid, tid);
+        }
+    }
+
+    /**
+     * Unlink the versions of rid that tid made.  If tid committed, every
+     * snapshot sees it, so the older versions go too.
+     */
+    private void drop(RecordId rid, TransactionId tid) {
+        Version newer = null;
+        for (Version v = chains.get(rid); v != null; v = v.older) {
+            if (!v.writer.equals(tid)) {
+                newer = v;
+                continue;
+            }
+            Version rest = tid.commitTs != 0 ? null : v.older;
+            if (newer == null) {
+                if (rest == null)
+                    chains.remove(rid);
+                else
+                    chains.put(rid, rest);
+            } else {
+                newer.older = rest;
+            }
+            if (rest == null)
+                return;
+        }
+    }
+
+    /** @return the number of slots that have versions; for tests */
+    public synchronized int size() {
+        return chains.size();
+    }
+}
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateTest extends SimpleDbTestBase {
+
+    private OpIterator scan;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleList() {
+        this.scan = TestUtil.createTupleList(2,
+            new int[] { 1, 2,
+                        1, 4,
+                        1, 6,
+                        3, 2,
+                        3, 4,
+                        3, 6,
+                        5, 7 });
+    }
+
+    /**
+     * Unit test for Aggregate.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        Aggregate op = new Aggregate(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.MIN);
+        assertEquals(1, op.getTupleDesc().numFields());
+        assertEquals(Type.INT_TYPE, op.getTupleDesc().getFieldType(0));
+
+        op = new Aggregate(scan, 1, 0, Aggregator.Op.SUM);
+        assertEquals(2, op.getTupleDesc().numFields());
+        assertEquals(Type.INT_TYPE, op.getTupleDesc().getFieldType(0));
+        assertEquals(Type.INT_TYPE, op.getTupleDesc().getFieldType(1));
+    }
+
+    @Test public void sumGrouped() throws Exception {
+        Aggregate op = new Aggregate(scan, 1, 0, Aggregator.Op.SUM);
+        op.open();
+        TupleIterator expected = TestUtil.createTupleList(2,
+            new int[] { 1, 12,
+                        3, 12,
+                        5, 7 });
+        TestUtil.matchAllTuples(expected, op);
+        op.close();
+    }
+
+    @Test public void minMaxAvgCount() throws Exception {
+        int[][] expected = {
+            {1, 2, 6, 4, 3},
+            {3, 2, 6, 4, 3},
+            {5, 7, 7, 7, 1},
+        };
+        Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT};
+        for (int o = 0; o < ops.length; o++) {
+            Aggregate op = new Aggregate(scan, 1, 0, ops[o]);
+            op.open();
+            int[] data = new int[expected.length * 2];
+            for (int i = 0; i < expected.length; i++) {
+                data[2 * i] = expected[i][0];
+                data[2 * i + 1] = expected[i][o + 1];
+            }
+            TestUtil.matchAllTuples(TestUtil.createTupleList(2, data), op);
+            op.close();
+        }
+    }
+
+    @Test public void noGrouping() throws Exception {
+        Aggregate op = new Aggregate(scan, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        op.open();
+        assertTrue(op.hasNext());
+        assertEquals(new IntField(31), op.next().getField(0));
+        assertTrue(TestUtil.checkExhausted(op));
+
+        op.rewind();
+        assertEquals(new IntField(31), op.next().getField(0));
+        op.close();
+    }
+
+    @Test public void stringGroups() throws Exception {
+        OpIterator strings = TestUtil.createTupleList(2,
+            new Object[] { "a", "x",
+                           "b", "y",
+                           "a", "z" });
+        Aggregate op = new Aggregate(strings, 1, 0, Aggregator.Op.COUNT);
+        op.open();
+        Map<String, Integer> counts = new HashMap<>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            counts.put(((StringField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue());
+        }
+        op.close();
+        assertEquals(2, counts.size());
+        assertEquals(Integer.valueOf(2), counts.get("a"));
+        assertEquals(Integer.valueOf(1), counts.get("b"));
+    }
+
+    /**
+     * More groups than the in-memory budget: the overflow must go through the
+     * spill partitions and still come back exactly once per group.
+     */
+    @Test public void spillHighCardinality() throws Exception {
+        int groups = 2000;
+        int[] data = new int[groups * 3 * 2];
+        for (int i = 0; i < groups * 3; i++) {
+            data[2 * i] = i % groups;
+            data[2 * i + 1] = i;
+        }
+        Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+                Aggregator.Op.SUM, 16);
+        op.open();
+        Map<Integer, Integer> sums = new HashMap<>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertNull("group returned twice", sums.put(key,
+                    ((IntField) t.getField(1)).getValue()));
+        }
+        assertEquals(groups, sums.size());
+        for (int g = 0; g < groups; g++)
+            assertEquals(Integer.valueOf(3 * g + 3 * groups), sums.get(g));
+
+        op.rewind();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(groups, count);
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateTest.class);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] RANGE_OPS = {
+        Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+    };
+
+    private TransactionId tid;
+
+    @Before public void createTransaction() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    private static File tempIndexFile() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** Run an index scan and return the key of every tuple, checking the keys come back sorted. */
+    private List<Integer> scanKeys(BTreeFile index, IndexPredicate ipred) throws Exception {
+        IndexScan scan = new IndexScan(tid, index.getId(), "t", ipred);
+        scan.open();
+        List<Integer> keys = new ArrayList<>();
+        while (scan.hasNext()) {
+            int key = ((IntField) scan.next().getField(index.getKeyField())).getValue();
+            if (!keys.isEmpty())
+                assertTrue("keys out of order", keys.get(keys.size() - 1) <= key);
+            keys.add(key);
+        }
+        scan.close();
+        return keys;
+    }
+
+    private static List<Integer> bruteForce(List<List<Integer>> tuples, Predicate.Op op, int value) {
+        List<Integer> keys = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                keys.add(t.get(0));
+        }
+        keys.sort(null);
+        return keys;
+    }
+
+    /**
+     * A bulk-loaded index with three levels must return exactly what a full
+     * scan with a filter returns, for every range operator.
+     */
+    @Test public void rangeScansMatchFullScan() throws Exception {
+        BufferPool.setPageSize(256);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+        BTreeFile index = BTreeFile.createIndex(tid, tempIndexFile(), hf, 0);
+
+        assertEquals(3000, scanKeys(index, null).size());
+        for (Predicate.Op op : RANGE_OPS) {
+            for (int value : new int[] {-1, 0, 17, 250, 499, 500}) {
+                assertEquals(op + " " + value, bruteForce(tuples, op, value),
+                        scanKeys(index, new IndexPredicate(op, new IntField(value))));
+            }
+        }
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the index in step with
+     * the table, splitting leaves and internal pages as the tree grows.
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        BufferPool.setPageSize(256);
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(heap.getAbsolutePath(), 2);
+        BTreeFile index = BTreeFile.createIndex(tid, tempIndexFile(), hf, 0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int n = 600;
+        for (int batch = 0; batch < n; batch += 20) {
+            tid = new TransactionId();
+            for (int i = batch; i < batch + 20; i++) {
+                int key = (i * 7919) % n;
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] {key, i}));
+            }
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+
+        tid = new TransactionId();
+        List<Integer> keys = scanKeys(index, null);
+        assertEquals(n, keys.size());
+        for (int i = 0; i < n; i++)
+            assertEquals(Integer.valueOf(i), keys.get(i));
+
+        // delete every tuple with key 42, then key 42 must be gone and the rest intact
+        IndexScan scan = new IndexScan(tid, index.getId(), "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(42)));
+        scan.open();
+        List<Tuple> victims = new ArrayList<>();
+        while (scan.hasNext())
+            victims.add(scan.next());
+        scan.close();
+        assertEquals(1, victims.size());
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        assertTrue(scanKeys(index, new IndexPredicate(Predicate.Op.EQUALS, new IntField(42))).isEmpty());
+        assertEquals(n - 1, scanKeys(index, null).size());
+        assertEquals(42, scanKeys(index, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(43))).size());
+    }
+
+    @Test public void stringKeys() throws Exception {
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"name", "id"});
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "strings");
+        BTreeFile index = BTreeFile.createIndex(tid, tempIndexFile(), hf, 0);
+
+        int n = 200;
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(String.format("name%03d", (i * 37) % n), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+
+        IndexScan scan = new IndexScan(tid, index.getId(), "s",
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new StringField("name190", Type.STRING_LEN)));
+        scan.open();
+        List<String> names = new ArrayList<>();
+        while (scan.hasNext())
+            names.add(((StringField) scan.next().getField(0)).getValue());
+        scan.close();
+        assertEquals(10, names.size());
+        for (int i = 0; i < names.size(); i++)
+            assertEquals(String.format("name%03d", 190 + i), names.get(i));
+        assertEquals("s.name", scan.getTupleDesc().getFieldName(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 3;
+
+    private HeapFile empty;
+    private HeapFile full;
+    private HeapPageId newPage;
+    private Transaction t;
+
+    /** An empty table, and one with more pages than the pool holds. */
+    @Before public void createTables() throws Exception {
+        File file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        empty = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        full = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, new ArrayList<>());
+        newPage = new HeapPageId(empty.getId(), 0);
+        Database.resetBufferPool(POOL_PAGES);
+        t = new Transaction();
+        t.start();
+    }
+
+    @After public void endTransaction() throws Exception {
+        t.commit();
+    }
+
+    private void insert() throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+    }
+
+    /** @return the number of tuples on the page as it is on disk */
+    private int onDisk(HeapPageId pid) {
+        int n = 0;
+        for (Iterator<?> it = ((HeapPage) empty.readPage(pid)).iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Reading more pages than fit evicts clean pages only, so an uncommitted
+     * change stays in the pool and off the disk.
+     */
+    @Test public void evictsOnlyCleanPages() throws Exception {
+        insert();
+        Transaction reader = new Transaction();
+        reader.start();
+        for (int i = 0; i < full.numPages(); i++)
+            Database.getBufferPool().getPage(reader.getId(), new HeapPageId(full.getId(), i), Permissions.READ_ONLY);
+        reader.commit();
+
+        assertEquals(1, Database.getBufferPool().dirtyPageCount());
+        assertEquals(0, onDisk(newPage));
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(), newPage, Permissions.READ_ONLY);
+        assertEquals(t.getId(), page.isDirty());
+    }
+
+    /** With every page dirty, a page that is not cached can't be read. */
+    @Test(expected = DbException.class) public void allPagesDirty() throws Exception {
+        Database.resetBufferPool(1);
+        insert();
+        Database.getBufferPool().getPage(t.getId(), new HeapPageId(full.getId(), 0), Permissions.READ_ONLY);
+    }
+
+    /** Flushing a page writes it and marks it clean, so it may be evicted. */
+    @Test public void flushedPagesAreClean() throws Exception {
+        insert();
+        assertEquals(1, Database.getBufferPool().dirtyPageCount());
+        Database.getBufferPool().flushPages(t.getId());
+        assertEquals(0, Database.getBufferPool().dirtyPageCount());
+        assertEquals(1, onDisk(newPage));
+    }
+
+    /**
+     * A page an insert adds to the table is locked by the inserting
+     * transaction, and written when it commits.
+     */
+    @Test public void insertLocksNewPage() throws Exception {
+        insert();
+        assertTrue(Database.getBufferPool().holdsLock(t.getId(), newPage));
+        assertEquals(0, onDisk(newPage));
+        t.commit();
+        assertEquals(1, onDisk(newPage));
+        t = new Transaction();
+        t.start();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -14,7 +15,9 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.index.HashIndexFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +100,30 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /** Two files can't share an id, and an index can't take a table's. */
+    @Test public void rejectIdClashes() throws Exception {
+        File a = File.createTempFile("table", ".dat"), b = File.createTempFile("table", ".dat");
+        a.deleteOnExit();
+        b.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+        HeapFile hf = new HeapFile(a, td, 7);
+        Database.getCatalog().addTable(hf, "a");
+        // reopening the same file is fine
+        Database.getCatalog().addTable(new HeapFile(a, td, 7), "a");
+        try {
+            Database.getCatalog().addTable(new HeapFile(b, td, 7), "b");
+            Assert.fail("Should not add a second file with id 7");
+        } catch (IllegalArgumentException e) {
+            // Expected to get here
+        }
+        try {
+            Database.getCatalog().addIndex(new HashIndexFile(b, hf, 0, 7));
+            Assert.fail("Should not add an index with a table's id");
+        } catch (IllegalArgumentException e) {
+            // Expected to get here
+        }
+    }
+
     /**
      * JUnit suite target
      */
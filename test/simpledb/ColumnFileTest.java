@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.ColumnScan;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.ProfiledOperator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 3000;
+
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private HeapFile heap;
+    private ColumnFile columns;
+    private Transaction t;
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static Tuple tuple(TupleDesc td, List<Integer> values) {
+        Tuple tuple = new Tuple(td);
+        for (int i = 0; i < values.size(); i++)
+            tuple.setField(i, new IntField(values.get(i)));
+        return tuple;
+    }
+
+    /** The same 20 column table as a heap file and as a column file. */
+    @Before public void createTables() throws Exception {
+        heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples, "f");
+        Database.getCatalog().addTable(heap, "heap");
+        List<Tuple> rows = new ArrayList<>();
+        for (List<Integer> values : tuples)
+            rows.add(tuple(heap.getTupleDesc(), values));
+        columns = ColumnFile.create(tempFile(), heap.getTupleDesc(), rows);
+        Database.getCatalog().addTable(columns, "columns");
+        t = new Transaction();
+        t.start();
+    }
+
+    @After public void commit() throws Exception {
+        t.commit();
+    }
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple tuple = it.next();
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < tuple.getTupleDesc().numFields(); i++)
+                values.add(((IntField) tuple.getField(i)).getValue());
+            result.add(values);
+        }
+        it.close();
+        return result;
+    }
+
+    /** Every row comes back, in the order it was written. */
+    @Test public void fullScan() throws Exception {
+        DbFileIterator it = columns.iterator(t.getId());
+        it.open();
+        for (List<Integer> expected : tuples) {
+            assertTrue(it.hasNext());
+            Tuple tuple = it.next();
+            for (int i = 0; i < COLUMNS; i++)
+                assertEquals(expected.get(i).intValue(), ((IntField) tuple.getField(i)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /** Two of twenty columns take a small share of the pages a heap scan reads. */
+    @Test public void projectionReadsFewerPages() throws Exception {
+        int bound = 300;
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : tuples)
+            if (row.get(5) < bound) {
+                List<Integer> values = new ArrayList<>();
+                values.add(row.get(3));
+                values.add(row.get(7));
+                expected.add(values);
+            }
+
+        ColumnScan scan = new ColumnScan(t.getId(), columns.getId(), "c", new int[] { 3, 7 },
+                new Predicate(5, Predicate.Op.LESS_THAN, new IntField(bound)));
+        assertEquals("c.f3", scan.getTupleDesc().getFieldName(0));
+        ProfiledOperator profiled = ProfiledOperator.profile(scan, null);
+        assertEquals(expected, drain(profiled));
+
+        ProfiledOperator heapScan = ProfiledOperator.profile(
+                new Filter(new Predicate(5, Predicate.Op.LESS_THAN, new IntField(bound)),
+                        new SeqScan(t.getId(), heap.getId(), "h")), null);
+        assertEquals(expected.size(), drain(heapScan).size());
+        long heapPages = heapScan.getChildren().get(0).getPages();
+        // three columns of twenty, plus the directory
+        assertTrue(profiled.getPages() + " of " + heapPages, profiled.getPages() * 5 < heapPages);
+    }
+
+    /** Pages whose minimum and maximum rule a filter out are skipped, along with their rows. */
+    @Test public void minMaxSkipsPages() throws Exception {
+        List<Tuple> rows = new ArrayList<>();
+        TupleDesc td = heap.getTupleDesc();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> values = new ArrayList<>();
+            for (int c = 0; c < COLUMNS; c++)
+                values.add(c == 0 ? i : -i);
+            rows.add(tuple(td, values));
+        }
+        ColumnFile sorted = ColumnFile.create(tempFile(), td, rows);
+        Database.getCatalog().addTable(sorted, "sorted");
+
+        ColumnScan scan = new ColumnScan(t.getId(), sorted.getId(), "s", new int[] { 1 },
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10)));
+        ProfiledOperator profiled = ProfiledOperator.profile(scan, null);
+        List<List<Integer>> result = drain(profiled);
+        assertEquals(10, result.size());
+        assertEquals(-(ROWS - 10), result.get(0).get(0).intValue());
+        // the directory, every page of column 0, and the one page of column 1 that is needed
+        assertEquals(2 + (ROWS + 1016) / 1017, profiled.getPages());
+    }
+
+    /** Inserts append rows that later scans see once committed, and not at all if aborted. */
+    @Test public void insert() throws Exception {
+        Tuple tuple = new Tuple(heap.getTupleDesc());
+        for (int i = 0; i < COLUMNS; i++)
+            tuple.setField(i, new IntField(-1 - i));
+        Database.getBufferPool().insertTuple(t.getId(), columns.getId(), tuple);
+        assertEquals(ROWS, tuple.getRecordId().getTupleNumber());
+        t.commit();
+
+        Transaction aborted = new Transaction();
+        aborted.start();
+        Database.getBufferPool().insertTuple(aborted.getId(), columns.getId(), tuple(heap.getTupleDesc(),
+                tuples.get(0)));
+        aborted.abort();
+
+        t = new Transaction();
+        t.start();
+        List<List<Integer>> result = drain(new ColumnScan(t.getId(), columns.getId(), "c",
+                new int[] { 0, 19 }, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))));
+        assertEquals(1, result.size());
+        assertEquals(-20, result.get(0).get(1).intValue());
+        assertEquals(ROWS + 1, drain(new SeqScan(t.getId(), columns.getId(), "c")).size());
+    }
+
+    /** A table built by inserts alone chains its columns' pages, which interleave in the file. */
+    @Test public void insertIntoEmpty() throws Exception {
+        // three columns, so the transaction's dirty pages fit in the BufferPool
+        TupleDesc td = Utility.getTupleDesc(3);
+        ColumnFile empty = new ColumnFile(tempFile(), td);
+        Database.getCatalog().addTable(empty, "empty");
+        for (int i = 0; i < 2100; i++) {
+            Tuple tuple = new Tuple(td);
+            for (int c = 0; c < 3; c++)
+                tuple.setField(c, new IntField(i * c));
+            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), tuple);
+        }
+        List<List<Integer>> result = drain(new ColumnScan(t.getId(), empty.getId(), "e",
+                new int[] { 2 }, new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2000))));
+        assertEquals(100, result.size());
+        assertEquals(4000, result.get(0).get(0).intValue());
+        assertEquals(4198, result.get(99).get(0).intValue());
+    }
+
+    @Test(expected = DbException.class) public void deleteUnsupported() throws Exception {
+        DbFileIterator it = columns.iterator(t.getId());
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), first);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Simulates crashes for the recovery tests.  A crash throws away the
+ * Catalog, the BufferPool and the LogFile, losing every cached page and
+ * every log record still in the log buffer, but keeps the table files and
+ * whatever of the log reached the disk.
+ */
+public class CrashHarness {
+
+    /**
+     * Crash, then reopen the tables the way a restarted database would.
+     * Recovery is left to the caller.
+     * @param cols the number of int columns of every table
+     * @return the reopened tables, in the order of files
+     */
+    public static HeapFile[] crash(int cols, File... files) {
+        Database.reset();
+        HeapFile[] tables = new HeapFile[files.length];
+        for (int i = 0; i < files.length; i++)
+            tables[i] = Utility.openHeapFile(cols, files[i]);
+        return tables;
+    }
+
+    /** Crash, reopen the tables and run recovery. */
+    public static HeapFile[] crashAndRecover(int cols, File... files) throws IOException {
+        HeapFile[] tables = crash(cols, files);
+        Database.getLogFile().recover();
+        return tables;
+    }
+
+    /** @return the number of tuples in hf, read in a transaction of its own */
+    public static int countTuples(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int n = countTuples(hf, t.getId());
+        t.commit();
+        return n;
+    }
+
+    /** @return the number of tuples in hf as tid sees them */
+    public static int countTuples(HeapFile hf, TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class DoubleWriteTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void deleteDoubleWrite() {
+        Database.getLogFile().getDoubleWriteBuffer().getFile().delete();
+    }
+
+    /**
+     * Commit tuples, then checkpoint so that recovery does not redo them
+     * and the table alone has to be right.
+     */
+    private void commitInserts(int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            commitInsert(i);
+        Database.getLogFile().logCheckpoint();
+    }
+
+    private void commitInsert(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {v, v}));
+        t.commit();
+    }
+
+    /** Zero the first half of a page, as a crash halfway through writing it could. */
+    private static void tear(File f, long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(offset);
+            raf.write(new byte[BufferPool.getPageSize() / 2]);
+        }
+    }
+
+    /** A page torn in its table is restored from the double-write file. */
+    @Test public void tornPageIsRestored() throws Exception {
+        commitInserts(300);
+        tear(file, 0);
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(300, CrashHarness.countTuples(hf));
+    }
+
+    /** A page torn in the double-write file is not copied over its intact home page. */
+    @Test public void tornCopyIsIgnored() throws Exception {
+        commitInserts(300);
+        tear(Database.getLogFile().getDoubleWriteBuffer().getFile(), 16);
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(300, CrashHarness.countTuples(hf));
+    }
+
+    /** A new log empties the double-write file, so an old batch is never restored into new tables. */
+    @Test public void newLogClearsBatch() throws Exception {
+        commitInserts(300);
+        File doubleWrite = Database.getLogFile().getDoubleWriteBuffer().getFile();
+        assertTrue(doubleWrite.length() > 0);
+
+        hf = CrashHarness.crash(2, file)[0];
+        Database.getLogFile().logCheckpoint();
+        assertEquals(0, doubleWrite.length());
+        assertEquals(300, CrashHarness.countTuples(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DoubleWriteTest.class);
+    }
+}
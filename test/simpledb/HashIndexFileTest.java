@@ -0,0 +1,215 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Predicate;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashDirectoryPage;
+import simpledb.index.HashIndexFile;
+import simpledb.index.HashPageId;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+
+    @Before public void createTransaction() {
+        tid = new TransactionId();
+        // small pages: few entries per bucket and a directory of at most 32 slots
+        BufferPool.setPageSize(256);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    private static File tempIndexFile() throws Exception {
+        File f = File.createTempFile("index", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private List<Tuple> scan(HashIndexFile index, Predicate.Op op, int value) throws Exception {
+        IndexScan scan = new IndexScan(tid, index.getId(), "t",
+                new IndexPredicate(op, new IntField(value)));
+        scan.open();
+        List<Tuple> result = new ArrayList<>();
+        while (scan.hasNext())
+            result.add(scan.next());
+        scan.close();
+        return result;
+    }
+
+    private static int count(List<List<Integer>> tuples, Predicate.Op op, int value) {
+        int n = 0;
+        for (List<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(value)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * More entries than the largest directory can spread out, so the bulk
+     * load has to chain overflow pages; lookups must still find every match.
+     */
+    @Test public void bulkLoadLookups() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3000, 300, null, tuples);
+        HashIndexFile index = HashIndexFile.createIndex(tid, tempIndexFile(), hf, 0);
+
+        for (int value : new int[] {-1, 0, 7, 150, 299}) {
+            List<Tuple> found = scan(index, Predicate.Op.EQUALS, value);
+            assertEquals(count(tuples, Predicate.Op.EQUALS, value), found.size());
+            for (Tuple t : found)
+                assertEquals(new IntField(value), t.getField(0));
+        }
+        // not hashable: falls back to reading every bucket
+        assertFalse(index.supports(Predicate.Op.LESS_THAN));
+        assertEquals(count(tuples, Predicate.Op.LESS_THAN, 100),
+                scan(index, Predicate.Op.LESS_THAN, 100).size());
+    }
+
+    /**
+     * Inserts through the BufferPool split buckets and grow the directory;
+     * deletes remove exactly the deleted tuple's entry.
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(heap.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(hf, "pk_table", "key");
+        HashIndexFile index = HashIndexFile.createIndex(tid, tempIndexFile(), hf, 0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int n = 500;
+        for (int batch = 0; batch < n; batch += 20) {
+            tid = new TransactionId();
+            for (int i = batch; i < batch + 20; i++)
+                Database.getBufferPool().insertTuple(tid, hf.getId(),
+                        Utility.getHeapTuple(new int[] {i, -i}));
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+        assertTrue("directory never grew", index.numPages() > 2);
+
+        tid = new TransactionId();
+        for (int key = 0; key < n; key += 7) {
+            List<Tuple> found = scan(index, Predicate.Op.EQUALS, key);
+            assertEquals(1, found.size());
+            assertEquals(new IntField(-key), found.get(0).getField(1));
+        }
+
+        Tuple victim = scan(index, Predicate.Op.EQUALS, 123).get(0);
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertTrue(scan(index, Predicate.Op.EQUALS, 123).isEmpty());
+        assertEquals(1, scan(index, Predicate.Op.EQUALS, 124).size());
+    }
+
+    /**
+     * A key repeated more times than a bucket holds gets an overflow chain,
+     * both in the bulk load and on insert, rather than deepening the
+     * directory to no effect.
+     */
+    @Test public void duplicateKeys() throws Exception {
+        int cap = HashBucketPage.getMaxEntries(Type.INT_TYPE);
+        int dups = 10 * cap;
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < dups; i++)
+            tuples.add(Arrays.asList(7, i));
+        tuples.add(Arrays.asList(8, -1));
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFileEncoder.convert(tuples, heap, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, heap);
+
+        // the directory, at most two buckets and the chain of 7s
+        HashIndexFile index = HashIndexFile.createIndex(tid, tempIndexFile(), hf, 0);
+        assertTrue(index.numPages() <= 3 + dups / cap);
+        assertEquals(dups, scan(index, Predicate.Op.EQUALS, 7).size());
+        assertEquals(1, scan(index, Predicate.Op.EQUALS, 8).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFile empty = Utility.createEmptyHeapFile(heap.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(empty, "dup_table", "key");
+        tid = new TransactionId();
+        index = HashIndexFile.createIndex(tid, tempIndexFile(), empty, 0);
+        Database.getBufferPool().transactionComplete(tid);
+        for (int batch = 0; batch < dups; batch += 20) {
+            tid = new TransactionId();
+            for (int i = batch; i < batch + 20; i++)
+                Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] {7, i}));
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+        // the directory and the chain, with no split-off empty buckets
+        assertEquals(1 + dups / cap, index.numPages());
+        tid = new TransactionId();
+        assertEquals(dups, scan(index, Predicate.Op.EQUALS, 7).size());
+    }
+
+    /**
+     * A bucket chained by a repeated key is split once other keys arrive,
+     * the chain divided between the halves, so the directory grows.
+     */
+    @Test public void chainedBucketSplits() throws Exception {
+        int cap = HashBucketPage.getMaxEntries(Type.INT_TYPE);
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(heap.getAbsolutePath(), 2);
+        Database.getCatalog().addTable(hf, "chain_table", "key");
+        HashIndexFile index = HashIndexFile.createIndex(tid, tempIndexFile(), hf, 0);
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 3 * cap; i++)
+            keys.add(7);
+        for (int i = 100; i < 100 + 4 * cap; i++)
+            keys.add(i);
+        for (int batch = 0; batch < keys.size(); batch += 20) {
+            tid = new TransactionId();
+            for (int i = batch; i < Math.min(keys.size(), batch + 20); i++)
+                Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] {keys.get(i), i}));
+            Database.getBufferPool().transactionComplete(tid, true);
+        }
+
+        HashDirectoryPage dir = (HashDirectoryPage) index.readPage(new HashPageId(index.getId(), 0));
+        assertTrue("chained bucket never split", dir.getGlobalDepth() > 0);
+        tid = new TransactionId();
+        assertEquals(3 * cap, scan(index, Predicate.Op.EQUALS, 7).size());
+        for (int key = 100; key < 100 + 4 * cap; key += 5)
+            assertEquals(1, scan(index, Predicate.Op.EQUALS, key).size());
+        assertEquals(keys.size(), scan(index, Predicate.Op.GREATER_THAN, 0).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private static final int FACTS = 2000;
+    private static final int[] DIM_ROWS = {10, 400, 40, 300, 20};
+    private static final List<String> TABLES = Arrays.asList("f", "d0", "d1", "d2", "d3", "d4");
+
+    private HeapFile fact;
+    private HeapFile[] dims = new HeapFile[DIM_ROWS.length];
+    private Transaction t;
+
+    private static HeapFile table(List<List<Integer>> tuples, int cols) throws Exception {
+        File file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), cols);
+        return Utility.openHeapFile(cols, file);
+    }
+
+    /**
+     * A star: the fact table f has an id and a key into each dimension di,
+     * whose columns are its key and the key modulo 10.
+     */
+    @Before public void createTables() throws Exception {
+        List<List<Integer>> facts = new ArrayList<>();
+        for (int i = 0; i < FACTS; i++) {
+            List<Integer> row = new ArrayList<>();
+            row.add(i);
+            for (int rows : DIM_ROWS)
+                row.add((i * 7919) % rows);
+            facts.add(row);
+        }
+        fact = table(facts, 1 + DIM_ROWS.length);
+        for (int d = 0; d < DIM_ROWS.length; d++) {
+            List<List<Integer>> rows = new ArrayList<>();
+            for (int k = 0; k < DIM_ROWS[d]; k++)
+                rows.add(Arrays.asList(k, k % 10));
+            dims[d] = table(rows, 2);
+        }
+        t = new Transaction();
+        t.start();
+    }
+
+    private JoinOptimizer starJoin() {
+        JoinOptimizer opt = new JoinOptimizer(t.getId());
+        opt.addTable("f", fact.getId());
+        for (int d = 0; d < dims.length; d++) {
+            opt.addTable("d" + d, dims[d].getId());
+            opt.addJoin("f", d + 1, Predicate.Op.EQUALS, "d" + d, 0);
+        }
+        // d1.v < 2 and d3.v = 0
+        opt.addFilter("d1", new Predicate(1, Predicate.Op.LESS_THAN, new IntField(2)));
+        opt.addFilter("d3", new Predicate(1, Predicate.Op.EQUALS, new IntField(0)));
+        return opt;
+    }
+
+    /** @return the number of facts the star join keeps */
+    private static int expectedRows() {
+        int n = 0;
+        for (int i = 0; i < FACTS; i++)
+            if ((i * 7919) % DIM_ROWS[1] % 10 < 2 && (i * 7919) % DIM_ROWS[3] % 10 == 0)
+                n++;
+        return n;
+    }
+
+    private static void permutations(List<String> prefix, List<String> rest, List<List<String>> out) {
+        if (rest.isEmpty()) {
+            out.add(prefix);
+            return;
+        }
+        for (String alias : rest) {
+            List<String> p = new ArrayList<>(prefix);
+            p.add(alias);
+            List<String> r = new ArrayList<>(rest);
+            r.remove(alias);
+            permutations(p, r, out);
+        }
+    }
+
+    /** The plan returns the join, whatever order it picked. */
+    @Test public void planComputesJoin() throws Exception {
+        OpIterator plan = starJoin().plan();
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            Tuple tup = plan.next();
+            assertEquals(1 + DIM_ROWS.length + 2 * DIM_ROWS.length, tup.getTupleDesc().numFields());
+            n++;
+        }
+        plan.close();
+        assertEquals(expectedRows(), n);
+        t.commit();
+    }
+
+    /** Dynamic programming finds a plan at least as cheap as every join order. */
+    @Test public void dynamicProgrammingBeatsEveryOrder() throws Exception {
+        JoinOptimizer opt = starJoin();
+        List<List<String>> orders = new ArrayList<>();
+        permutations(new ArrayList<>(), TABLES, orders);
+        double best = Double.POSITIVE_INFINITY;
+        for (List<String> order : orders)
+            best = Math.min(best, opt.costOfOrder(order));
+        assertTrue(opt.estimatedCost() <= best * (1 + 1e-9));
+        t.commit();
+    }
+
+    /** Greedy planning stays within a small factor of the best plan. */
+    @Test public void greedyIsClose() throws Exception {
+        JoinOptimizer opt = starJoin();
+        double dp = opt.estimatedCost();
+        opt.setDpLimit(1);
+        assertTrue(opt.estimatedCost() <= 3 * dp);
+        OpIterator plan = opt.plan();
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(expectedRows(), n);
+        t.commit();
+    }
+
+    /** Tables with no join predicate between them are refused. */
+    @Test(expected = DbException.class) public void disconnectedTables() throws Exception {
+        JoinOptimizer opt = new JoinOptimizer(t.getId());
+        opt.addTable("d0", dims[0].getId());
+        opt.addTable("d1", dims[1].getId());
+        opt.plan();
+    }
+
+    /** A chain of more tables than fit in a long is still planned greedily. */
+    @Test public void manyTables() throws Exception {
+        JoinOptimizer opt = new JoinOptimizer(t.getId());
+        int n = 70;
+        for (int i = 0; i < n; i++) {
+            opt.addTable("t" + i, dims[0].getId());
+            if (i > 0)
+                opt.addJoin("t" + (i - 1), 0, Predicate.Op.EQUALS, "t" + i, 0);
+        }
+        opt.estimatedCost();
+        for (int i = 0; i < n; i++)
+            assertTrue(opt.explain().matches(".*\\bt" + i + "\\b.*"));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.common.Utility;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinTest extends SimpleDbTestBase {
+
+    private static final JoinPredicate EQ = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    /** Sorted inputs with duplicate keys on both sides and unmatched keys. */
+    private OpIterator sortedLeft() {
+        return TestUtil.createTupleList(2,
+            new int[] { 1, 10,
+                        2, 20,
+                        2, 21,
+                        4, 40,
+                        5, 50,
+                        7, 70 });
+    }
+
+    private OpIterator sortedRight() {
+        return TestUtil.createTupleList(2,
+            new int[] { 0, 100,
+                        2, 200,
+                        2, 201,
+                        2, 202,
+                        3, 300,
+                        5, 500 });
+    }
+
+    private TupleIterator expectedEquiJoin() {
+        return TestUtil.createTupleList(4,
+            new int[] { 2, 20, 2, 200,
+                        2, 20, 2, 201,
+                        2, 20, 2, 202,
+                        2, 21, 2, 200,
+                        2, 21, 2, 201,
+                        2, 21, 2, 202,
+                        5, 50, 5, 500 });
+    }
+
+    @Test public void sortMergeGetTupleDesc() {
+        SortMergeJoin op = new SortMergeJoin(EQ, sortedLeft(), sortedRight());
+        assertEquals(4, op.getTupleDesc().numFields());
+    }
+
+    @Test public void sortMergeEquiJoin() throws Exception {
+        SortMergeJoin op = new SortMergeJoin(EQ, sortedLeft(), sortedRight());
+        op.open();
+        TestUtil.compareDbIterators(expectedEquiJoin(), op);
+
+        op.rewind();
+        TestUtil.compareDbIterators(expectedEquiJoin(), op);
+        op.close();
+    }
+
+    /**
+     * A run of duplicates longer than the in-memory buffer has to be spilled
+     * and replayed from disk for every matching outer tuple.
+     */
+    @Test public void sortMergeSpillsLongRuns() throws Exception {
+        int dups = 50;
+        int[] left = new int[] { 1, 0, 1, 1, 1, 2 };
+        int[] right = new int[dups * 2];
+        for (int i = 0; i < dups; i++) {
+            right[2 * i] = 1;
+            right[2 * i + 1] = i;
+        }
+        SortMergeJoin op = new SortMergeJoin(EQ, TestUtil.createTupleList(2, left),
+                TestUtil.createTupleList(2, right), 4);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            assertEquals(1, ((IntField) op.next().getField(2)).getValue());
+            count++;
+        }
+        assertEquals(3 * dups, count);
+        op.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortMergeRequiresEquality() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                sortedLeft(), sortedRight());
+    }
+
+    @Test public void blockNestedLoopEquiJoin() throws Exception {
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(EQ, sortedLeft(), sortedRight());
+        op.open();
+        TestUtil.matchAllTuples(expectedEquiJoin(), op);
+        op.close();
+    }
+
+    @Test public void blockNestedLoopInequality() throws Exception {
+        JoinPredicate lt = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(lt,
+                TestUtil.createTupleList(1, new int[] { 1, 2, 3 }),
+                TestUtil.createTupleList(1, new int[] { 2, 3, 4 }));
+        op.open();
+        TupleIterator expected = TestUtil.createTupleList(2,
+            new int[] { 1, 2, 1, 3, 1, 4,
+                        2, 3, 2, 4,
+                        3, 4 });
+        TestUtil.matchAllTuples(expected, op);
+        op.close();
+    }
+
+    /** Counts how many times the inner child is rescanned. */
+    private static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int rewinds = 0;
+
+        CountingIterator(List<Tuple> tuples) {
+            super(Utility.getTupleDesc(1), tuples);
+        }
+
+        public void rewind() {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    private static List<Tuple> ints(int n) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            tuples.add(Utility.getHeapTuple(i));
+        return tuples;
+    }
+
+    /**
+     * The inner child is scanned once per block of outer tuples rather than
+     * once per outer tuple.
+     */
+    @Test public void blockNestedLoopScansInnerOncePerBlock() throws Exception {
+        CountingIterator outer = new CountingIterator(ints(1200));
+        CountingIterator inner = new CountingIterator(ints(10));
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(EQ, outer, inner, 1);
+        int blockSize = op.getBlockSize();
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        op.close();
+
+        assertEquals(10, count);
+        int blocks = (1200 + blockSize - 1) / blockSize;
+        assertTrue(blocks < 1200);
+        assertEquals(blocks - 1, inner.rewinds);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private static final File SEGMENT = new File("log.0");
+
+    private static HeapFile emptyTable() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        return Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    }
+
+    /** Appended records stay in the log buffer until the log is forced. */
+    @Test public void appendsAreBuffered() throws Exception {
+        LogFile log = Database.getLogFile();
+        new Transaction().start(); // truncates the log and writes its header
+        long onDisk = SEGMENT.length();
+        long lsn = log.getCurrentLsn();
+
+        for (int i = 0; i < 20; i++)
+            new Transaction().start();
+        assertEquals(onDisk, SEGMENT.length());
+        assertTrue(log.getCurrentLsn() > lsn);
+
+        log.force();
+        // the log still fits in its first segment, so LSNs are file offsets
+        assertEquals(log.getCurrentLsn(), SEGMENT.length());
+    }
+
+    /**
+     * Committed pages carry the LSN of their update record, and that record
+     * is on disk by the time the commit returns.
+     */
+    @Test public void pagesCarryDurableLsns() throws Exception {
+        HeapFile hf = emptyTable();
+        LogFile log = Database.getLogFile();
+
+        long lastLsn = 0;
+        for (int i = 0; i < 3; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+            t.commit();
+
+            t = new Transaction();
+            t.start();
+            Page p = Database.getBufferPool().getPage(t.getId(), new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+            assertTrue(p.getLsn() > lastLsn);
+            assertTrue(log.forceAsync(p.getLsn()).isDone());
+            lastLsn = p.getLsn();
+            t.commit();
+        }
+    }
+
+    /**
+     * Transactions whose update records are far larger than the log buffer
+     * still produce a log that a checkpoint can read back, and LSNs keep
+     * increasing across the checkpoint.
+     */
+    @Test public void recordsSpanningBufferSurviveCheckpoint() throws Exception {
+        HeapFile hf = emptyTable();
+        LogFile log = Database.getLogFile();
+        int tuplesPerPage = 504; // two int fields on a 4096 byte page
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 20 * tuplesPerPage; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        t.commit();
+
+        long before = log.getCurrentLsn();
+        log.logCheckpoint();
+        assertTrue(log.getCurrentLsn() >= before);
+
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+        t.commit();
+        assertTrue(log.getCurrentLsn() > before);
+    }
+
+    /** Heap inserts and deletes are logged as tuple deltas, not page images. */
+    @Test public void heapChangesLoggedAsDeltas() throws Exception {
+        HeapFile hf = emptyTable();
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {0, 0}));
+        t.commit();
+
+        // BEGIN, one INSERT and COMMIT, where page images would cost two pages
+        long before = log.getCurrentLsn();
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+        t.commit();
+        long logged = log.getCurrentLsn() - before;
+        assertTrue("logged " + logged + " bytes", logged < 128);
+
+        before = log.getCurrentLsn();
+        List<Tuple> inserted = new ArrayList<>();
+        t = new Transaction();
+        t.start();
+        for (int i = 2; i <= 100; i++) {
+            Tuple tup = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+            inserted.add(tup);
+        }
+        for (Tuple tup : inserted)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+        logged = log.getCurrentLsn() - before;
+        assertTrue("logged " + logged + " bytes", logged < 200 * 64);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class LogChecksumTest extends SimpleDbTestBase {
+
+    private File file;
+    private File otherFile;
+    private HeapFile hf;
+    private HeapFile other;
+
+    @Before public void createTables() throws Exception {
+        file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        otherFile = File.createTempFile("table", ".dat");
+        otherFile.deleteOnExit();
+        other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+    }
+
+    @After public void compressAgain() {
+        LogFile.setCompressPages(true);
+    }
+
+    /** Commits the tuple, but only in the log; the page stays in the BufferPool. */
+    private void commitInLog(HeapFile table, int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] {v, v}));
+        Database.getLogFile().logCommit(t.getId());
+    }
+
+    /** Recovery ends the log at a damaged record, keeping what comes before it. */
+    @Test public void corruptRecordEndsLog() throws Exception {
+        commitInLog(hf, 1);
+        long damaged = Database.getLogFile().getCurrentLsn();
+        commitInLog(other, 2);
+
+        try (RandomAccessFile segment = new RandomAccessFile("log.0", "rw")) {
+            segment.seek(damaged + 10);
+            int b = segment.read();
+            segment.seek(damaged + 10);
+            segment.write(b ^ 0xff);
+        }
+
+        HeapFile[] tables = CrashHarness.crashAndRecover(2, file, otherFile);
+        // the log goes on from there
+        assertEquals(damaged, Database.getLogFile().getCurrentLsn());
+        assertEquals(1, CrashHarness.countTuples(tables[0]));
+        assertEquals(0, CrashHarness.countTuples(tables[1]));
+    }
+
+    /** Page images are logged deflated, and redone from the deflated image. */
+    @Test public void pageImagesAreCompressed() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            after.insertTuple(Utility.getHeapTuple(new int[] {i, i}));
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        long lsn = log.getCurrentLsn();
+        log.logWrite(t.getId(), before, after);
+        long compressed = log.getCurrentLsn() - lsn;
+        assertTrue("logged " + compressed + " bytes", compressed < 1024);
+        log.logCommit(t.getId());
+
+        LogFile.setCompressPages(false);
+        Transaction t2 = new Transaction();
+        t2.start();
+        lsn = log.getCurrentLsn();
+        log.logWrite(t2.getId(), before, before);
+        assertTrue(log.getCurrentLsn() - lsn > 2 * after.getPageData().length);
+
+        hf = CrashHarness.crashAndRecover(2, file, otherFile)[0];
+        assertEquals(10, CrashHarness.countTuples(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogChecksumTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class LogGroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 25;
+
+    /**
+     * Committers running at the same time must all see their commits
+     * through, and never cost more than one force each.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            File f = File.createTempFile("table", ".dat");
+            f.deleteOnExit();
+            tables.add(Utility.createEmptyHeapFile(f.getAbsolutePath(), 2));
+        }
+        LogFile log = Database.getLogFile();
+        int forcesBefore = log.getTotalForces();
+
+        AtomicInteger committed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            HeapFile hf = tables.get(i);
+            int thread = i;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                                Utility.getHeapTuple(new int[] {thread, j}));
+                        t.commit();
+                        committed.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(THREADS * COMMITS_PER_THREAD, committed.get());
+        int forces = log.getTotalForces() - forcesBefore;
+        assertTrue("more forces than commits: " + forces, forces <= committed.get());
+        for (HeapFile hf : tables)
+            assertEquals(COMMITS_PER_THREAD, countTuples(hf));
+    }
+
+    private static int countTuples(HeapFile hf) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = hf.iterator(t.getId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        t.commit();
+        return n;
+    }
+
+    /**
+     * Requests that queue up while the log writer is busy are served by a
+     * single force.
+     */
+    @Test public void queuedRequestsShareOneForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        new Transaction().start(); // make sure the log has something to force
+        int forcesBefore = log.getTotalForces();
+
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+        // holding the log's lock stalls the writer before its force, so the
+        // requests pile up behind at most the first one
+        synchronized (log) {
+            for (int i = 0; i < 10; i++)
+                requests.add(log.forceAsync(Long.MAX_VALUE));
+        }
+        for (CompletableFuture<Void> r : requests)
+            r.get();
+        assertTrue(log.getTotalForces() - forcesBefore <= 2);
+    }
+
+    /** Once a commit returns, forcing up to any earlier offset costs nothing. */
+    @Test public void durableOffsetNeedsNoForce() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        LogFile log = Database.getLogFile();
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        t.commit();
+
+        int forces = log.getTotalForces();
+        CompletableFuture<Void> done = log.forceAsync(8);
+        assertTrue(done.isDone());
+        assertEquals(forces, log.getTotalForces());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogGroupCommitTest.class);
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class LogRecoveryTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private Transaction insert(int... values) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int v : values)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {v, v}));
+        return t;
+    }
+
+    /** A page no logged change describes has NO_LSN, since 0 is the LSN of the first record. */
+    @Test public void unloggedPageHasNoLsn() throws Exception {
+        insert(1).commit();
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(Page.NO_LSN, page.getLsn());
+        assertEquals(0, Database.getLogFile().getFirstLsn());
+    }
+
+    /** A commit that is in the log but whose pages never reached the disk is redone. */
+    @Test public void committedWorkIsRedone() throws Exception {
+        insert(1, 2).commit();
+        Transaction t = insert(3, 4, 5);
+        // the COMMIT record is forced, but the crash comes before the pages are written
+        Database.getLogFile().logCommit(t.getId());
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(5, CrashHarness.countTuples(hf));
+    }
+
+    /** Changes to many pages, which recovery redoes on several threads, all come back. */
+    @Test public void redoSpansManyPages() throws Exception {
+        int tuplesPerPage = 504; // two int fields on a 4096 byte page
+        List<Tuple> deleted = new ArrayList<>();
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 12 * tuplesPerPage; i++) {
+            Tuple tup = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+            if (i % 7 == 0)
+                deleted.add(tup);
+        }
+        for (Tuple tup : deleted)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        Database.getLogFile().logCommit(t.getId());
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(12 * tuplesPerPage - deleted.size(), CrashHarness.countTuples(hf));
+    }
+
+    /** Uncommitted changes that were flushed before the crash are undone. */
+    @Test public void uncommittedWorkIsUndone() throws Exception {
+        insert(1, 2).commit();
+        Transaction t = new Transaction();
+        t.start();
+        Tuple victim = null;
+        for (int i = 3; i <= 600; i++) {
+            Tuple tup = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+            if (i == 3)
+                victim = tup;
+        }
+        Database.getBufferPool().deleteTuple(t.getId(), victim);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(599, CrashHarness.countTuples(hf, t.getId()));
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(2, CrashHarness.countTuples(hf));
+    }
+
+    /** Aborting after the transaction's pages were flushed restores them on disk. */
+    @Test public void abortAfterFlushIsRolledBack() throws Exception {
+        insert(1).commit();
+        Transaction t = insert(2, 3);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+        assertEquals(1, CrashHarness.countTuples(hf));
+
+        // and the abort holds after a crash as well
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(1, CrashHarness.countTuples(hf));
+    }
+
+    /** A rollback cut short by a crash is finished by recovery from its CLRs. */
+    @Test public void interruptedRollbackIsFinished() throws Exception {
+        insert(1).commit();
+        Transaction t = insert(2, 3);
+        Database.getBufferPool().flushAllPages();
+        // CLRs but no ABORT record
+        Database.getLogFile().rollback(t.getId());
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(1, CrashHarness.countTuples(hf));
+    }
+
+    /** Recovering, crashing and recovering again gives the same database. */
+    @Test public void recoveryIsIdempotent() throws Exception {
+        File otherFile = File.createTempFile("table", ".dat");
+        otherFile.deleteOnExit();
+        HeapFile other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+
+        insert(1, 2).commit();
+        Transaction winner = new Transaction();
+        winner.start();
+        Database.getBufferPool().insertTuple(winner.getId(), other.getId(), Utility.getHeapTuple(new int[] {1, 1}));
+        Transaction loser = insert(3, 4);
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCommit(winner.getId());
+
+        for (int i = 0; i < 2; i++) {
+            HeapFile[] tables = CrashHarness.crashAndRecover(2, file, otherFile);
+            assertEquals(2, CrashHarness.countTuples(tables[0]));
+            assertEquals(1, CrashHarness.countTuples(tables[1]));
+        }
+    }
+
+    /** Transactions active at the last checkpoint are still undone. */
+    @Test public void loserSpanningCheckpointIsUndone() throws Exception {
+        insert(1).commit();
+        Transaction loser = insert(2);
+        Database.getLogFile().logCheckpoint();
+        Database.getBufferPool().insertTuple(loser.getId(), hf.getId(), Utility.getHeapTuple(new int[] {3, 3}));
+        Database.getBufferPool().flushAllPages();
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(1, CrashHarness.countTuples(hf));
+    }
+
+    /** A checkpoint leaves dirty pages in the BufferPool. */
+    @Test public void checkpointWritesNoPages() throws Exception {
+        insert(1).commit();
+        Transaction t = insert(2, 3);
+        Database.getLogFile().logCheckpoint();
+
+        HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(onDisk.getNumEmptySlots() - 2,
+                ((HeapPage) Database.getBufferPool().getPage(t.getId(), onDisk.getId(), Permissions.READ_ONLY)).getNumEmptySlots());
+        t.commit();
+    }
+
+    /**
+     * Changes logged before a checkpoint to pages that were still dirty when
+     * it was taken are redone, though recovery starts at the checkpoint.
+     */
+    @Test public void dirtyPagesAtCheckpointAreRedone() throws Exception {
+        insert(1).commit();
+        Transaction t = insert(2, 3);
+        Database.getLogFile().logCommit(t.getId());
+        Database.getLogFile().logCheckpoint();
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(3, CrashHarness.countTuples(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogRecoveryTest.class);
+    }
+}
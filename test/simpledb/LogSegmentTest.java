@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class LogSegmentTest extends SimpleDbTestBase {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File file;
+    private HeapFile hf;
+
+    @Before public void useSmallSegments() throws Exception {
+        LogFile.setSegmentSize(SEGMENT_SIZE);
+        Database.reset();
+        file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    @After public void resetSegmentSize() {
+        LogFile.resetSegmentSize();
+    }
+
+    private void commitInserts(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+            t.commit();
+        }
+    }
+
+    /** Records cut in two by the end of a segment are read back whole. */
+    @Test public void recordsSpanSegments() throws Exception {
+        commitInserts(0, 200);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 200; i < 300; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        Database.getLogFile().logCommit(t.getId());
+        assertTrue(new File("log.2").exists());
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(300, CrashHarness.countTuples(hf));
+    }
+
+    /** A checkpoint deletes the segments no longer needed, and recovery starts after them. */
+    @Test public void checkpointDropsSegments() throws Exception {
+        commitInserts(0, 200);
+        long lsn = Database.getLogFile().getCurrentLsn();
+        Database.getLogFile().logCheckpoint();
+
+        LogFile log = Database.getLogFile();
+        assertTrue(log.getFirstLsn() >= lsn);
+        assertFalse(new File("log.0").exists());
+        assertTrue(new File("log." + log.getFirstLsn() / SEGMENT_SIZE).exists());
+
+        commitInserts(200, 210);
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(210, CrashHarness.countTuples(hf));
+    }
+
+    /** Segments holding records of an active transaction are kept. */
+    @Test public void activeTransactionKeepsSegments() throws Exception {
+        File otherFile = File.createTempFile("table", ".dat");
+        otherFile.deleteOnExit();
+        HeapFile other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+        Transaction loser = new Transaction();
+        loser.start();
+        Database.getBufferPool().insertTuple(loser.getId(), other.getId(), Utility.getHeapTuple(new int[] {0, 0}));
+
+        commitInserts(0, 200);
+        Database.getLogFile().logCheckpoint();
+        assertTrue(new File("log.0").exists());
+
+        Database.getBufferPool().flushAllPages();
+        HeapFile[] tables = CrashHarness.crashAndRecover(2, file, otherFile);
+        assertEquals(200, CrashHarness.countTuples(tables[0]));
+        assertEquals(0, CrashHarness.countTuples(tables[1]));
+    }
+
+    /**
+     * A page written after the checkpoint record but before the log is
+     * truncated still has its first change in the log, since recovery
+     * starts from the dirty pages the checkpoint lists.
+     */
+    @Test public void pageWrittenBeforeTruncateKeepsSegments() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 200; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        Database.getLogFile().logCheckpoint();
+        assertTrue(new File("log.0").exists());
+
+        // the commit writes the page, then the truncation of the checkpoint runs
+        t.commit();
+        Database.getLogFile().logTruncate();
+
+        hf = CrashHarness.crashAndRecover(2, file)[0];
+        assertEquals(200, CrashHarness.countTuples(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentTest.class);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.LatencyHistogram;
+import simpledb.common.LockManager;
+import simpledb.common.Metrics;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class MetricsTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        // 3 pages of two-column tuples
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        Metrics.reset();
+    }
+
+    /** Percentiles are within the histogram's 1/16 precision. */
+    @Test public void histogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++)
+            h.record(i);
+        assertEquals(10000, h.count());
+        assertEquals(5000, h.mean());
+        assertEquals(10000, h.max());
+        assertEquals(5000, h.percentile(50), 5000 / 16);
+        assertEquals(9900, h.percentile(99), 9900 / 16);
+        assertEquals(10000, h.percentile(100));
+    }
+
+    /** The first scan misses on every page, the second hits. */
+    @Test public void bufferPoolHitsAndMisses() throws Exception {
+        assertEquals(1200, CrashHarness.countTuples(hf));
+        assertEquals(3, Metrics.get("bufferpool.misses"));
+        assertEquals(3, Metrics.get("bufferpool.read_nanos"));
+        long hits = Metrics.get("bufferpool.hits");
+
+        assertEquals(1200, CrashHarness.countTuples(hf));
+        assertEquals(3, Metrics.get("bufferpool.misses"));
+        assertEquals(hits + 3, Metrics.get("bufferpool.hits"));
+    }
+
+    /** A commit appends log records, forces the log and writes its pages. */
+    @Test public void commitIsCounted() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        assertEquals(1, Metrics.get("bufferpool.dirty_pages"));
+        t.commit();
+
+        assertEquals(0, Metrics.get("bufferpool.dirty_pages"));
+        assertEquals(1, Metrics.get("bufferpool.pages_written"));
+        // BEGIN, INSERT and COMMIT
+        assertEquals(3, Metrics.get("log.records"));
+        assertTrue(Metrics.get("log.bytes") > 0);
+        assertTrue(Metrics.get("log.force_nanos") >= 1);
+    }
+
+    /** Only an acquire that has to block counts as a wait. */
+    @Test public void lockWaits() throws Exception {
+        LockManager lm = new LockManager(1);
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        lm.acquire(writer, 0, Permissions.READ_WRITE);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(reader, 0, Permissions.READ_ONLY);
+            } catch (InterruptedException e) {
+                // counted as a deadlock abort
+            }
+        });
+        t.start();
+        Thread.sleep(20);
+        lm.release(writer, 0);
+        t.join();
+
+        assertEquals(2, Metrics.get("lock.acquires"));
+        assertEquals(1, Metrics.get("lock.wait_nanos"));
+        assertEquals(0, Metrics.get("lock.deadlock_aborts"));
+        assertTrue(Metrics.histogram("lock.wait_nanos").max() > 0);
+    }
+
+    /** The MBean reports what get does, and the dump lists every metric. */
+    @Test public void jmxAndDump() throws Exception {
+        CrashHarness.countTuples(hf);
+        Metrics.registerMBean();
+        Metrics.registerMBean();
+
+        ObjectName name = new ObjectName(Metrics.MBEAN_NAME);
+        Object misses = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "bufferpool.misses");
+        assertEquals(3L, misses);
+        Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "bufferpool.read_nanos.count");
+        assertEquals(3L, count);
+
+        String dump = Metrics.dump();
+        assertTrue(dump.contains("bufferpool.misses 3\n"));
+        assertTrue(dump.contains("bufferpool.read_nanos count=3 "));
+        assertTrue(dump.contains("lock.wait_nanos count=0 "));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetricsTest.class);
+    }
+}
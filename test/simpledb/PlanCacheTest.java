@@ -0,0 +1,137 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.PlanCache;
+import simpledb.optimizer.PlanTemplate;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class PlanCacheTest extends SimpleDbTestBase {
+
+    private static final String KEY = "SELECT * FROM t WHERE t.c0 < $1:INT_TYPE";
+
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private HeapFile hf;
+    private PlanCache cache;
+    private int plans;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "t");
+        cache = new PlanCache();
+        plans = 0;
+    }
+
+    /** Plans "SELECT * FROM t WHERE t.c0 < ?", counting the plans made. */
+    private PlanCache.Planner planner(TransactionId tid) {
+        return () -> {
+            plans++;
+            JoinOptimizer jo = new JoinOptimizer(tid);
+            jo.addTable("t", hf.getId());
+            jo.addFilter("t", new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+            return jo;
+        };
+    }
+
+    private int expectedBelow(int bound) {
+        int n = 0;
+        for (List<Integer> tuple : tuples)
+            if (tuple.get(0) < bound)
+                n++;
+        return n;
+    }
+
+    private static int count(OpIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        try {
+            while (plan.hasNext()) {
+                plan.next();
+                n++;
+            }
+        } finally {
+            plan.close();
+        }
+        return n;
+    }
+
+    /** A query run again takes its plan from the cache, with its new constant. */
+    @Test public void rebind() throws Exception {
+        for (int bound : new int[] {100, 500, 900}) {
+            Transaction t = new Transaction();
+            t.start();
+            PlanTemplate template = cache.acquire(KEY, planner(t.getId()));
+            assertEquals(1, template.numParameters());
+            assertEquals(expectedBelow(bound), count(template.bind(t.getId(), new IntField(bound))));
+            cache.release(template);
+            t.commit();
+        }
+        assertEquals(1, plans);
+        assertEquals(1, cache.size());
+    }
+
+    /** Queries running at once get plans of their own. */
+    @Test public void concurrentAcquires() throws Exception {
+        TransactionId tid = new TransactionId();
+        PlanTemplate a = cache.acquire(KEY, planner(tid));
+        PlanTemplate b = cache.acquire(KEY, planner(tid));
+        assertNotSame(a, b);
+        assertNotSame(a.getPlan(), b.getPlan());
+        assertEquals(1, plans);
+
+        cache.release(a);
+        assertSame(a, cache.acquire(KEY, planner(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** New statistics or tables make the cached plans out of date. */
+    @Test public void invalidation() throws Exception {
+        TransactionId tid = new TransactionId();
+        cache.release(cache.acquire(KEY, planner(tid)));
+        cache.release(cache.acquire(KEY, planner(tid)));
+        assertEquals(1, plans);
+
+        Database.getCatalog().computeStatistics();
+        PlanTemplate stale = cache.acquire(KEY, planner(tid));
+        assertEquals(2, plans);
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getCatalog().addTable(other, "u");
+        cache.release(stale);
+        PlanTemplate fresh = cache.acquire(KEY, planner(tid));
+        assertEquals(3, plans);
+        // the template of a dropped plan is not handed out again
+        assertNotSame(stale, fresh);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = DbException.class) public void wrongParameters() throws Exception {
+        TransactionId tid = new TransactionId();
+        cache.acquire(KEY, planner(tid)).bind(tid, new IntField(1), new IntField(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PlanCacheTest.class);
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.ProfiledOperator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+public class ProfiledOperatorTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private Transaction t;
+
+    @Before public void createTable() throws Exception {
+        // 3 pages of two-column tuples, with values below 1000
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, 1000, null, tuples);
+        t = new Transaction();
+        t.start();
+    }
+
+    private static int drain(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Each operator gets its own rows and pages, and the plan is printed at close. */
+    @Test public void filterOverScan() throws Exception {
+        int bound = 500;
+        int expected = 0;
+        for (List<Integer> tuple : tuples)
+            if (tuple.get(0) < bound)
+                expected++;
+
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(bound)),
+                new SeqScan(t.getId(), hf.getId(), "t"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ProfiledOperator root = ProfiledOperator.profile(filter, new PrintStream(bytes, true));
+        assertEquals(expected, drain(root));
+
+        assertEquals(expected, root.getRows());
+        assertEquals(0, root.getPages());
+        ProfiledOperator scan = root.getChildren().get(0);
+        assertTrue(scan.getChild() instanceof SeqScan);
+        assertEquals(1200, scan.getRows());
+        assertEquals(3, scan.getPages());
+        assertTrue(root.getNanos() >= scan.getNanos());
+
+        String[] lines = bytes.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("Filter  (rows=" + expected + " "));
+        assertTrue(lines[1].startsWith("  SeqScan t  (rows=1200 "));
+        assertTrue(lines[1].contains(" pages=3"));
+        t.commit();
+    }
+
+    /** Both sides of a join are wrapped, and rewinds are measured like the rest. */
+    @Test public void join() throws Exception {
+        OpIterator join = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(t.getId(), hf.getId(), "a"), new SeqScan(t.getId(), hf.getId(), "b"));
+        ProfiledOperator root = ProfiledOperator.profile(join, null);
+        int rows = drain(root);
+
+        assertEquals(rows, root.getRows());
+        assertEquals(2, root.getChildren().size());
+        for (ProfiledOperator side : root.getChildren()) {
+            assertTrue(side.getRows() >= 1200);
+            assertTrue(side.getPages() >= 3);
+        }
+        String report = root.report();
+        assertTrue(report.startsWith("BlockNestedLoopJoin  (rows=" + rows + " "));
+        assertTrue(report.contains("\n  SeqScan a  "));
+        assertTrue(report.contains("\n  SeqScan b  "));
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ProfiledOperatorTest.class);
+    }
+}
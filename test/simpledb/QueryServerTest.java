@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+import simpledb.server.Client;
+import simpledb.server.LoadGenerator;
+import simpledb.server.Query;
+import simpledb.server.QueryServer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryServerTest extends SimpleDbTestBase {
+
+    private final List<List<Integer>> tuples = new ArrayList<>();
+    private QueryServer server;
+    private Client client;
+
+    @Before public void startServer() throws Exception {
+        // 3 pages of (c0, c1), with values below 1000
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1200, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(hf, "t");
+        server = new QueryServer(0, 8);
+        server.start();
+        client = new Client("localhost", server.getPort());
+    }
+
+    @After public void stopServer() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    private static Query scan() {
+        Query q = new Query();
+        q.addTable("t");
+        return q;
+    }
+
+    private static Query below(int bound) {
+        Query q = scan();
+        q.addFilter("t", "c0", Predicate.Op.LESS_THAN, new IntField(bound));
+        return q;
+    }
+
+    private int expectedBelow(int bound) {
+        int n = 0;
+        for (List<Integer> tuple : tuples)
+            if (tuple.get(0) < bound)
+                n++;
+        return n;
+    }
+
+    /** A result larger than a batch arrives whole, in order of the table. */
+    @Test public void queryStreamsBatches() throws Exception {
+        Client.ResultStream rs = client.query(scan());
+        assertEquals(2, rs.getTupleDesc().numFields());
+        int i = 0;
+        while (rs.hasNext()) {
+            Tuple t = rs.next();
+            assertEquals(tuples.get(i).get(0).intValue(), ((IntField) t.getField(0)).getValue());
+            assertEquals(tuples.get(i).get(1).intValue(), ((IntField) t.getField(1)).getValue());
+            i++;
+        }
+        assertEquals(1200, i);
+        assertEquals(1200, rs.getRowCount());
+
+        assertEquals(expectedBelow(500), client.queryAll(below(500)).size());
+    }
+
+    /** A result that is not read to the end does not get in the way of the next request. */
+    @Test public void abandonedResult() throws Exception {
+        Client.ResultStream rs = client.query(scan());
+        rs.next();
+        assertEquals(expectedBelow(100), client.queryAll(below(100)).size());
+    }
+
+    /** Other connections see an insert once it commits, and never if it aborts. */
+    @Test public void transactions() throws Exception {
+        try (Client other = new Client("localhost", server.getPort())) {
+            Query q = below(0);
+            q.addFilter("t", "c1", Predicate.Op.EQUALS, new IntField(-7));
+
+            client.begin();
+            client.insert("t", new IntField(-1), new IntField(-7));
+            assertEquals(1, client.queryAll(q).size());
+            // a query on its own runs as a snapshot, so it neither waits nor sees the insert
+            assertEquals(0, other.queryAll(q).size());
+            client.commit();
+            assertEquals(1, other.queryAll(q).size());
+
+            client.begin();
+            client.insert("t", new IntField(-2), new IntField(-7));
+            client.abort();
+            assertEquals(1, other.queryAll(q).size());
+            assertFalse(client.inTransaction());
+        }
+    }
+
+    @Test public void delete() throws Exception {
+        assertEquals(expectedBelow(300), client.delete(below(300)));
+        assertEquals(0, client.queryAll(below(300)).size());
+        assertEquals(1200 - expectedBelow(300), client.queryAll(scan()).size());
+    }
+
+    @Test public void join() throws Exception {
+        Query q = new Query();
+        q.addTable("t", "a");
+        q.addTable("t", "b");
+        q.addFilter("a", "c0", Predicate.Op.LESS_THAN, new IntField(50));
+        q.addJoin("a", "c0", Predicate.Op.EQUALS, "b", "c0");
+        int expected = 0;
+        for (List<Integer> x : tuples)
+            for (List<Integer> y : tuples)
+                if (x.get(0) < 50 && x.get(0).equals(y.get(0)))
+                    expected++;
+        List<Tuple> result = client.queryAll(q);
+        assertEquals(expected, result.size());
+        assertEquals(4, result.get(0).getTupleDesc().numFields());
+    }
+
+    /** Bad requests fail alone; the connection carries on. */
+    @Test public void errors() throws Exception {
+        Query q = new Query();
+        q.addTable("nosuchtable");
+        try {
+            client.queryAll(q);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            client.insert("t", new IntField(1));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            client.commit();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(1200, client.queryAll(scan()).size());
+    }
+
+    /** Many threads share a few connections without failures. */
+    @Test public void loadGenerator() throws Exception {
+        LoadGenerator gen = new LoadGenerator("localhost", server.getPort(), "t", "c0", 4, 2, 20, 1000);
+        String report = gen.run(500);
+        assertTrue(gen.completed() > 0);
+        assertEquals(0, gen.failed());
+        assertTrue(report.startsWith("reads "));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryServerTest.class);
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.File;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Measures how long recovery takes after a crash, depending on how often
+ * checkpoints are taken.  Each run commits the same number of one-tuple
+ * transactions, taking a checkpoint every so many of them, leaves one
+ * transaction uncommitted, crashes and times LogFile.recover().
+ *
+ * <p> Usage: java simpledb.RecoveryBenchmark [transactions]
+ */
+public class RecoveryBenchmark {
+
+    private static final int[] CHECKPOINT_INTERVALS = {0, 2000, 500, 100};
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        // small segments, so that checkpoints visibly shorten the log
+        LogFile.setSegmentSize(1 << 16);
+        System.out.println("checkpoint every\tlog bytes\trecovery ms");
+        for (int interval : CHECKPOINT_INTERVALS) {
+            Database.reset();
+            File file = File.createTempFile("table", ".dat");
+            file.deleteOnExit();
+            HeapFile hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+
+            for (int i = 1; i <= transactions; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i}));
+                t.commit();
+                if (interval > 0 && i % interval == 0)
+                    Database.getLogFile().logCheckpoint();
+            }
+            Transaction loser = new Transaction();
+            loser.start();
+            Database.getBufferPool().insertTuple(loser.getId(), hf.getId(), Utility.getHeapTuple(new int[] {0, 0}));
+            Database.getBufferPool().flushAllPages();
+
+            long logBytes = Database.getLogFile().getCurrentLsn() - Database.getLogFile().getFirstLsn();
+            CrashHarness.crash(2, file);
+            long start = System.nanoTime();
+            Database.getLogFile().recover();
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println((interval == 0 ? "never" : String.valueOf(interval))
+                    + "\t" + logBytes + "\t" + millis);
+        }
+    }
+}
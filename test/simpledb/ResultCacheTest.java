@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ResultCache;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+public class ResultCacheTest extends SimpleDbTestBase {
+
+    private static final String KEY = "SELECT * FROM t";
+
+    private HeapFile hf;
+    private int[] tables;
+    private ResultCache cache;
+    private int plans;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        Database.getCatalog().addTable(hf, "t");
+        tables = new int[] { hf.getId() };
+        cache = new ResultCache();
+        plans = 0;
+    }
+
+    private int count(Transaction t) throws Exception {
+        return count(t, KEY);
+    }
+
+    /** Count the tuples of a scan of the table in t, through the cache. */
+    private int count(Transaction t, String key) throws Exception {
+        OpIterator it = cache.get(t.getId(), key, tables, () -> {
+            plans++;
+            return new SeqScan(t.getId(), hf.getId(), "t");
+        });
+        int n = 0;
+        it.open();
+        try {
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+        } finally {
+            it.close();
+        }
+        return n;
+    }
+
+    private static Transaction snapshot() {
+        Transaction t = new Transaction(true);
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t) throws Exception {
+        Tuple tuple = new Tuple(hf.getTupleDesc());
+        tuple.setField(0, new IntField(1));
+        tuple.setField(1, new IntField(2));
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+    }
+
+    @Test public void repeatedQueryHits() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Transaction t = snapshot();
+            assertEquals(1200, count(t));
+            t.commit();
+        }
+        assertEquals(1, plans);
+        assertEquals(1, cache.size());
+
+        Transaction t = snapshot();
+        assertTrue(cache.get(t.getId(), KEY, tables, null) instanceof TupleIterator);
+        t.commit();
+    }
+
+    /** Committed changes are seen at once; uncommitted ones never. */
+    @Test public void changesInvalidate() throws Exception {
+        Transaction s = snapshot();
+        assertEquals(1200, count(s));
+        s.commit();
+
+        Transaction w = new Transaction();
+        w.start();
+        insert(w);
+        s = snapshot();
+        assertEquals(1200, count(s));
+        s.commit();
+        w.abort();
+        s = snapshot();
+        assertEquals(1200, count(s));
+        s.commit();
+
+        w = new Transaction();
+        w.start();
+        insert(w);
+        w.commit();
+        s = snapshot();
+        assertEquals(1201, count(s));
+        s.commit();
+        assertEquals(4, plans);
+    }
+
+    /** A snapshot older than the last commit neither uses nor replaces the newer result. */
+    @Test public void oldSnapshot() throws Exception {
+        Transaction old = snapshot();
+        Transaction w = new Transaction();
+        w.start();
+        insert(w);
+        w.commit();
+
+        Transaction s = snapshot();
+        assertEquals(1201, count(s));
+        s.commit();
+        assertEquals(1200, count(old));
+        old.commit();
+        s = snapshot();
+        assertEquals(1201, count(s));
+        s.commit();
+        assertEquals(2, plans);
+    }
+
+    /** Transactions that take locks read the table every time. */
+    @Test public void lockingBypasses() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            assertEquals(1200, count(t));
+            t.commit();
+        }
+        assertEquals(2, plans);
+        assertEquals(0, cache.size());
+    }
+
+    /** The least recently used results go first. */
+    @Test public void eviction() throws Exception {
+        // a result is 1200 tuples of two ints; room for four
+        cache = new ResultCache(4 * 1200 * (48 + 8));
+        Transaction t = snapshot();
+        for (int i = 0; i < 5; i++)
+            assertEquals(1200, count(t, KEY + " /* " + i + " */"));
+        assertEquals(4, cache.size());
+        assertEquals(5, plans);
+        assertEquals(1200, count(t, KEY + " /* 4 */"));
+        assertEquals(1200, count(t, KEY + " /* 0 */"));
+        assertEquals(6, plans);
+        t.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ResultCacheTest.class);
+    }
+}
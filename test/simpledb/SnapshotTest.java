@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class SnapshotTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void createTable() throws Exception {
+        File file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+    }
+
+    private Tuple insert(Transaction t, int v) throws Exception {
+        Tuple tup = Utility.getHeapTuple(new int[] {v, v});
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+        return tup;
+    }
+
+    private int sum(Transaction t) throws Exception {
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.open();
+        int sum = 0;
+        while (scan.hasNext())
+            sum += scan.next().getField(0).hashCode();
+        scan.close();
+        return sum;
+    }
+
+    /** A snapshot sees neither the inserts nor the deletes committed after it began. */
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        Transaction setup = new Transaction();
+        setup.start();
+        Tuple one = insert(setup, 1);
+        insert(setup, 2);
+        setup.commit();
+
+        Transaction snapshot = new Transaction(true);
+        snapshot.start();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        insert(writer, 4);
+        Database.getBufferPool().deleteTuple(writer.getId(), one);
+        writer.commit();
+
+        assertEquals(3, sum(snapshot));
+        Transaction later = new Transaction(true);
+        later.start();
+        assertEquals(6, sum(later));
+        later.commit();
+        snapshot.commit();
+    }
+
+    /**
+     * A snapshot reads pages a writer holds locked, without waiting for it,
+     * and does not see its uncommitted changes.
+     */
+    @Test public void snapshotDoesNotBlockWriter() throws Exception {
+        Transaction setup = new Transaction();
+        setup.start();
+        Tuple one = insert(setup, 1);
+        setup.commit();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        insert(writer, 2);
+        Database.getBufferPool().deleteTuple(writer.getId(), one);
+
+        Transaction snapshot = new Transaction(true);
+        snapshot.start();
+        assertEquals(1, sum(snapshot));
+        writer.abort();
+        assertEquals(1, sum(snapshot));
+        snapshot.commit();
+        assertEquals(1, CrashHarness.countTuples(hf));
+    }
+
+    /** Versions are kept while a snapshot may need them, and no longer. */
+    @Test public void versionsAreDropped() throws Exception {
+        Transaction snapshot = new Transaction(true);
+        snapshot.start();
+        Transaction writer = new Transaction();
+        writer.start();
+        insert(writer, 1);
+        writer.commit();
+        assertEquals(1, Database.getVersionStore().size());
+
+        snapshot.commit();
+        assertEquals(0, Database.getVersionStore().size());
+
+        writer = new Transaction();
+        writer.start();
+        insert(writer, 2);
+        writer.commit();
+        assertEquals(0, Database.getVersionStore().size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.SystemCatalog;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.HashIndexFile;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+public class SystemCatalogTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+
+    private File dir;
+
+    @Before public void openCatalog() throws Exception {
+        dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        Database.getCatalog().openSystemCatalog(dir);
+    }
+
+    private void restart() throws Exception {
+        Database.reset();
+        Database.getCatalog().openSystemCatalog(dir);
+    }
+
+    /** Tables, their schemas and their contents are all there after a restart. */
+    @Test public void tablesSurviveRestart() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", TD, "id");
+        HeapFile b = Database.getCatalog().createTable("b", Utility.getTupleDesc(3), "");
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), b.getId(), Utility.getHeapTuple(new int[] {1, 2, 3}));
+        t.commit();
+
+        restart();
+        assertEquals(a.getId(), Database.getCatalog().getTableId("a"));
+        assertEquals(b.getId(), Database.getCatalog().getTableId("b"));
+        assertEquals("id", Database.getCatalog().getPrimaryKey(a.getId()));
+        TupleDesc td = Database.getCatalog().getTupleDesc(a.getId());
+        assertEquals(TD, td);
+        assertEquals("name", td.getFieldName(1));
+        assertEquals(1, CrashHarness.countTuples((HeapFile) Database.getCatalog().getDatabaseFile(b.getId())));
+    }
+
+    /** Ids are allocated, never reused, and do not depend on file names. */
+    @Test public void idsAreUnique() throws Exception {
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            int id = Database.getCatalog().createTable("t" + i, TD, "").getId();
+            assertTrue(id > SystemCatalog.COLUMNS_ID);
+            assertTrue(ids.add(id));
+        }
+        restart();
+        int id = Database.getCatalog().createTable("t20", TD, "").getId();
+        assertFalse(ids.contains(id));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void duplicateName() throws Exception {
+        Database.getCatalog().createTable("a", TD, "");
+        restart();
+        Database.getCatalog().createTable("a", TD, "");
+    }
+
+    /** Index and column files get ids from the system catalog too, never a table's. */
+    @Test public void fileIdsAreAllocated() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", TD, "id");
+        File indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        Transaction t = new Transaction();
+        t.start();
+        HashIndexFile index = HashIndexFile.createIndex(t.getId(), indexFile, a, 0);
+        t.commit();
+        File columnFile = File.createTempFile("columns", ".dat");
+        columnFile.deleteOnExit();
+        ColumnFile columns = ColumnFile.create(columnFile, TD, new ArrayList<>());
+        HeapFile b = Database.getCatalog().createTable("b", TD, "");
+
+        Set<Integer> ids = new HashSet<>(Arrays.asList(SystemCatalog.TABLES_ID, SystemCatalog.COLUMNS_ID,
+                a.getId(), index.getId(), columns.getId(), b.getId()));
+        assertEquals(6, ids.size());
+        assertTrue(index.getId() > a.getId() && b.getId() > columns.getId());
+    }
+
+    /** An index's id is recorded, so no table created after a restart takes it. */
+    @Test public void fileIdsSurviveRestart() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", TD, "id");
+        File indexFile = File.createTempFile("index", ".dat");
+        indexFile.deleteOnExit();
+        Transaction t = new Transaction();
+        t.start();
+        HashIndexFile index = HashIndexFile.createIndex(t.getId(), indexFile, a, 0);
+        t.commit();
+
+        restart();
+        HeapFile b = Database.getCatalog().createTable("b", TD, "");
+        assertTrue(b.getId() > index.getId());
+        Database.getCatalog().addIndex(new HashIndexFile(indexFile,
+                (HeapFile) Database.getCatalog().getDatabaseFile(a.getId()), 0, index.getId()));
+        assertEquals(a.getId(), Database.getCatalog().getTableId("a"));
+    }
+
+    /** Statistics saved with the system catalog are read back with it. */
+    @Test public void statisticsSurviveRestart() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", Utility.getTupleDesc(2), "");
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(t.getId(), a.getId(), Utility.getHeapTuple(new int[] {i, i}));
+        t.commit();
+        Database.getCatalog().computeStatistics();
+        Database.getCatalog().writeStatistics();
+
+        restart();
+        TableStats stats = Database.getCatalog().getTableStats(a.getId());
+        assertNotNull(stats);
+        assertEquals(10, stats.totalTuples());
+    }
+
+    /** A table opened by hand can't take the id of a system catalog table. */
+    @Test(expected = IllegalArgumentException.class) public void idClash() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", TD, "id");
+        File other = File.createTempFile("table", ".dat");
+        other.deleteOnExit();
+        Database.getCatalog().addTable(new HeapFile(other, TD, a.getId()), "other");
+    }
+
+    private void crashAndRecover() throws Exception {
+        restart();
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * The crash comes after createTable logs its commit but before it writes
+     * the system tables' pages, so recovery must redo them before the
+     * catalog is read.
+     */
+    @Test public void createTableIsRedone() throws Exception {
+        Database.getCatalog().createTable("a", TD, "id");
+        File tables = new File(dir, "tables.dat"), columns = new File(dir, "columns.dat");
+        byte[] tablesBefore = Files.readAllBytes(tables.toPath());
+        byte[] columnsBefore = Files.readAllBytes(columns.toPath());
+        HeapFile b = Database.getCatalog().createTable("b", Utility.getTupleDesc(3), "");
+        // undo the page writes, double-write buffer included
+        Files.write(tables.toPath(), tablesBefore);
+        Files.write(columns.toPath(), columnsBefore);
+        Database.getLogFile().getDoubleWriteBuffer().clear();
+
+        crashAndRecover();
+        assertEquals(b.getId(), Database.getCatalog().getTableId("b"));
+        assertEquals(Utility.getTupleDesc(3), Database.getCatalog().getTupleDesc(b.getId()));
+        Database.getCatalog().getTableId("a");
+    }
+
+    /** A torn page of the table of tables is restored before it is read. */
+    @Test public void tornCatalogPageIsRestored() throws Exception {
+        HeapFile a = Database.getCatalog().createTable("a", TD, "id");
+        HeapFile b = Database.getCatalog().createTable("b", TD, "");
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, "tables.dat"), "rw")) {
+            raf.write(new byte[BufferPool.getPageSize() / 2]);
+        }
+
+        crashAndRecover();
+        assertEquals(a.getId(), Database.getCatalog().getTableId("a"));
+        assertEquals(b.getId(), Database.getCatalog().getTableId("b"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SystemCatalogTest.class);
+    }
+}
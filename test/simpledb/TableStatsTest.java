@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 30000;
+
+    private HeapFile hf;
+    private TableStats stats;
+
+    /**
+     * Column 0 cycles through 0..999; column 1 is 7 in the first half of
+     * the table and distinct in the second.  There are more rows than the
+     * statistics sample.
+     */
+    @Before public void createTable() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Arrays.asList(i % 1000, i < ROWS / 2 ? 7 : i));
+        File file = File.createTempFile("table", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, file);
+        stats = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+    }
+
+    private double sel(int field, Op op, int v) {
+        return stats.estimateSelectivity(field, op, new IntField(v));
+    }
+
+    @Test public void counts() {
+        assertEquals(ROWS, stats.totalTuples());
+        assertEquals(hf.numPages(), stats.numPages());
+        assertEquals(hf.numPages() * (double) TableStats.IOCOSTPERPAGE, stats.estimateScanCost(), 0);
+        assertEquals(ROWS / 10, stats.estimateTableCardinality(0.1));
+    }
+
+    @Test public void uniformColumn() {
+        assertEquals(0.001, sel(0, Op.EQUALS, 500), 0.001);
+        assertEquals(0.999, sel(0, Op.NOT_EQUALS, 500), 0.001);
+        assertEquals(0.25, sel(0, Op.LESS_THAN, 250), 0.03);
+        assertEquals(0.75, sel(0, Op.GREATER_THAN_OR_EQ, 250), 0.03);
+        assertEquals(0.5, sel(0, Op.GREATER_THAN, 499), 0.03);
+        assertEquals(0.0, sel(0, Op.LESS_THAN, 0), 0);
+        assertEquals(0.0, sel(0, Op.EQUALS, 5000), 0);
+        assertEquals(1.0, sel(0, Op.LESS_THAN_OR_EQ, 999), 0.001);
+        assertEquals(1000, stats.estimateDistinct(0), 200);
+    }
+
+    /** A value held by half the rows gets half the estimate, and the rest little. */
+    @Test public void skewedColumn() {
+        assertEquals(0.5, sel(1, Op.EQUALS, 7), 0.05);
+        assertTrue(sel(1, Op.EQUALS, ROWS - 1) < 0.001);
+        assertEquals(0.5, sel(1, Op.LESS_THAN_OR_EQ, 7), 0.05);
+        assertEquals(0.25, sel(1, Op.GREATER_THAN, ROWS * 3 / 4), 0.03);
+    }
+
+    /** Statistics saved with the catalog come back the same. */
+    @Test public void statisticsArePersisted() throws Exception {
+        File statsFile = File.createTempFile("catalog", ".stats");
+        statsFile.deleteOnExit();
+        Database.getCatalog().setTableStats(hf.getId(), stats);
+        Database.getCatalog().writeStatistics(statsFile.getPath());
+        Database.getCatalog().setTableStats(hf.getId(), null);
+
+        Database.getCatalog().readStatistics(statsFile.getPath());
+        TableStats read = Database.getCatalog().getTableStats(hf.getId());
+        assertEquals(stats.totalTuples(), read.totalTuples());
+        assertEquals(stats.numPages(), read.numPages());
+        for (Op op : Op.values())
+            assertEquals(sel(1, op, 7), read.estimateSelectivity(1, op, new IntField(7)), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}